@@ -21,6 +21,7 @@ import static ru.alexapps.treeview.utils.testutils.TestUtils.prepareTestData;
 
 public class MainFragment extends Fragment implements CheckableTreeAdapter.CheckableTreeAdapterListener {
     private MainViewModel mainViewModel;
+    private CheckableTreeAdapter adapter;
 
     public MainFragment() {
         super(R.layout.fragment_main);
@@ -30,15 +31,16 @@ public class MainFragment extends Fragment implements CheckableTreeAdapter.Check
     public void onViewCreated(@NonNull View view, @Nullable Bundle savedInstanceState) {
         RecyclerView recyclerView = view.findViewById(R.id.recycler_view);
         FloatingActionButton actionButton = view.findViewById(R.id.floating_action_button);
-        CheckableTreeAdapter adapter = new CheckableTreeAdapter(requireContext());
+        adapter = new CheckableTreeAdapter(requireContext());
         adapter.setListener(this);
         adapter.setTreeItemPadding(5);
         recyclerView.setAdapter(adapter);
 
         mainViewModel = new ViewModelProvider(requireActivity()).get(MainViewModel.class);
         actionButton.setOnClickListener(v -> {
-            mainViewModel.addNode();
+            mainViewModel.addNode().forEach(adapter::applyUpdate);
         });
+        //Tree is posted only when it is replaced, its changes are applied as updates
         mainViewModel.getTreeLiveData().observe(getViewLifecycleOwner(), tree -> {
             adapter.setData(tree);
             adapter.notifyDataSetChanged();
@@ -56,17 +58,17 @@ public class MainFragment extends Fragment implements CheckableTreeAdapter.Check
 
     @Override
     public void onChangeExpanded(TreeItem item, boolean value) {
-        mainViewModel.setExpanded(item.getLft(), item.getRgt(), value);
+        adapter.applyUpdate(mainViewModel.setExpanded(item.getLft(), item.getRgt(), value));
     }
 
     @Override
     public void onChangeChecked(TreeItem item, boolean value) {
-        mainViewModel.setChecked(item.getLft(), item.getRgt(), value);
+        adapter.applyUpdate(mainViewModel.setChecked(item.getLft(), item.getRgt(), value));
     }
 
     @Override
     public void onDelete(TreeItem item) {
-        mainViewModel.deleteNode(item.getLft(), item.getRgt());
+        adapter.applyUpdate(mainViewModel.deleteNode(item.getLft(), item.getRgt()));
     }
 
     @Override
@@ -6,6 +6,7 @@ import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MutableLiveData;
 import androidx.lifecycle.ViewModel;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import ru.alexapps.treeview.utils.CheckableTree;
@@ -23,18 +24,19 @@ public class MainViewModel extends ViewModel {
         mTreeLiveData = new TreeLiveData(new CheckableTree<>(items));
     }
 
-    public void setChecked(int lft, int rgt, boolean value) {
-        mTreeLiveData.setChecked(lft, rgt, value);
+    public Tree.TreeUpdate<TreeItem> setChecked(int lft, int rgt, boolean value) {
+        return mTreeLiveData.setChecked(lft, rgt, value);
     }
-    public void setExpanded(int lft, int rgt, boolean value) {
-        mTreeLiveData.setExpanded(lft, rgt, value);
+    public Tree.TreeUpdate<TreeItem> setExpanded(int lft, int rgt, boolean value) {
+        return mTreeLiveData.setExpanded(lft, rgt, value);
     }
-    public void deleteNode(int lft, int rgt) {
+    public Tree.TreeUpdate<TreeItem> deleteNode(int lft, int rgt) {
         Tree.TreeUpdate<TreeItem> treeUpdate = mTreeLiveData.deleteNode(lft, rgt);
         if(treeUpdate.deleted.indexOf(mSelectedItemLiveData.getValue()) > -1) {
-            //Selected item was removed
-            mSelectedItemLiveData.setValue(null);
+            //Selected item was removed. Posted, so update is applied to adapter before selection is changed
+            mSelectedItemLiveData.postValue(null);
         }
+        return treeUpdate;
     }
     public void selectItem(TreeItem item) {
         TreeItem oldSelectedItem = mSelectedItemLiveData.getValue();
@@ -46,14 +48,21 @@ public class MainViewModel extends ViewModel {
         }
 
     }
-    public void addNode() {
+    /**
+     * Adds child to selected item, expands selected item if it is collapsed
+     *
+     * @return updates of the tree in order they were made
+     */
+    public List<Tree.TreeUpdate<TreeItem>> addNode() {
         TreeItem selectedItem = mSelectedItemLiveData.getValue();
         if(selectedItem == null) throw new IllegalStateException("Can't add child to null node");
         TreeItem newNode = new TreeItem(-1, -1, true);
+        List<Tree.TreeUpdate<TreeItem>> updates = new ArrayList<>(2);
         if(!selectedItem.isExpanded()) {
-            mTreeLiveData.setExpanded(selectedItem.getLft(), selectedItem.getRgt(), true);
+            updates.add(mTreeLiveData.setExpanded(selectedItem.getLft(), selectedItem.getRgt(), true));
         }
-        mTreeLiveData.addNode(newNode, selectedItem.getLft(), selectedItem.getRgt());
+        updates.add(mTreeLiveData.addNode(newNode, selectedItem.getLft(), selectedItem.getRgt()));
+        return updates;
     }
     public LiveData<CheckableTree<TreeItem>> getTreeLiveData() {
         return mTreeLiveData;
@@ -63,32 +72,27 @@ public class MainViewModel extends ViewModel {
     }
 
 
+    /**
+     * Holds the tree. Changes of the tree are not posted as new values,
+     * they are returned as updates, so observer can notify only changed rows
+     */
     class TreeLiveData extends LiveData<CheckableTree<TreeItem>> {
 
 
         TreeLiveData(CheckableTree<TreeItem> tree) {
             super(tree);
         }
-        public void setChecked(int lft, int rgt, boolean value) {
-            CheckableTree<TreeItem> tree =  getNonNullValue();
-            tree.setNodeChecked(lft, rgt, value);
-            setValue(tree);
+        public Tree.TreeUpdate<TreeItem> setChecked(int lft, int rgt, boolean value) {
+            return getNonNullValue().setNodeChecked(lft, rgt, value);
         }
-        public void setExpanded(int lft, int rgt, boolean value) {
-            CheckableTree<TreeItem> tree =  getNonNullValue();
-            tree.setExpanded(lft, rgt, value);
-            setValue(tree);
+        public Tree.TreeUpdate<TreeItem> setExpanded(int lft, int rgt, boolean value) {
+            return getNonNullValue().setExpanded(lft, rgt, value);
         }
         public Tree.TreeUpdate<TreeItem> deleteNode(int lft, int rgt) {
-            CheckableTree<TreeItem> tree =  getNonNullValue();
-            Tree.TreeUpdate<TreeItem> update = tree.deleteNode(lft, rgt);
-            setValue(tree);
-            return update;
+            return getNonNullValue().deleteNode(lft, rgt);
         }
-        public void addNode(TreeItem node, int parentLft, int parentRgt) {
-            CheckableTree<TreeItem> tree =  getNonNullValue();
-            tree.addNode(node, parentLft, parentRgt, 0);
-            setValue(tree);
+        public Tree.TreeUpdate<TreeItem> addNode(TreeItem node, int parentLft, int parentRgt) {
+            return getNonNullValue().addNode(node, parentLft, parentRgt, 0);
         }
         CheckableTree<TreeItem> getNonNullValue() {
             CheckableTree<TreeItem> value = getValue();
@@ -0,0 +1,43 @@
+package ru.alexapps.treeview.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+
+import java.util.concurrent.TimeUnit;
+
+import ru.alexapps.treeview.model.CheckableTreeNode;
+import ru.alexapps.treeview.utils.CheckableTree;
+import ru.alexapps.treeview.utils.Tree;
+
+/**
+ * Operations of {@link CheckableTree}. Checking benchmarks uncheck nodes back, so every invocation works with the same tree
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CheckableTreeBenchmark extends TreeFixture {
+
+    @Benchmark
+    public Tree.TreeUpdate<CheckableTreeNode> checkAndUncheckLeaf() {
+        tree.setNodeChecked(lastNode, true);
+        return tree.setNodeChecked(lastNode, false);
+    }
+
+    @Benchmark
+    public Tree.TreeUpdate<CheckableTreeNode> checkAndUncheckSubtree() {
+        tree.setNodeChecked(middleNode, true);
+        return tree.setNodeChecked(middleNode, false);
+    }
+
+    @Benchmark
+    public Tree.TreeUpdate<CheckableTreeNode> checkAndUncheckAll() {
+        tree.setNodeChecked(tree.getRoot(), true);
+        return tree.setNodeChecked(tree.getRoot(), false);
+    }
+
+    @Benchmark
+    public CheckableTree.CheckedState getCheckedState() {
+        return tree.getCheckedState(middleNode.getLft(), middleNode.getRgt());
+    }
+}
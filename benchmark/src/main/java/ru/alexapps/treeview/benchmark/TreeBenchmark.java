@@ -0,0 +1,69 @@
+package ru.alexapps.treeview.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import ru.alexapps.treeview.model.CheckableTreeNode;
+import ru.alexapps.treeview.utils.Tree;
+
+/**
+ * Operations of {@link Tree}. Changing benchmarks restore the tree, so every invocation works with the same tree
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TreeBenchmark extends TreeFixture {
+
+    @Benchmark
+    public List<CheckableTreeNode> getVisibleNodes() {
+        return tree.getVisibleNodes();
+    }
+
+    /**
+     * Collapsing and expanding update visible index in place, so cost is proportional to rows of the middle subtree
+     */
+    @Benchmark
+    public int collapseAndExpand() {
+        tree.setExpanded(middleNode.getLft(), middleNode.getRgt(), false);
+        final int collapsedCount = tree.getVisibleCount();
+        tree.setExpanded(middleNode.getLft(), middleNode.getRgt(), true);
+        return collapsedCount + tree.getVisibleCount();
+    }
+
+    @Benchmark
+    public boolean isTreeValid() {
+        return Tree.isTreeValid(sortedNodes);
+    }
+
+    @Benchmark
+    public Tree<CheckableTreeNode> createTree() {
+        return new Tree<>(sortedNodes, true, Tree.DENSE_SPACING, storage);
+    }
+
+    @Benchmark
+    public CheckableTreeNode getNodeByLftRgt() {
+        return tree.getNodeByLftRgt(lastNode.getLft(), lastNode.getRgt());
+    }
+
+    @Benchmark
+    public List<CheckableTreeNode> getAncestors() {
+        return tree.getAncestors(lastNode.getLft(), lastNode.getRgt());
+    }
+
+    @Benchmark
+    public Tree.TreeUpdate<CheckableTreeNode> addAndDeleteNode() {
+        CheckableTreeNode node = new CheckableTreeNode();
+        tree.addNode(node, middleNode);
+        return tree.deleteNode(node.getLft(), node.getRgt());
+    }
+
+    @Benchmark
+    public Tree.TreeUpdate<CheckableTreeNode> moveNodeAndBack() {
+        tree.moveNode(lastNode, tree.getRoot(), 0);
+        return tree.moveNode(lastNode, lastNodeParent, lastNodeIndex);
+    }
+}
@@ -0,0 +1,60 @@
+package ru.alexapps.treeview.benchmark;
+
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import ru.alexapps.treeview.model.CheckableTreeNode;
+import ru.alexapps.treeview.utils.CheckableTree;
+import ru.alexapps.treeview.utils.Tree;
+import ru.alexapps.treeview.utils.testutils.TestUtils;
+
+/**
+ * Tree of every size, shape and storage, shared by benchmarks. All nodes are expanded
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public abstract class TreeFixture {
+    private static final long SEED = 42;
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int size;
+    @Param({"WIDE", "DEEP_CHAIN", "BALANCED", "RANDOM", "SKEWED"})
+    public TreeShape shape;
+    @Param({"OBJECTS", "COLUMNS"})
+    public Tree.Storage storage;
+
+    CheckableTree<CheckableTreeNode> tree;
+    //Nodes of the tree sorted by lft
+    List<CheckableTreeNode> sortedNodes;
+    //Last node in lft order, it is always leaf and the deepest node in chain
+    CheckableTreeNode lastNode;
+    //Parent of last node and its index among children of parent
+    CheckableTreeNode lastNodeParent;
+    int lastNodeIndex;
+    //Node in the middle of lft order
+    CheckableTreeNode middleNode;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        tree = TestUtils.generateCheckableTree(shape.shape, size, SEED, (lft, rgt) -> new CheckableTreeNode(lft, rgt, true), storage);
+        CheckableTreeNode root = tree.getRoot();
+        sortedNodes = new ArrayList<>(size);
+        sortedNodes.add(root);
+        sortedNodes.addAll(tree.getDescendants(root));
+        lastNode = sortedNodes.get(size - 1);
+        middleNode = sortedNodes.get(size / 2);
+        lastNodeParent = tree.getParent(lastNode.getLft(), lastNode.getRgt());
+        lastNodeIndex = tree.getChildren(lastNodeParent.getLft(), lastNodeParent.getRgt()).indexOf(lastNode);
+    }
+}
@@ -0,0 +1,35 @@
+package ru.alexapps.treeview.benchmark;
+
+import ru.alexapps.treeview.utils.testutils.TestUtils.Shape;
+
+/**
+ * Shapes of benchmarked trees
+ */
+public enum TreeShape {
+    /**
+     * All nodes are children of root
+     */
+    WIDE(Shape.kAry(Integer.MAX_VALUE)),
+    /**
+     * Every node is the only child of previous node
+     */
+    DEEP_CHAIN(Shape.deepChain()),
+    /**
+     * Complete binary tree
+     */
+    BALANCED(Shape.kAry(2)),
+    /**
+     * Up to 8 children of random sizes
+     */
+    RANDOM(Shape.randomFanOut(8)),
+    /**
+     * Binary tree with random split of descendants between children
+     */
+    SKEWED(Shape.random());
+
+    final Shape shape;
+
+    TreeShape(Shape shape) {
+        this.shape = shape;
+    }
+}
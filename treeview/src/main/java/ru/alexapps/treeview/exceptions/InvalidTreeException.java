@@ -0,0 +1,61 @@
+package ru.alexapps.treeview.exceptions;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import ru.alexapps.treeview.model.TreeNode;
+
+public class InvalidTreeException extends IllegalStateException {
+    private final Reason mReason;
+    private final TreeNode mNode;
+
+    public InvalidTreeException(@NonNull Reason reason, @Nullable TreeNode node) {
+        super(node == null
+                ? "Tree is not valid: " + reason
+                : "Tree is not valid: " + reason + " at node with lft = " + node.getLft() + " and rgt = " + node.getRgt());
+        mReason = reason;
+        mNode = node;
+    }
+
+    @NonNull
+    public Reason getReason() {
+        return mReason;
+    }
+
+    /**
+     * Returns first node which breaks the nested set, null if error is not related to specific node
+     *
+     * @return first offending node
+     */
+    @Nullable
+    public TreeNode getNode() {
+        return mNode;
+    }
+
+    public enum Reason {
+        /**
+         * Tree has no nodes
+         */
+        EMPTY,
+        /**
+         * Nodes declared as sorted are not sorted by lft
+         */
+        NOT_SORTED,
+        /**
+         * Root lft is not 0 or tree has more then one root
+         */
+        INVALID_ROOT,
+        /**
+         * Node has rgt less or equal to its lft
+         */
+        INVALID_RANGE,
+        /**
+         * Node indexes are not contiguous: some node is missed or duplicated
+         */
+        INVALID_INDEXES,
+        /**
+         * Node is not completely inside its parent
+         */
+        OVERLAPPING
+    }
+}
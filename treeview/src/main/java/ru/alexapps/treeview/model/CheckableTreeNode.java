@@ -24,6 +24,11 @@ public class CheckableTreeNode extends TreeNode {
         this.mChecked = checked;
     }
 
+    @Override
+    public boolean contentEquals(TreeNode other) {
+        return super.contentEquals(other) && mChecked == ((CheckableTreeNode) other).mChecked;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -6,6 +6,7 @@ public class TreeNode {
     private int mLft;
     private int mRgt;
     private boolean mExpanded;
+    private int mDepth;
 
     public TreeNode() {
         this(0, 0, false);
@@ -40,6 +41,31 @@ public class TreeNode {
         this.mExpanded = expanded;
     }
 
+    /**
+     * Returns nesting depth of node, 0 for root. Maintained by the tree which contains this node
+     *
+     * @return nesting depth of node
+     */
+    public int getDepth() {
+        return mDepth;
+    }
+
+    public void setDepth(int depth) {
+        this.mDepth = depth;
+    }
+
+    /**
+     * Returns true if other node is shown with the same content. Nested set indexes are not compared,
+     * so node which was only renumbered by insert or delete above it has the same content.
+     * Default implementation compares class, depth and expanded state, subclasses which carry data must compare it too
+     *
+     * @param other node to compare with
+     * @return true if row of other node does not need to be rebound
+     */
+    public boolean contentEquals(TreeNode other) {
+        return getClass() == other.getClass() && mDepth == other.mDepth && mExpanded == other.mExpanded;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
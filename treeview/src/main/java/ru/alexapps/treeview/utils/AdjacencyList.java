@@ -0,0 +1,212 @@
+package ru.alexapps.treeview.utils;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+import ru.alexapps.treeview.model.CheckableTreeNode;
+import ru.alexapps.treeview.model.TreeNode;
+
+/**
+ * Conversion between the tree and parent-pointer form, where every node has id and id of its parent.
+ * Nested set indexes are assigned in one depth-first pass, children keep order of input nodes.
+ * Resulting nested set is valid by construction, so it is not validated or sorted again
+ */
+public final class AdjacencyList {
+
+    private AdjacencyList() {
+    }
+
+    /**
+     * Builds tree with dense indexes in {@link Tree.Storage#OBJECTS} storage
+     *
+     * @see #toTree(Collection, Function, Function, int, Tree.Storage)
+     */
+    @NonNull
+    public static <T extends TreeNode, K> Tree<T> toTree(@NonNull Collection<? extends T> nodes,
+                                                         @NonNull Function<? super T, ? extends K> id,
+                                                         @NonNull Function<? super T, ? extends K> parentId) {
+        return toTree(nodes, id, parentId, Tree.DENSE_SPACING, Tree.Storage.OBJECTS);
+    }
+
+    /**
+     * Builds tree from nodes in any order. Lft, rgt and depth of nodes are overwritten, expanded states are kept
+     *
+     * @param nodes    nodes of the tree
+     * @param id       returns id of node
+     * @param parentId returns id of parent of node, null for root
+     * @param spacing  spacing of indexes, {@link Tree#DENSE_SPACING} or at least {@link Tree#MIN_GAP_SPACING}
+     * @param storage  storage of new tree
+     * @return new tree
+     * @throws IllegalArgumentException if ids are duplicated, parent is not found, there is not exactly one root,
+     *                                  some nodes are not connected to root or indexes do not fit into int with spacing.
+     *                                  Nodes are not changed in this case
+     */
+    @NonNull
+    public static <T extends TreeNode, K> Tree<T> toTree(@NonNull Collection<? extends T> nodes,
+                                                         @NonNull Function<? super T, ? extends K> id,
+                                                         @NonNull Function<? super T, ? extends K> parentId,
+                                                         int spacing, @NonNull Tree.Storage storage) {
+        return new Tree<>(buildNodes(nodes, id, parentId, spacing, storage), spacing);
+    }
+
+    /**
+     * Builds checkable tree with dense indexes in {@link Tree.Storage#OBJECTS} storage
+     *
+     * @see #toCheckableTree(Collection, Function, Function, int, Tree.Storage)
+     */
+    @NonNull
+    public static <T extends CheckableTreeNode, K> CheckableTree<T> toCheckableTree(@NonNull Collection<? extends T> nodes,
+                                                                                   @NonNull Function<? super T, ? extends K> id,
+                                                                                   @NonNull Function<? super T, ? extends K> parentId) {
+        return toCheckableTree(nodes, id, parentId, Tree.DENSE_SPACING, Tree.Storage.OBJECTS);
+    }
+
+    /**
+     * Builds checkable tree from nodes in any order. Lft, rgt and depth of nodes are overwritten,
+     * expanded and checked states are kept
+     *
+     * @see #toTree(Collection, Function, Function, int, Tree.Storage)
+     */
+    @NonNull
+    public static <T extends CheckableTreeNode, K> CheckableTree<T> toCheckableTree(@NonNull Collection<? extends T> nodes,
+                                                                                   @NonNull Function<? super T, ? extends K> id,
+                                                                                   @NonNull Function<? super T, ? extends K> parentId,
+                                                                                   int spacing, @NonNull Tree.Storage storage) {
+        return new CheckableTree<>(buildNodes(nodes, id, parentId, spacing, storage), spacing);
+    }
+
+    /**
+     * Visits every node of the tree in lft order with its parent, so parent is always visited before its children
+     *
+     * @param tree    tree to export
+     * @param visitor receives node, its parent and its position among children of parent
+     */
+    public static <T extends TreeNode> void export(@NonNull Tree<T> tree, @NonNull ParentVisitor<? super T> visitor) {
+        final NodeStorage<T> nodes = tree.mNodes;
+        final int size = nodes.size();
+        //Slots of open ancestors and number of their already visited children
+        final int[] stack = new int[size];
+        final int[] childCount = new int[size];
+        int top = -1;
+        for (int i = 0; i < size; i++) {
+            while (top >= 0 && nodes.rgt(stack[top]) < nodes.lft(i)) {
+                top--;
+            }
+            final T node = nodes.get(i);
+            if (top < 0) {
+                visitor.visit(node, null, 0);
+            } else {
+                visitor.visit(node, nodes.get(stack[top]), childCount[top]++);
+            }
+            stack[++top] = i;
+            childCount[top] = 0;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T extends TreeNode, K> NodeStorage<T> buildNodes(Collection<? extends T> input,
+                                                                     Function<? super T, ? extends K> id,
+                                                                     Function<? super T, ? extends K> parentId,
+                                                                     int spacing, Tree.Storage storage) {
+        Tree.checkSpacing(spacing);
+        final int size = input.size();
+        if (size == 0) throw new IllegalArgumentException("Tree must have root");
+        if ((2L * size - 1) * spacing > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Spacing " + spacing + " is too big for tree of size " + size);
+        final T[] nodes = (T[]) input.toArray(new TreeNode[0]);
+        final Map<K, Integer> indexes = new HashMap<>(size * 4 / 3 + 1);
+        for (int i = 0; i < size; i++) {
+            if (indexes.put(id.apply(nodes[i]), i) != null)
+                throw new IllegalArgumentException("Duplicate id " + id.apply(nodes[i]));
+        }
+        //Children of every node in compressed form: children of node i are order[start[i]..start[i + 1])
+        final int[] parents = new int[size];
+        final int[] start = new int[size + 1];
+        int root = -1;
+        for (int i = 0; i < size; i++) {
+            final K parent = parentId.apply(nodes[i]);
+            if (parent == null) {
+                if (root >= 0) throw new IllegalArgumentException("Tree must have only one root");
+                root = i;
+                parents[i] = -1;
+                continue;
+            }
+            final Integer parentIndex = indexes.get(parent);
+            if (parentIndex == null) throw new IllegalArgumentException("Parent " + parent + " is not found");
+            parents[i] = parentIndex;
+            start[parentIndex + 1]++;
+        }
+        if (root < 0) throw new IllegalArgumentException("Tree must have root");
+        for (int i = 0; i < size; i++) {
+            start[i + 1] += start[i];
+        }
+        final int[] order = new int[size];
+        final int[] next = new int[size];
+        System.arraycopy(start, 0, next, 0, size);
+        for (int i = 0; i < size; i++) {
+            if (parents[i] >= 0) order[next[parents[i]]++] = i;
+        }
+        //Next reuses as cursor of not yet opened child of every open node
+        System.arraycopy(start, 0, next, 0, size);
+        //Depth-first events are collected before any node is changed: node for enter, ~node for leave
+        final int[] events = new int[2 * size];
+        final int[] stack = new int[size];
+        int count = 0;
+        int reached = 1;
+        int top = 0;
+        stack[0] = root;
+        events[count++] = root;
+        while (top >= 0) {
+            final int current = stack[top];
+            if (next[current] < start[current + 1]) {
+                final int child = order[next[current]++];
+                stack[++top] = child;
+                events[count++] = child;
+                reached++;
+            } else {
+                events[count++] = ~current;
+                top--;
+            }
+        }
+        //Nodes of parent cycles are never reached from root
+        if (reached != size) throw new IllegalArgumentException("Some nodes are not connected to root");
+        final NodeStorage<T> result = NodeStorage.create(storage, size);
+        //Stack of slots of open nodes
+        top = -1;
+        int index = 0;
+        for (int i = 0; i < count; i++) {
+            if (events[i] >= 0) {
+                top++;
+                stack[top] = open(result, nodes[events[i]], index, top);
+            } else {
+                result.setRgt(stack[top--], index);
+            }
+            index += spacing;
+        }
+        return result;
+    }
+
+    private static <T extends TreeNode> int open(NodeStorage<T> nodes, T node, int lft, int depth) {
+        node.setLft(lft);
+        node.setDepth(depth);
+        nodes.add(node);
+        return nodes.size() - 1;
+    }
+
+    /**
+     * Receives node in parent-pointer form
+     */
+    public interface ParentVisitor<T> {
+        /**
+         * @param node     visited node
+         * @param parent   parent of node, null for root
+         * @param position position of node among children of parent
+         */
+        void visit(@NonNull T node, @Nullable T parent, int position);
+    }
+}
@@ -3,13 +3,21 @@ package ru.alexapps.treeview.utils;
 import androidx.annotation.NonNull;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
+import java.util.function.Predicate;
 
-import ru.alexapps.treeview.exceptions.NodeNotFoundException;
 import ru.alexapps.treeview.model.CheckableTreeNode;
 
+/**
+ * Tree with checkable nodes. Every node keeps number of its checked descendants, so checking of node
+ * changes only its subtree and its ancestors. Checked state of nodes must be changed only through this tree
+ */
 public class CheckableTree<T extends CheckableTreeNode> extends Tree<T> {
+    //Number of checked descendants of node in every slot, built lazily and updated in place by structural changes
+    private int[] mCheckedDescendants = new int[0];
+    private int mCountersVersion = -1;
 
     public CheckableTree(T rootNode) {
         super(rootNode);
@@ -19,47 +27,302 @@ public class CheckableTree<T extends CheckableTreeNode> extends Tree<T> {
         super(nodes);
     }
 
+    public CheckableTree(@NonNull List<T> nodes, boolean sortedByLft) {
+        super(nodes, sortedByLft);
+    }
+
+    public CheckableTree(@NonNull List<T> nodes, boolean sortedByLft, int spacing, @NonNull Storage storage) {
+        super(nodes, sortedByLft, spacing, storage);
+    }
+
+    CheckableTree(@NonNull NodeStorage<T> nodes, int spacing) {
+        super(nodes, spacing);
+    }
+
     public TreeUpdate<T> setNodeChecked(@NonNull T node, boolean value) {
         return setNodeChecked(node.getLft(), node.getRgt(), value);
     }
-    public TreeUpdate<T>setNodeChecked(int lft, int rgt, boolean value) {
-        T treeNode = getNodeByLftRgt(lft, rgt);
-        if(treeNode == null) {
-            throw new NodeNotFoundException(lft, rgt);
-        }
+
+    /**
+     * Checks or unchecks node with all its descendants. Unchecked node unchecks all its ancestors,
+     * ancestor becomes checked when all its descendants are checked.
+     * Cost is proportional to size of subtree and depth of node
+     *
+     * @param lft   the lft index of the node
+     * @param rgt   the rgt index of the node
+     * @param value new checked state
+     * @return TreeUpdated object with nodes which checked state was changed and their visible rows
+     */
+    public TreeUpdate<T> setNodeChecked(int lft, int rgt, boolean value) {
+        final int slot = requireSlot(lft, rgt);
+        final int[] counters = checkedCounters();
+        final int end = subtreeEnd(slot);
         List<T> updated = new ArrayList<>();
-        if(value != treeNode.isChecked()) {
-            treeNode.setChecked(value);
-            updated.add(treeNode);
+        //Change of checked nodes count inside subtree of current node
+        int delta = 0;
+        for (int i = slot; i < end; i++) {
+            T node = mNodes.get(i);
+            if (node.isChecked() != value) {
+                node.setChecked(value);
+                nodeChanged(i);
+                updated.add(node);
+                delta += value ? 1 : -1;
+            }
+            counters[i] = 0;
+        }
+        if (value) {
+            //All descendants are checked, counters are sizes of subtrees
+            for (int i = end - 1; i > slot; i--) {
+                counters[parentSlot(i)] += counters[i] + 1;
+            }
         }
-        List<T> descendants = getDescendants(lft, rgt);
-        descendants.forEach(descendant -> {
-            if(descendant.isChecked() != value) {
-                descendant.setChecked(value);
-                updated.add(descendant);
+        //Unchecked ancestors are reported from root to node
+        List<T> uncheckedAncestors = new ArrayList<>();
+        for (int parent = parentSlot(slot); parent >= 0; parent = parentSlot(parent)) {
+            counters[parent] += delta;
+            T ancestor = mNodes.get(parent);
+            if (!value && ancestor.isChecked()) {
+                ancestor.setChecked(false);
+                nodeChanged(parent);
+                uncheckedAncestors.add(ancestor);
+                delta--;
+            } else if (value && !ancestor.isChecked() && counters[parent] == descendantsCount(parent)) {
+                ancestor.setChecked(true);
+                nodeChanged(parent);
+                updated.add(ancestor);
+                delta++;
             }
+        }
+        for (int i = uncheckedAncestors.size() - 1; i >= 0; i--) {
+            updated.add(uncheckedAncestors.get(i));
+        }
+        //Checked state does not change structure of visible rows, only rows of updated nodes are changed
+        return new TreeUpdate<>(new ArrayList<>(), updated, new ArrayList<>(), changedRows(updated));
+    }
+
+    /**
+     * Checks or unchecks many nodes with their descendants, result is the same as after
+     * {@link #setNodeChecked(int, int, boolean)} for every node, but ancestors are resolved in one bottom-up pass
+     *
+     * @param nodes nodes of the tree to change
+     * @param value new checked state
+     * @return TreeUpdated object with every changed node once
+     */
+    public TreeUpdate<T> setNodesChecked(@NonNull Collection<? extends T> nodes, boolean value) {
+        final boolean[] targets = new boolean[size()];
+        for (T node : nodes) {
+            targets[requireSlot(node.getLft(), node.getRgt())] = true;
+        }
+        return setNodesChecked(targets, value);
+    }
+
+    /**
+     * Checks or unchecks all nodes which match predicate with their descendants
+     *
+     * @param predicate condition of nodes to change
+     * @param value     new checked state
+     * @return TreeUpdated object with every changed node once
+     * @see #setNodesChecked(Collection, boolean)
+     */
+    public TreeUpdate<T> setNodesChecked(@NonNull Predicate<? super T> predicate, boolean value) {
+        final boolean[] targets = new boolean[size()];
+        for (int i = 0; i < targets.length; i++) {
+            targets[i] = predicate.test(mNodes.get(i));
+        }
+        return setNodesChecked(targets, value);
+    }
 
-        });
-        List<T> ancestors =  getAncestors(lft, rgt);
-        //If any descendant unchecked, all its ancestors unchecked too
-        if(!value) {
-            ancestors.forEach(ancestor -> {
-                if(ancestor.isChecked()) {
-                    ancestor.setChecked(false);
-                    updated.add(ancestor);
+    private TreeUpdate<T> setNodesChecked(boolean[] targets, boolean value) {
+        final int size = targets.length;
+        List<T> updated = new ArrayList<>();
+        //Nodes inside subtrees of targets get new value
+        final boolean[] covered = new boolean[size];
+        int coveredEnd = 0;
+        for (int i = 0; i < size; i++) {
+            if (targets[i] && i >= coveredEnd) {
+                coveredEnd = subtreeEnd(i);
+            }
+            if (i < coveredEnd) {
+                covered[i] = true;
+                T node = mNodes.get(i);
+                if (node.isChecked() != value) {
+                    node.setChecked(value);
+                    nodeChanged(i);
+                    updated.add(node);
                 }
-            });
-        }else {
-            //Reverse list of ancestors to go through it from child to parent, and set checked all nodes, with checked children
-            Collections.reverse(ancestors);
-            ancestors.forEach(ancestor -> {
-                boolean hasUncheckedChild = getChildren(ancestor.getLft(), ancestor.getRgt()).stream().anyMatch(child -> !child.isChecked());
-                if(!hasUncheckedChild && !ancestor.isChecked()) {
-                    ancestor.setChecked(true);
-                    updated.add(ancestor);
+            }
+        }
+        //Bottom-up pass: children are complete before their parent, so counters and ancestor states are resolved at once
+        final int[] counters = checkedCounters();
+        Arrays.fill(counters, 0, size, 0);
+        final int[] descendants = new int[size];
+        final boolean[] hasCovered = new boolean[size];
+        for (int i = size - 1; i >= 0; i--) {
+            T node = mNodes.get(i);
+            if (!covered[i] && hasCovered[i]) {
+                if (!value && node.isChecked()) {
+                    node.setChecked(false);
+                    nodeChanged(i);
+                    updated.add(node);
+                } else if (value && !node.isChecked() && counters[i] == descendants[i]) {
+                    node.setChecked(true);
+                    nodeChanged(i);
+                    updated.add(node);
                 }
-            });
+            }
+            final int parent = parentSlot(i);
+            if (parent >= 0) {
+                counters[parent] += counters[i] + (node.isChecked() ? 1 : 0);
+                descendants[parent] += descendants[i] + 1;
+                hasCovered[parent] |= covered[i] || hasCovered[i];
+            }
+        }
+        return new TreeUpdate<>(new ArrayList<>(), updated, new ArrayList<>(), changedRows(updated));
+    }
+
+    /**
+     * Returns checked state of node with indexes, node which is not checked but has checked descendants is indeterminate
+     *
+     * @param lft the lft index of the node
+     * @param rgt the rgt index of the node
+     * @return checked state of node
+     */
+    @NonNull
+    public CheckedState getCheckedState(int lft, int rgt) {
+        final int slot = requireSlot(lft, rgt);
+        if (mNodes.get(slot).isChecked()) return CheckedState.CHECKED;
+        return checkedCounters()[slot] > 0 ? CheckedState.INDETERMINATE : CheckedState.UNCHECKED;
+    }
+
+    /**
+     * Returns number of checked descendants of node with indexes
+     *
+     * @param lft the lft index of the node
+     * @param rgt the rgt index of the node
+     * @return number of checked descendants
+     */
+    public int getCheckedDescendantsCount(int lft, int rgt) {
+        return checkedCounters()[requireSlot(lft, rgt)];
+    }
+
+    /**
+     * Returns total number of descendants of node with indexes
+     *
+     * @param lft the lft index of the node
+     * @param rgt the rgt index of the node
+     * @return number of descendants
+     */
+    public int getDescendantsCount(int lft, int rgt) {
+        return descendantsCount(requireSlot(lft, rgt));
+    }
+
+    private int descendantsCount(int slot) {
+        return subtreeEnd(slot) - slot - 1;
+    }
+
+    @Override
+    void prepareIndexes() {
+        super.prepareIndexes();
+        checkedCounters();
+    }
+
+    @Override
+    void insertSlot(int slot, T node, int parentSlot) {
+        final boolean countersValid = mCountersVersion == getStructureVersion();
+        super.insertSlot(slot, node, parentSlot);
+        if (!countersValid) return;
+        final int size = size();
+        if (mCheckedDescendants.length < size) {
+            mCheckedDescendants = Arrays.copyOf(mCheckedDescendants, Math.max(size, mCheckedDescendants.length * 2));
+        }
+        System.arraycopy(mCheckedDescendants, slot, mCheckedDescendants, slot + 1, size - 1 - slot);
+        mCheckedDescendants[slot] = 0;
+        addToAncestors(slot, node.isChecked() ? 1 : 0);
+        mCountersVersion = getStructureVersion();
+    }
+
+    @Override
+    void removeSlots(int slot, int end) {
+        final boolean countersValid = mCountersVersion == getStructureVersion();
+        if (countersValid) {
+            addToAncestors(slot, -checkedInSubtree(slot));
+        }
+        super.removeSlots(slot, end);
+        if (!countersValid) return;
+        System.arraycopy(mCheckedDescendants, end, mCheckedDescendants, slot, size() - slot);
+        mCountersVersion = getStructureVersion();
+    }
+
+    @Override
+    int moveBlock(int slot, int end, int targetSlot, int newParentSlot) {
+        final boolean countersValid = mCountersVersion == getStructureVersion();
+        final int checked = countersValid ? checkedInSubtree(slot) : 0;
+        if (countersValid) {
+            addToAncestors(slot, -checked);
         }
-        return new TreeUpdate<>(new ArrayList<>(), updated, new ArrayList<>());
+        final int newSlot = super.moveBlock(slot, end, targetSlot, newParentSlot);
+        if (!countersValid) return newSlot;
+        //Counters inside subtree are not changed, only ancestors of old and new place
+        moveRange(mCheckedDescendants, slot, end, targetSlot);
+        addToAncestors(newSlot, checked);
+        mCountersVersion = getStructureVersion();
+        return newSlot;
+    }
+
+    @Override
+    void reorderSlots(int slot, int[] order) {
+        final boolean countersValid = mCountersVersion == getStructureVersion();
+        super.reorderSlots(slot, order);
+        if (!countersValid) return;
+        //Subtrees are the same after reorder, so counters just follow their nodes
+        final int[] counters = Arrays.copyOfRange(mCheckedDescendants, slot, slot + order.length);
+        for (int i = 0; i < order.length; i++) {
+            mCheckedDescendants[slot + i] = counters[order[i]];
+        }
+        mCountersVersion = getStructureVersion();
+    }
+
+    private int checkedInSubtree(int slot) {
+        return mCheckedDescendants[slot] + (mNodes.get(slot).isChecked() ? 1 : 0);
+    }
+
+    /**
+     * Adds delta to counters of all ancestors of node in specified slot
+     */
+    private void addToAncestors(int slot, int delta) {
+        if (delta == 0) return;
+        for (int i = parentSlot(slot); i >= 0; i = parentSlot(i)) {
+            mCheckedDescendants[i] += delta;
+        }
+    }
+
+    /**
+     * Returns counters of checked descendants by slot, counters are built in one bottom-up pass after nodes are reset
+     */
+    private int[] checkedCounters() {
+        if (mCountersVersion != getStructureVersion()) {
+            checkIndexesWritable();
+            final int size = size();
+            if (mCheckedDescendants.length < size) {
+                mCheckedDescendants = new int[size];
+            }
+            final int[] counters = mCheckedDescendants;
+            Arrays.fill(counters, 0);
+            //Children are after parents in lft order, so going backwards every child is complete before its parent
+            for (int i = size - 1; i > 0; i--) {
+                counters[parentSlot(i)] += counters[i] + (mNodes.get(i).isChecked() ? 1 : 0);
+            }
+            mCountersVersion = getStructureVersion();
+        }
+        return mCheckedDescendants;
+    }
+
+    public enum CheckedState {
+        UNCHECKED,
+        /**
+         * Node is not checked, but some of its descendants are checked
+         */
+        INDETERMINATE,
+        CHECKED
     }
 }
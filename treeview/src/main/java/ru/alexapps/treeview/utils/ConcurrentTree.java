@@ -0,0 +1,244 @@
+package ru.alexapps.treeview.utils;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Function;
+
+import ru.alexapps.treeview.model.TreeNode;
+
+/**
+ * Thread-safe wrapper of the tree. Queries run as optimistic reads without locking and are repeated under read lock
+ * only if the tree was changed during the query, so readers never block each other.
+ * Mutations run in exclusive write sections, lazy indexes of the tree are rebuilt before write section ends,
+ * so queries never change the tree. The wrapped tree must not be used directly after it is wrapped
+ *
+ * @param <T> type of nodes
+ * @param <S> type of wrapped tree, for example {@link CheckableTree}
+ */
+public class ConcurrentTree<T extends TreeNode, S extends Tree<T>> {
+    private final S mTree;
+    private final StampedLock mLock = new StampedLock();
+    //Marks threads inside read, optimistic read must fail instead of rebuilding indexes changed by writer
+    private final ThreadLocal<Boolean> mReaders = new ThreadLocal<>();
+    private final LongAdder mOptimisticReads = new LongAdder();
+    private final LongAdder mFailedOptimisticReads = new LongAdder();
+    private final LongAdder mBlockedReads = new LongAdder();
+    private final LongAdder mWrites = new LongAdder();
+    private final LongAdder mBlockedWrites = new LongAdder();
+
+    public ConcurrentTree(@NonNull S tree) {
+        mTree = tree;
+        mTree.mReadOnlyThreads = mReaders;
+        final long stamp = mLock.writeLock();
+        try {
+            mTree.prepareIndexes();
+        } finally {
+            mLock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Runs query over consistent state of the tree. Query is run optimistically first and can see the tree
+     * in the middle of change, in this case its result or exception is dropped and query is repeated under read lock.
+     * Query must not change the tree and must not return views of the tree, such as {@link Tree#getDescendantsView(int, int)}
+     *
+     * @param query read-only function of the tree
+     * @return result of query
+     */
+    public <R> R read(@NonNull Function<? super S, ? extends R> query) {
+        mReaders.set(Boolean.TRUE);
+        try {
+            return readConsistent(query);
+        } finally {
+            mReaders.remove();
+        }
+    }
+
+    private <R> R readConsistent(Function<? super S, ? extends R> query) {
+        mOptimisticReads.increment();
+        final long optimisticStamp = mLock.tryOptimisticRead();
+        if (optimisticStamp != 0) {
+            R result = null;
+            RuntimeException error = null;
+            try {
+                result = query.apply(mTree);
+            } catch (RuntimeException e) {
+                //Inconsistent state can break query, error is valid only if stamp is valid
+                error = e;
+            }
+            if (mLock.validate(optimisticStamp)) {
+                if (error != null) throw error;
+                return result;
+            }
+        }
+        mFailedOptimisticReads.increment();
+        long stamp = mLock.tryReadLock();
+        if (stamp == 0) {
+            mBlockedReads.increment();
+            stamp = mLock.readLock();
+        }
+        try {
+            return query.apply(mTree);
+        } finally {
+            mLock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Runs mutation of the tree exclusively
+     *
+     * @param mutation function which changes the tree
+     * @return result of mutation
+     */
+    public <R> R write(@NonNull Function<? super S, ? extends R> mutation) {
+        mWrites.increment();
+        long stamp = mLock.tryWriteLock();
+        if (stamp == 0) {
+            mBlockedWrites.increment();
+            stamp = mLock.writeLock();
+        }
+        try {
+            return mutation.apply(mTree);
+        } finally {
+            try {
+                mTree.prepareIndexes();
+            } finally {
+                mLock.unlockWrite(stamp);
+            }
+        }
+    }
+
+    public List<T> getVisibleNodes() {
+        return read(Tree::getVisibleNodes);
+    }
+
+    public int getVisibleCount() {
+        return read(Tree::getVisibleCount);
+    }
+
+    public T getVisibleNode(int position) {
+        return read(tree -> tree.getVisibleNode(position));
+    }
+
+    public int getVisiblePosition(@Nullable T node) {
+        return read(tree -> tree.getVisiblePosition(node));
+    }
+
+    public List<T> getDescendants(int lft, int rgt) {
+        return read(tree -> tree.getDescendants(lft, rgt));
+    }
+
+    public List<T> getAncestors(int lft, int rgt) {
+        return read(tree -> tree.getAncestors(lft, rgt));
+    }
+
+    public List<T> getChildren(int lft, int rgt) {
+        return read(tree -> tree.getChildren(lft, rgt));
+    }
+
+    @Nullable
+    public T getParent(int lft, int rgt) {
+        return read(tree -> tree.getParent(lft, rgt));
+    }
+
+    @Nullable
+    public T getNodeByLftRgt(int lft, int rgt) {
+        return read(tree -> tree.getNodeByLftRgt(lft, rgt));
+    }
+
+    public int getDepth(int lft, int rgt) {
+        return read(tree -> tree.getDepth(lft, rgt));
+    }
+
+    public int size() {
+        return read(Tree::size);
+    }
+
+    public T getRoot() {
+        return read(Tree::getRoot);
+    }
+
+    public Tree.TreeUpdate<T> addNode(@NonNull T node, int parentLft, int parentRgt, int indexInsideParent) {
+        return write(tree -> tree.addNode(node, parentLft, parentRgt, indexInsideParent));
+    }
+
+    public Tree.TreeUpdate<T> deleteNode(int lft, int rgt) {
+        return write(tree -> tree.deleteNode(lft, rgt));
+    }
+
+    public Tree.TreeUpdate<T> moveNode(@NonNull T node, @NonNull T newParent, int newIndex) {
+        return write(tree -> tree.moveNode(node, newParent, newIndex));
+    }
+
+    public Tree.TreeUpdate<T> setExpanded(int lft, int rgt, boolean value) {
+        return write(tree -> tree.setExpanded(lft, rgt, value));
+    }
+
+    /**
+     * Creates snapshot of the tree, which can be kept and read without any locks
+     *
+     * @return snapshot of the tree
+     * @see Tree#snapshot()
+     */
+    public TreeSnapshot<T> snapshot() {
+        return write(Tree::snapshot);
+    }
+
+    /**
+     * Returns counters of lock usage since creation of the tree
+     *
+     * @return current counters
+     */
+    @NonNull
+    public ContentionStats getContentionStats() {
+        return new ContentionStats(mOptimisticReads.sum(), mFailedOptimisticReads.sum(), mBlockedReads.sum(),
+                mWrites.sum(), mBlockedWrites.sum());
+    }
+
+    public static class ContentionStats {
+        /**
+         * Number of all reads, every read starts optimistically
+         */
+        public final long reads;
+        /**
+         * Number of reads which were repeated under read lock because the tree was changed during read
+         */
+        public final long failedOptimisticReads;
+        /**
+         * Number of reads which waited for write section
+         */
+        public final long blockedReads;
+        /**
+         * Number of write sections
+         */
+        public final long writes;
+        /**
+         * Number of write sections which waited for other readers or writers
+         */
+        public final long blockedWrites;
+
+        public ContentionStats(long reads, long failedOptimisticReads, long blockedReads, long writes, long blockedWrites) {
+            this.reads = reads;
+            this.failedOptimisticReads = failedOptimisticReads;
+            this.blockedReads = blockedReads;
+            this.writes = writes;
+            this.blockedWrites = blockedWrites;
+        }
+
+        @Override
+        @NonNull
+        public String toString() {
+            return "ContentionStats{" +
+                    "reads=" + reads +
+                    ", failedOptimisticReads=" + failedOptimisticReads +
+                    ", blockedReads=" + blockedReads +
+                    ", writes=" + writes +
+                    ", blockedWrites=" + blockedWrites +
+                    '}';
+        }
+    }
+}
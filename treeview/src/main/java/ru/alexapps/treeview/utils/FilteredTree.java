@@ -0,0 +1,223 @@
+package ru.alexapps.treeview.utils;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.function.Predicate;
+
+import ru.alexapps.treeview.model.TreeNode;
+
+/**
+ * Filtered view of the tree: rows are nodes which match predicate and all their ancestors in lft order.
+ * Expanded state is ignored, so path to every matching node is shown.
+ * Filter which accepts only part of previously matched nodes, for example after query is extended,
+ * is applied with {@link #narrowFilter(Predicate)}, which tests only previously matched nodes.
+ * Filter is not updated by changes of the tree, {@link #refresh()} must be called after them
+ */
+public class FilteredTree<T extends TreeNode> {
+    private final Tree<T> mTree;
+    private Predicate<? super T> mPredicate;
+    //Slots of matched nodes and slots of rows, both sorted
+    private int[] mMatched = new int[0];
+    private int[] mRows = new int[0];
+    private int mMatchedCount;
+    private int mRowsCount;
+    private int mStructureVersion;
+
+    public FilteredTree(@NonNull Tree<T> tree) {
+        mTree = tree;
+    }
+
+    /**
+     * Sets new filter and tests every node of the tree
+     *
+     * @param predicate condition of matching nodes
+     * @return changes of rows in order of application, null if there were no rows of the same tree structure before
+     */
+    @Nullable
+    public List<VisibleChange> setFilter(@NonNull Predicate<? super T> predicate) {
+        final int[] oldRows = Arrays.copyOf(mRows, mRowsCount);
+        final boolean sameStructure = mPredicate != null && mStructureVersion == mTree.getStructureVersion();
+        mPredicate = predicate;
+        final int size = mTree.size();
+        if (mMatched.length < size) {
+            mMatched = new int[size];
+        }
+        mMatchedCount = 0;
+        for (int i = 0; i < size; i++) {
+            if (predicate.test(mTree.mNodes.get(i))) {
+                mMatched[mMatchedCount++] = i;
+            }
+        }
+        mStructureVersion = mTree.getStructureVersion();
+        buildRows();
+        return sameStructure ? rowChanges(oldRows) : null;
+    }
+
+    /**
+     * Sets filter which matches only nodes matched by current filter, so only they are tested.
+     * If there is no current filter or the tree structure was changed, every node is tested
+     *
+     * @param predicate condition of matching nodes, must not match nodes which current filter does not match
+     * @return changes of rows in order of application, null if there were no rows of the same tree structure before
+     */
+    @Nullable
+    public List<VisibleChange> narrowFilter(@NonNull Predicate<? super T> predicate) {
+        if (mPredicate == null || mStructureVersion != mTree.getStructureVersion()) {
+            return setFilter(predicate);
+        }
+        final int[] oldRows = Arrays.copyOf(mRows, mRowsCount);
+        mPredicate = predicate;
+        int matchedCount = 0;
+        for (int i = 0; i < mMatchedCount; i++) {
+            final int slot = mMatched[i];
+            if (predicate.test(mTree.mNodes.get(slot))) {
+                mMatched[matchedCount++] = slot;
+            }
+        }
+        mMatchedCount = matchedCount;
+        buildRows();
+        return rowChanges(oldRows);
+    }
+
+    /**
+     * Tests every node of the tree with current filter again
+     *
+     * @return changes of rows in order of application, null if structure of the tree was changed or there is no filter
+     */
+    @Nullable
+    public List<VisibleChange> refresh() {
+        return mPredicate == null ? null : setFilter(mPredicate);
+    }
+
+    /**
+     * Returns current filter, null if filter was not set
+     *
+     * @return current filter
+     */
+    @Nullable
+    public Predicate<? super T> getPredicate() {
+        return mPredicate;
+    }
+
+    /**
+     * @return number of rows
+     */
+    public int getCount() {
+        return mRowsCount;
+    }
+
+    /**
+     * @return number of nodes which match filter
+     */
+    public int getMatchedCount() {
+        return mMatchedCount;
+    }
+
+    public T getNode(int position) {
+        if (position < 0 || position >= mRowsCount)
+            throw new IndexOutOfBoundsException("Position: " + position + ", Count: " + mRowsCount);
+        return mTree.mNodes.get(mRows[position]);
+    }
+
+    /**
+     * Returns true if node in specified row matches filter, false if it is shown only as ancestor of matching node
+     *
+     * @param position position of row
+     * @return true if node matches filter
+     */
+    public boolean isMatched(int position) {
+        if (position < 0 || position >= mRowsCount)
+            throw new IndexOutOfBoundsException("Position: " + position + ", Count: " + mRowsCount);
+        return Arrays.binarySearch(mMatched, 0, mMatchedCount, mRows[position]) >= 0;
+    }
+
+    /**
+     * Returns position of node among rows, -1 if node is not found or filtered out
+     *
+     * @param node node to search for
+     * @return position of node
+     */
+    public int getPosition(@Nullable T node) {
+        if (node == null) return -1;
+        final int slot = mTree.slotOf(node.getLft());
+        if (slot < 0 || !node.equals(mTree.mNodes.get(slot))) return -1;
+        final int position = Arrays.binarySearch(mRows, 0, mRowsCount, slot);
+        return position < 0 ? -1 : position;
+    }
+
+    /**
+     * @return nodes of all rows
+     */
+    public List<T> getNodes() {
+        List<T> nodes = new ArrayList<>(mRowsCount);
+        for (int i = 0; i < mRowsCount; i++) {
+            nodes.add(mTree.mNodes.get(mRows[i]));
+        }
+        return nodes;
+    }
+
+    /**
+     * Rows are matched nodes with their ancestors. Walk to root stops at first ancestor which is already row,
+     * so every row is visited once
+     */
+    private void buildRows() {
+        BitSet rows = new BitSet(mTree.size());
+        for (int i = 0; i < mMatchedCount; i++) {
+            for (int slot = mMatched[i]; slot >= 0 && !rows.get(slot); slot = mTree.parentSlot(slot)) {
+                rows.set(slot);
+            }
+        }
+        mRowsCount = rows.cardinality();
+        if (mRows.length < mRowsCount) {
+            mRows = new int[mTree.size()];
+        }
+        int count = 0;
+        for (int slot = rows.nextSetBit(0); slot >= 0; slot = rows.nextSetBit(slot + 1)) {
+            mRows[count++] = slot;
+        }
+    }
+
+    /**
+     * Merges old and new rows, both sorted by slot, into removes and inserts
+     */
+    private List<VisibleChange> rowChanges(int[] oldRows) {
+        List<VisibleChange> changes = new ArrayList<>();
+        //Position in rows after already applied changes
+        int position = 0;
+        int oldIndex = 0;
+        int newIndex = 0;
+        while (oldIndex < oldRows.length || newIndex < mRowsCount) {
+            final int oldSlot = oldIndex < oldRows.length ? oldRows[oldIndex] : Integer.MAX_VALUE;
+            final int newSlot = newIndex < mRowsCount ? mRows[newIndex] : Integer.MAX_VALUE;
+            if (oldSlot == newSlot) {
+                oldIndex++;
+                newIndex++;
+                position++;
+            } else if (oldSlot < newSlot) {
+                addChange(changes, VisibleChange.Type.REMOVED, position);
+                oldIndex++;
+            } else {
+                addChange(changes, VisibleChange.Type.INSERTED, position);
+                newIndex++;
+                position++;
+            }
+        }
+        return changes;
+    }
+
+    private static void addChange(List<VisibleChange> changes, VisibleChange.Type type, int position) {
+        final VisibleChange last = changes.isEmpty() ? null : changes.get(changes.size() - 1);
+        if (last != null && last.type == type && type == VisibleChange.Type.REMOVED && last.position == position) {
+            changes.set(changes.size() - 1, VisibleChange.removed(position, last.count + 1));
+        } else if (last != null && last.type == type && type == VisibleChange.Type.INSERTED && last.position + last.count == position) {
+            changes.set(changes.size() - 1, VisibleChange.inserted(last.position, last.count + 1));
+        } else {
+            changes.add(type == VisibleChange.Type.REMOVED ? VisibleChange.removed(position, 1) : VisibleChange.inserted(position, 1));
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package ru.alexapps.treeview.utils;
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+import ru.alexapps.treeview.model.TreeNode;
+
+/**
+ * Nodes of the tree sorted by lft with direct access to indexes of node in every slot.
+ * Tree reads and writes indexes only through slot accessors, so backend can keep them outside of node objects.
+ * Setters also update node object, so nodes returned to user always have actual indexes
+ */
+abstract class NodeStorage<T extends TreeNode> extends AbstractList<T> implements RandomAccess {
+
+    static <T extends TreeNode> NodeStorage<T> create(Tree.Storage storage, int capacity) {
+        return storage == Tree.Storage.COLUMNS
+                ? new PrimitiveNodeStorage<>(capacity)
+                : new ObjectNodeStorage<>(capacity);
+    }
+
+    abstract int lft(int slot);
+
+    abstract int rgt(int slot);
+
+    abstract int depth(int slot);
+
+    abstract boolean isExpanded(int slot);
+
+    abstract void setLft(int slot, int lft);
+
+    abstract void setRgt(int slot, int rgt);
+
+    abstract void setDepth(int slot, int depth);
+
+    abstract void setExpanded(int slot, boolean expanded);
+
+    @Override
+    public T remove(int index) {
+        T node = get(index);
+        removeRange(index, index + 1);
+        return node;
+    }
+
+    @Override
+    public void clear() {
+        removeRange(0, size());
+    }
+
+    @Override
+    protected abstract void removeRange(int fromIndex, int toIndex);
+}
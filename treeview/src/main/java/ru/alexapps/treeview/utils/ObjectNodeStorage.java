@@ -0,0 +1,87 @@
+package ru.alexapps.treeview.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import ru.alexapps.treeview.model.TreeNode;
+
+/**
+ * Storage which keeps indexes only in node objects
+ *
+ * @see Tree.Storage#OBJECTS
+ */
+final class ObjectNodeStorage<T extends TreeNode> extends NodeStorage<T> {
+    private final ArrayList<T> mNodes;
+
+    ObjectNodeStorage(int capacity) {
+        mNodes = new ArrayList<>(capacity);
+    }
+
+    @Override
+    public T get(int index) {
+        return mNodes.get(index);
+    }
+
+    @Override
+    public int size() {
+        return mNodes.size();
+    }
+
+    @Override
+    public T set(int index, T node) {
+        return mNodes.set(index, node);
+    }
+
+    @Override
+    public void add(int index, T node) {
+        mNodes.add(index, node);
+        modCount++;
+    }
+
+    @Override
+    protected void removeRange(int fromIndex, int toIndex) {
+        List<T> range = mNodes.subList(fromIndex, toIndex);
+        range.clear();
+        modCount++;
+    }
+
+    @Override
+    int lft(int slot) {
+        return mNodes.get(slot).getLft();
+    }
+
+    @Override
+    int rgt(int slot) {
+        return mNodes.get(slot).getRgt();
+    }
+
+    @Override
+    int depth(int slot) {
+        return mNodes.get(slot).getDepth();
+    }
+
+    @Override
+    boolean isExpanded(int slot) {
+        return mNodes.get(slot).isExpanded();
+    }
+
+    @Override
+    void setLft(int slot, int lft) {
+        mNodes.get(slot).setLft(lft);
+    }
+
+    @Override
+    void setRgt(int slot, int rgt) {
+        mNodes.get(slot).setRgt(rgt);
+    }
+
+    @Override
+    void setDepth(int slot, int depth) {
+        mNodes.get(slot).setDepth(depth);
+    }
+
+    @Override
+    void setExpanded(int slot, boolean expanded) {
+        mNodes.get(slot).setExpanded(expanded);
+    }
+}
@@ -0,0 +1,153 @@
+package ru.alexapps.treeview.utils;
+
+import java.util.Arrays;
+
+import ru.alexapps.treeview.model.TreeNode;
+
+/**
+ * Struct-of-arrays storage: lft, rgt and depth are kept in parallel int columns and flags in byte column,
+ * nodes are kept only as payloads. Scans of the tree read columns without dereferencing node objects.
+ * Columns are loaded from node when it is put into storage and written through to node on every change.
+ * <p>
+ * Node objects keep their own copy of lft, rgt, depth and expanded, so columns are added on top of them:
+ * storage with visible index takes about 21 bytes per node against about 8 bytes of {@link ObjectNodeStorage}
+ * (1M nodes, compressed oops), while node itself takes about 36 bytes. Columns trade memory for scans
+ *
+ * @see Tree.Storage#COLUMNS
+ */
+final class PrimitiveNodeStorage<T extends TreeNode> extends NodeStorage<T> {
+    private static final byte FLAG_EXPANDED = 1;
+
+    private Object[] mPayloads;
+    private int[] mLft;
+    private int[] mRgt;
+    private int[] mDepth;
+    private byte[] mFlags;
+    private int mSize;
+
+    PrimitiveNodeStorage(int capacity) {
+        capacity = Math.max(capacity, 1);
+        mPayloads = new Object[capacity];
+        mLft = new int[capacity];
+        mRgt = new int[capacity];
+        mDepth = new int[capacity];
+        mFlags = new byte[capacity];
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T get(int index) {
+        checkIndex(index, mSize);
+        return (T) mPayloads[index];
+    }
+
+    @Override
+    public int size() {
+        return mSize;
+    }
+
+    @Override
+    public T set(int index, T node) {
+        T previous = get(index);
+        load(index, node);
+        return previous;
+    }
+
+    @Override
+    public void add(int index, T node) {
+        checkIndex(index, mSize + 1);
+        if (mSize == mPayloads.length) {
+            grow();
+        }
+        final int moved = mSize - index;
+        System.arraycopy(mPayloads, index, mPayloads, index + 1, moved);
+        System.arraycopy(mLft, index, mLft, index + 1, moved);
+        System.arraycopy(mRgt, index, mRgt, index + 1, moved);
+        System.arraycopy(mDepth, index, mDepth, index + 1, moved);
+        System.arraycopy(mFlags, index, mFlags, index + 1, moved);
+        mSize++;
+        load(index, node);
+        modCount++;
+    }
+
+    @Override
+    protected void removeRange(int fromIndex, int toIndex) {
+        final int moved = mSize - toIndex;
+        System.arraycopy(mPayloads, toIndex, mPayloads, fromIndex, moved);
+        System.arraycopy(mLft, toIndex, mLft, fromIndex, moved);
+        System.arraycopy(mRgt, toIndex, mRgt, fromIndex, moved);
+        System.arraycopy(mDepth, toIndex, mDepth, fromIndex, moved);
+        System.arraycopy(mFlags, toIndex, mFlags, fromIndex, moved);
+        final int newSize = mSize - (toIndex - fromIndex);
+        //Let removed nodes be collected
+        Arrays.fill(mPayloads, newSize, mSize, null);
+        mSize = newSize;
+        modCount++;
+    }
+
+    @Override
+    int lft(int slot) {
+        return mLft[slot];
+    }
+
+    @Override
+    int rgt(int slot) {
+        return mRgt[slot];
+    }
+
+    @Override
+    int depth(int slot) {
+        return mDepth[slot];
+    }
+
+    @Override
+    boolean isExpanded(int slot) {
+        return (mFlags[slot] & FLAG_EXPANDED) != 0;
+    }
+
+    @Override
+    void setLft(int slot, int lft) {
+        mLft[slot] = lft;
+        get(slot).setLft(lft);
+    }
+
+    @Override
+    void setRgt(int slot, int rgt) {
+        mRgt[slot] = rgt;
+        get(slot).setRgt(rgt);
+    }
+
+    @Override
+    void setDepth(int slot, int depth) {
+        mDepth[slot] = depth;
+        get(slot).setDepth(depth);
+    }
+
+    @Override
+    void setExpanded(int slot, boolean expanded) {
+        mFlags[slot] = expanded ? (byte) (mFlags[slot] | FLAG_EXPANDED) : (byte) (mFlags[slot] & ~FLAG_EXPANDED);
+        get(slot).setExpanded(expanded);
+    }
+
+    private void load(int slot, T node) {
+        mPayloads[slot] = node;
+        mLft[slot] = node.getLft();
+        mRgt[slot] = node.getRgt();
+        mDepth[slot] = node.getDepth();
+        mFlags[slot] = node.isExpanded() ? FLAG_EXPANDED : 0;
+    }
+
+    private void grow() {
+        final int capacity = mPayloads.length + (mPayloads.length >> 1) + 1;
+        mPayloads = Arrays.copyOf(mPayloads, capacity);
+        mLft = Arrays.copyOf(mLft, capacity);
+        mRgt = Arrays.copyOf(mRgt, capacity);
+        mDepth = Arrays.copyOf(mDepth, capacity);
+        mFlags = Arrays.copyOf(mFlags, capacity);
+    }
+
+    private static void checkIndex(int index, int size) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+    }
+}
@@ -7,25 +7,112 @@ import androidx.annotation.VisibleForTesting;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
+import ru.alexapps.treeview.exceptions.InvalidTreeException;
 import ru.alexapps.treeview.exceptions.RemoveRootNodeException;
 import ru.alexapps.treeview.model.TreeNode;
 import ru.alexapps.treeview.exceptions.NodeNotFoundException;
 
 public class Tree<T extends TreeNode> {
-    List<T> mNodes;
+    /**
+     * Spacing of dense numbering, every index from 0 to 2 * size - 1 is used
+     */
+    public static final int DENSE_SPACING = 1;
+    /**
+     * Minimal spacing of gapped numbering, which leaves room for one node between neighbour indexes
+     */
+    public static final int MIN_GAP_SPACING = 3;
+
+    NodeStorage<T> mNodes;
+    private int mSpacing = DENSE_SPACING;
+    private final VisibleIndex mVisibleIndex = new VisibleIndex();
+    //Indexes are built lazily, then insert, delete, move and sort update them in place
+    private boolean mVisibleIndexValid;
+    private int[] mParentSlots = new int[0];
+    private boolean mParentSlotsValid;
+    private int mStructureVersion;
+    //Last snapshot, its unchanged chunks are reused by next snapshot
+    private TreeSnapshot<T> mSnapshot;
+    //Changed slots since last snapshot, null if there is no snapshot
+    private TreeSnapshot.Changes mSnapshotChanges;
+    //Threads which only read the tree concurrently with other threads and must not rebuild indexes
+    ThreadLocal<Boolean> mReadOnlyThreads;
+    //Nodes by business key, null if key extractor is not set
+    private Function<? super T, ?> mKeyExtractor;
+    private Map<Object, T> mKeyIndex;
 
     public Tree(@NonNull T rootNode) {
         this(Collections.singletonList(rootNode));
     }
 
     public Tree(@NonNull List<T> nodes) {
-        if (!isTreeValid(nodes)) throw new IllegalStateException("Tree is not valid");
-        this.mNodes = sortByLft(nodes);
+        this(nodes, false);
+    }
+
+    /**
+     * Creates tree from nodes
+     *
+     * @param nodes       nodes of the tree
+     * @param sortedByLft true if nodes are already sorted by lft, so sorting can be skipped
+     * @throws InvalidTreeException if nodes are not valid nested set
+     */
+    public Tree(@NonNull List<T> nodes, boolean sortedByLft) {
+        this(nodes, sortedByLft, DENSE_SPACING);
+    }
+
+    /**
+     * Creates tree from nodes with specified numbering
+     *
+     * @param nodes       nodes of the tree
+     * @param sortedByLft true if nodes are already sorted by lft, so sorting can be skipped
+     * @param spacing     {@link #DENSE_SPACING} if indexes of nodes are dense, otherwise nodes may have gaps between indexes
+     * @throws InvalidTreeException if nodes are not valid nested set
+     * @see #setSpacing(int)
+     */
+    public Tree(@NonNull List<T> nodes, boolean sortedByLft, int spacing) {
+        this(nodes, sortedByLft, spacing, Storage.OBJECTS);
+    }
+
+    /**
+     * Creates tree from nodes with specified numbering and storage
+     *
+     * @param nodes       nodes of the tree
+     * @param sortedByLft true if nodes are already sorted by lft, so sorting can be skipped
+     * @param spacing     {@link #DENSE_SPACING} if indexes of nodes are dense, otherwise nodes may have gaps between indexes
+     * @param storage     how indexes of nodes are stored
+     * @throws InvalidTreeException if nodes are not valid nested set
+     * @see Storage
+     */
+    public Tree(@NonNull List<T> nodes, boolean sortedByLft, int spacing, @NonNull Storage storage) {
+        checkSpacing(spacing);
+        List<T> sortedNodes = sortedByLft ? nodes : sortByLft(nodes);
+        InvalidTreeException error = findError(sortedNodes, sortedByLft, spacing == DENSE_SPACING);
+        if (error != null) throw error;
+        this.mNodes = NodeStorage.create(storage, sortedNodes.size());
+        this.mNodes.addAll(sortedNodes);
+        this.mSpacing = spacing;
+        computeDepths();
+    }
+
+    /**
+     * Creates tree from storage with valid nested set and actual depths, nodes are not checked
+     *
+     * @param nodes   nodes sorted by lft
+     * @param spacing spacing of indexes of nodes
+     */
+    Tree(@NonNull NodeStorage<T> nodes, int spacing) {
+        checkSpacing(spacing);
+        this.mNodes = nodes;
+        this.mSpacing = spacing;
     }
 
     public static <T extends TreeNode> List<T> sortByLft(@NonNull List<T> nodes) {
@@ -35,20 +122,77 @@ public class Tree<T extends TreeNode> {
     }
 
     public static <T extends TreeNode> boolean isTreeValid(@NonNull List<T> nodes) {
-        if (nodes.size() == 0) return false;
-        List<? extends TreeNode> sortedNodes = sortByLft(nodes);
-        //Node with min lft is root
-        TreeNode rootNode = sortedNodes.get(0);
-        //Root node lft must be 0
-        if (rootNode.getLft() != 0) return false;
+        return findError(sortByLft(nodes), false, true) == null;
+    }
+
+    /**
+     * Checks that nodes are valid nested set in one pass
+     *
+     * @param nodes       nodes to check
+     * @param sortedByLft true if nodes are already sorted by lft, so sorting can be skipped.
+     *                    Order is checked during validation
+     * @throws InvalidTreeException with first offending node, if nodes are not valid nested set
+     */
+    public static <T extends TreeNode> void validate(@NonNull List<T> nodes, boolean sortedByLft) {
+        InvalidTreeException error = findError(sortedByLft ? nodes : sortByLft(nodes), sortedByLft, true);
+        if (error != null) throw error;
+    }
 
-        for (TreeNode node : nodes) {
-            if (node.getLft() == node.getRgt()) return false;
-            final int descendantsSize = getDescendants(nodes, node.getLft(), node.getRgt()).size();
-            int expectedSize = (node.getRgt() - node.getLft() - 1) / 2;
-            if (descendantsSize != expectedSize) return false;
+    /**
+     * Walks through nodes sorted by lft and checks nesting using stack of open nodes.
+     * Indexes must grow in depth-first order, in dense numbering every index from 0 to 2 * size - 1 must be used exactly once
+     *
+     * @param sortedNodes nodes sorted by lft
+     * @param checkOrder  true if order of nodes must be checked
+     * @param dense       true if gaps between indexes are not allowed
+     * @return error with first offending node, null if nodes are valid
+     */
+    @Nullable
+    private static <T extends TreeNode> InvalidTreeException findError(@NonNull List<T> sortedNodes, boolean checkOrder, boolean dense) {
+        final int size = sortedNodes.size();
+        if (size == 0) return new InvalidTreeException(InvalidTreeException.Reason.EMPTY, null);
+        if (checkOrder) {
+            for (int i = 1; i < size; i++) {
+                if (sortedNodes.get(i).getLft() <= sortedNodes.get(i - 1).getLft())
+                    return new InvalidTreeException(InvalidTreeException.Reason.NOT_SORTED, sortedNodes.get(i));
+            }
+        }
+        //Indexes of open nodes (ancestors of current node)
+        final int[] stack = new int[size];
+        int top = -1;
+        int lastIndex = -1;
+        for (int i = 0; i < size; i++) {
+            T node = sortedNodes.get(i);
+            final int lft = node.getLft();
+            final int rgt = node.getRgt();
+            if (rgt <= lft) return new InvalidTreeException(InvalidTreeException.Reason.INVALID_RANGE, node);
+            //Close all nodes which end before current node
+            while (top >= 0 && sortedNodes.get(stack[top]).getRgt() < lft) {
+                T closed = sortedNodes.get(stack[top--]);
+                if (!isNextIndex(closed.getRgt(), lastIndex, dense))
+                    return new InvalidTreeException(InvalidTreeException.Reason.INVALID_INDEXES, closed);
+                lastIndex = closed.getRgt();
+            }
+            if (i == 0 && lft != 0 || i > 0 && top < 0)
+                return new InvalidTreeException(InvalidTreeException.Reason.INVALID_ROOT, node);
+            if (!isNextIndex(lft, lastIndex, dense))
+                return new InvalidTreeException(InvalidTreeException.Reason.INVALID_INDEXES, node);
+            lastIndex = lft;
+            if (top >= 0 && rgt >= sortedNodes.get(stack[top]).getRgt())
+                return new InvalidTreeException(InvalidTreeException.Reason.OVERLAPPING, node);
+            stack[++top] = i;
+        }
+        while (top >= 0) {
+            T closed = sortedNodes.get(stack[top--]);
+            if (!isNextIndex(closed.getRgt(), lastIndex, dense))
+                return new InvalidTreeException(InvalidTreeException.Reason.INVALID_INDEXES, closed);
+            lastIndex = closed.getRgt();
         }
-        return true;
+        return null;
+    }
+
+    private static boolean isNextIndex(int index, int lastIndex, boolean dense) {
+        return dense ? index == lastIndex + 1 : index > lastIndex;
     }
 
     /**
@@ -57,13 +201,49 @@ public class Tree<T extends TreeNode> {
      * @return All expanded nodes and their descendants
      */
     public List<T> getVisibleNodes() {
-        List<T> copyNodes = new ArrayList<>(mNodes);
-        for (T node : mNodes) {
-            if (!node.isExpanded()) {
-                copyNodes.removeAll(getDescendants(node));
+        final VisibleIndex index = visibleIndex();
+        List<T> visibleNodes = new ArrayList<>(index.size());
+        for (int i = 0; i < mNodes.size(); i++) {
+            if (index.isVisible(i)) {
+                visibleNodes.add(mNodes.get(i));
             }
         }
-        return copyNodes;
+        return visibleNodes;
+    }
+
+    /**
+     * Returns number of nodes which are not descendants of any collapsed node
+     *
+     * @return number of visible nodes
+     * @see #getVisibleNodes()
+     */
+    public int getVisibleCount() {
+        return visibleIndex().size();
+    }
+
+    /**
+     * Returns visible node at specified position
+     *
+     * @param position position among visible nodes
+     * @return visible node at specified position
+     * @see #getVisibleNodes()
+     */
+    public T getVisibleNode(int position) {
+        return mNodes.get(visibleIndex().slotAt(position));
+    }
+
+    /**
+     * Returns position of node among visible nodes, -1 if node not found or hidden by collapsed ancestor
+     *
+     * @param node node to search for
+     * @return position of node among visible nodes
+     * @see #getVisibleNodes()
+     */
+    public int getVisiblePosition(@Nullable T node) {
+        if (node == null) return -1;
+        int slot = slotOf(node.getLft());
+        if (slot < 0 || !node.equals(mNodes.get(slot))) return -1;
+        return visibleIndex().positionOf(slot);
     }
 
     public List<T> getDescendants(T node) {
@@ -71,13 +251,43 @@ public class Tree<T extends TreeNode> {
     }
 
     public List<T> getDescendants(int nodeLft, int nodeRgt) {
-        return getDescendants(mNodes, nodeLft, nodeRgt);
+        return new ArrayList<>(getDescendantsView(nodeLft, nodeRgt));
+    }
+
+    /**
+     * Returns read-only view of descendants of node with specified indexes without copying.
+     * Descendants are contiguous in list sorted by lft, so range is found by binary search.
+     * View must not be used after structural changes of the tree
+     *
+     * @param nodeLft lft of node
+     * @param nodeRgt rgt of node
+     * @return read-only List of descendants sorted by lft
+     */
+    public List<T> getDescendantsView(int nodeLft, int nodeRgt) {
+        return Collections.unmodifiableList(mNodes.subList(lowerBound(nodeLft + 1), lowerBound(nodeRgt)));
     }
 
     public void resetNodes(List<T> nodes) {
-        if (!isTreeValid(nodes)) throw new IllegalStateException("Tree is not valid");
+        resetNodes(nodes, false);
+    }
+
+    /**
+     * Replaces all nodes of the tree
+     *
+     * @param nodes       new nodes of the tree
+     * @param sortedByLft true if nodes are already sorted by lft, so sorting can be skipped
+     * @throws InvalidTreeException if nodes are not valid nested set
+     */
+    public void resetNodes(List<T> nodes, boolean sortedByLft) {
+        List<T> newNodes = sortedByLft ? nodes : sortByLft(nodes);
+        InvalidTreeException error = findError(newNodes, sortedByLft, mSpacing == DENSE_SPACING);
+        if (error != null) throw error;
+        final Map<Object, T> keyIndex = mKeyExtractor == null ? null : buildKeyIndex(newNodes, mKeyExtractor);
         mNodes.clear();
-        mNodes.addAll(sortByLft(nodes));
+        mNodes.addAll(newNodes);
+        mKeyIndex = keyIndex;
+        computeDepths();
+        invalidateIndexes();
     }
 
     /**
@@ -89,10 +299,8 @@ public class Tree<T extends TreeNode> {
      */
     @Nullable
     public T getNodeByLftRgt(int lft, int rgt) {
-        return mNodes.stream()
-                .filter(node -> node.getLft() == lft && node.getRgt() == rgt)
-                .findAny()
-                .orElse(null);
+        int slot = slotOf(lft, rgt);
+        return slot < 0 ? null : mNodes.get(slot);
     }
 
     /**
@@ -103,7 +311,7 @@ public class Tree<T extends TreeNode> {
      * @return depth of node
      */
     public int getDepth(int lft, int rgt) {
-        return getAncestors(lft, rgt).size();
+        return mNodes.depth(requireSlot(lft, rgt));
     }
 
     /**
@@ -114,12 +322,14 @@ public class Tree<T extends TreeNode> {
      * @return Returns List of ancestors
      */
     public List<T> getAncestors(int lft, int rgt) {
-        T currentNode = getNodeByLftRgt(lft, rgt);
-        if (currentNode == null)
-            throw new NodeNotFoundException(lft, rgt);
-        return mNodes.stream()
-                .filter(node -> node.getLft() < lft && node.getRgt() > rgt)
-                .collect(Collectors.toList());
+        final int slot = requireSlot(lft, rgt);
+        //Nodes are sorted by lft, so only nodes before current node can be ancestors
+        List<T> ancestors = new ArrayList<>();
+        for (int i = 0; i < slot; i++) {
+            if (mNodes.rgt(i) > rgt)
+                ancestors.add(mNodes.get(i));
+        }
+        return ancestors;
     }
 
     /**
@@ -131,33 +341,17 @@ public class Tree<T extends TreeNode> {
      */
     @Nullable
     public T getParent(int lft, int rgt) {
-        T currentNode = getNodeByLftRgt(lft, rgt);
-        if (currentNode == null)
-            throw new NodeNotFoundException(lft, rgt);
-        int index = mNodes.indexOf(currentNode);
-        //Go down through array because it is sorted by lft, and parents lft is always less then child lft
-        for (int i = index - 1; i >= 0; i--) {
-            T node = mNodes.get(i);
-            if (node.getLft() < lft && node.getRgt() > rgt)
-                return node;
-        }
-        return null;
+        final int parentSlot = parentSlot(requireSlot(lft, rgt));
+        return parentSlot < 0 ? null : mNodes.get(parentSlot);
     }
 
     public List<T> getChildren(int lft, int rgt) {
-        T currentNode = getNodeByLftRgt(lft, rgt);
-        if (currentNode == null)
-            throw new NodeNotFoundException(lft, rgt);
-        //Nodes already sorted by lft
-        List<T> descendants = getDescendants(lft, rgt);
+        final int slot = requireSlot(lft, rgt);
+        final int end = subtreeEnd(slot);
         List<T> children = new ArrayList<>();
-        int skipCount;
-        for (int i = 0; i < descendants.size(); i += skipCount) {
-            //First descendant is child
-            T descendant = descendants.get(i);
-            //Number of child descendants + 1
-            skipCount = (descendant.getRgt() - descendant.getLft() - 1) / 2 + 1;
-            children.add(descendant);
+        //First descendant is child, next child starts right after its descendants
+        for (int i = slot + 1; i < end; i = subtreeEnd(i)) {
+            children.add(mNodes.get(i));
         }
         return children;
     }
@@ -171,28 +365,38 @@ public class Tree<T extends TreeNode> {
      * @see TreeUpdate
      */
     public TreeUpdate<T> deleteNode(int lft, int rgt) {
-        T currentNode = getNodeByLftRgt(lft, rgt);
-        if (currentNode == null)
-            throw new NodeNotFoundException(lft, rgt);
-        T root = getRoot();
-        if (lft == root.getLft() && rgt == root.getRgt()) {
+        final int slot = requireSlot(lft, rgt);
+        if (slot == 0) {
             throw new RemoveRootNodeException();
         }
-        List<T> deleted = getDescendants(currentNode);
-        deleted.add(currentNode);
-        mNodes.removeAll(deleted);
+        final int end = subtreeEnd(slot);
+        final VisibleIndex index = visibleIndex();
+        List<VisibleChange> visibleChanges = new ArrayList<>(2);
+        final int removedRows = visibleRows(index, slot, end);
+        if (removedRows > 0) {
+            visibleChanges.add(VisibleChange.removed(index.positionOf(slot), removedRows));
+        }
+        //Parent can become leaf
+        addChangedRow(visibleChanges, index, parentSlot(slot));
+        List<T> deleted = new ArrayList<>(mNodes.subList(slot + 1, end));
+        deleted.add(mNodes.get(slot));
+        removeSlots(slot, end);
         List<T> updated = new ArrayList<>();
-        final int decrement = deleted.size() * 2;
-        for (T node : mNodes) {
-            if (node.getRgt() > rgt) {
-                node.setRgt(node.getRgt() - decrement);
-                if (node.getLft() > lft) {
-                    node.setLft(node.getLft() - decrement);
+        //In gapped numbering indexes of removed nodes just become free
+        if (mSpacing == DENSE_SPACING) {
+            final int decrement = deleted.size() * 2;
+            for (int i = 0; i < mNodes.size(); i++) {
+                if (mNodes.rgt(i) > rgt) {
+                    mNodes.setRgt(i, mNodes.rgt(i) - decrement);
+                    if (mNodes.lft(i) > lft) {
+                        mNodes.setLft(i, mNodes.lft(i) - decrement);
+                    }
+                    nodeChanged(i);
+                    updated.add(mNodes.get(i));
                 }
-                updated.add(node);
             }
         }
-        return new TreeUpdate<>(new ArrayList<>(), updated, deleted);
+        return indexKeys(new TreeUpdate<>(new ArrayList<>(), updated, deleted, visibleChanges));
     }
 
     /**
@@ -218,45 +422,358 @@ public class Tree<T extends TreeNode> {
      * @see TreeUpdate
      */
     public TreeUpdate<T> addNode(@NonNull T node, int parentLft, int parentRgt, int indexInsideParent) {
-        T parentNode = getNodeByLftRgt(parentLft, parentRgt);
-        if (parentNode == null)
-            throw new NodeNotFoundException(parentLft, parentRgt);
+        final int parentSlot = requireSlot(parentLft, parentRgt);
+        checkNewKey(node);
         int nodeLft = parentRgt;
         List<T> children = getChildren(parentLft, parentRgt);
         if (indexInsideParent < 0 || indexInsideParent > children.size())
             throw new IllegalArgumentException("Wrong indexInsideParent = " + indexInsideParent + " total children: " + children.size());
+        if (mSpacing != DENSE_SPACING) {
+            return indexKeys(addNodeIntoGap(node, parentSlot, children, indexInsideParent));
+        }
         if (indexInsideParent < children.size()) {
             nodeLft = children.get(indexInsideParent).getLft();
         }
+        //Shifting indexes keeps order of nodes, so new node goes to the slot of the first node after it
+        final int slot = lowerBound(nodeLft);
         List<T> updated = new ArrayList<>();
-        for (T treeNode : mNodes) {
-            if (treeNode.getRgt() >= nodeLft) {
-                treeNode.setRgt(treeNode.getRgt() + 2);
-                if (treeNode.getLft() >= nodeLft) {
-                    treeNode.setLft(treeNode.getLft() + 2);
+        for (int i = 0; i < mNodes.size(); i++) {
+            if (mNodes.rgt(i) >= nodeLft) {
+                mNodes.setRgt(i, mNodes.rgt(i) + 2);
+                if (mNodes.lft(i) >= nodeLft) {
+                    mNodes.setLft(i, mNodes.lft(i) + 2);
                 }
-                updated.add(treeNode);
+                nodeChanged(i);
+                updated.add(mNodes.get(i));
             }
         }
         List<T> inserted = new ArrayList<>();
         node.setLft(nodeLft);
         node.setRgt(nodeLft + 1);
+        node.setDepth(mNodes.depth(parentSlot) + 1);
         inserted.add(node);
-        mNodes.add(node);
-        mNodes = sortByLft(mNodes);
-        return new TreeUpdate<>(inserted, updated, new ArrayList<>());
+        List<VisibleChange> visibleChanges = leafInsertChanges(parentSlot, slot);
+        insertSlot(slot, node, parentSlot);
+        return indexKeys(new TreeUpdate<>(inserted, updated, new ArrayList<>(), visibleChanges));
     }
 
-
+    /**
+     * Expands or collapses node. Visible changes of update contain one range of rows, which became visible
+     * after expand or hidden after collapse. Range starts right after the node and does not include descendants
+     * of collapsed descendants. Cost is proportional to number of changed rows
+     *
+     * @param lft   the lft index of the node
+     * @param rgt   the rgt index of the node
+     * @param value true to expand, false to collapse
+     * @return TreeUpdated object with changed node and changed range of visible rows
+     * @see TreeUpdate#visibleChanges
+     */
     public TreeUpdate<T> setExpanded(int lft, int rgt, boolean value) {
-        T node = getNodeByLftRgt(lft, rgt);
-        if (node == null) throw new NodeNotFoundException(lft, rgt);
+        final int slot = requireSlot(lft, rgt);
         List<T> updated = new ArrayList<>(1);
-        if (node.isExpanded() != value) {
-            node.setExpanded(value);
-            updated.add(node);
+        List<VisibleChange> visibleChanges = new ArrayList<>(2);
+        if (mNodes.isExpanded(slot) != value) {
+            //Index is taken before node is changed, then only changed rows are updated
+            final VisibleIndex index = visibleIndex();
+            mNodes.setExpanded(slot, value);
+            nodeChanged(slot);
+            updated.add(mNodes.get(slot));
+            //Row of the node itself shows expanded state
+            addChangedRow(visibleChanges, index, slot);
+            final int changedRows = updateDescendantsVisibility(slot, value);
+            if (changedRows > 0) {
+                //Rows of descendants start right after the node
+                final int position = index.positionOf(slot) + 1;
+                visibleChanges.add(value
+                        ? VisibleChange.inserted(position, changedRows)
+                        : VisibleChange.removed(position, changedRows));
+            }
+        }
+        return new TreeUpdate<>(new ArrayList<>(0), updated, new ArrayList<>(), visibleChanges);
+    }
+
+    /**
+     * Adds leaf between neighbours using free indexes of gapped numbering.
+     * If there are no free indexes, descendants of the closest ancestor with enough room are respread
+     */
+    private TreeUpdate<T> addNodeIntoGap(@NonNull T node, int parentSlot, List<T> children, int indexInsideParent) {
+        final int slot = indexInsideParent < children.size()
+                ? slotOf(children.get(indexInsideParent).getLft())
+                : subtreeEnd(parentSlot);
+        List<T> updated = new ArrayList<>();
+        int low = indexInsideParent == 0 ? mNodes.lft(parentSlot) : children.get(indexInsideParent - 1).getRgt();
+        int high = indexInsideParent == children.size() ? mNodes.rgt(parentSlot) : children.get(indexInsideParent).getLft();
+        if (high - low < MIN_GAP_SPACING) {
+            respread(parentSlot, children, indexInsideParent, updated);
+            low = indexInsideParent == 0 ? mNodes.lft(parentSlot) : children.get(indexInsideParent - 1).getRgt();
+            high = indexInsideParent == children.size() ? mNodes.rgt(parentSlot) : children.get(indexInsideParent).getLft();
+        }
+        final int step = Math.min(mSpacing, (high - low) / 3);
+        if (indexInsideParent == children.size()) {
+            //Next append goes after this node, so free indexes are left after it
+            node.setLft(low + step);
+            node.setRgt(low + 2 * step);
+        } else {
+            //Next insert on the same position goes before this node, so free indexes are left before it
+            node.setLft(high - 2 * step);
+            node.setRgt(high - step);
         }
-        return new TreeUpdate<>(new ArrayList<>(0), updated, new ArrayList<>());
+        node.setDepth(mNodes.depth(parentSlot) + 1);
+        List<T> inserted = new ArrayList<>();
+        inserted.add(node);
+        List<VisibleChange> visibleChanges = leafInsertChanges(parentSlot, slot);
+        insertSlot(slot, node, parentSlot);
+        return new TreeUpdate<>(inserted, updated, new ArrayList<>(), visibleChanges);
+    }
+
+    /**
+     * Spreads indexes around insert position when there are no free indexes between neighbours.
+     * Window of sibling subtrees around the position grows twice on every step, then goes up to the parent level.
+     * Larger windows require more free indexes, so expensive respreads happen rarely.
+     * If whole tree has not enough free indexes, root rgt is moved
+     *
+     * @param parentSlot index of parent of inserted node in mNodes
+     * @param children   children of parent
+     * @param index      insert position inside parent
+     * @param updated    list to add nodes with changed indexes to
+     */
+    private void respread(int parentSlot, List<T> children, int index, List<T> updated) {
+        int level = 0;
+        int first = index;
+        int last = index;
+        int slot = parentSlot;
+        List<T> siblings = children;
+        while (true) {
+            final T parent = mNodes.get(slot);
+            final int parentLft = mNodes.lft(slot);
+            final int parentRgt = mNodes.rgt(slot);
+            final int span = 1 << Math.min(level, 30);
+            first = Math.max(0, first - span);
+            last = (int) Math.min(siblings.size(), (long) last + span);
+            final int low = first == 0 ? parentLft : siblings.get(first - 1).getRgt();
+            final int high = last == siblings.size() ? parentRgt : siblings.get(last).getLft();
+            final int from = first == siblings.size() ? subtreeEnd(slot) : slotOf(siblings.get(first).getLft());
+            final int end = last == siblings.size() ? subtreeEnd(slot) : slotOf(siblings.get(last).getLft());
+            //Indexes of nodes in window and of inserted node
+            final long keys = 2L * (end - from) + 2;
+            final long step = ((long) high - low) / (keys + 1);
+            if (step >= Math.min(mSpacing, MIN_GAP_SPACING + level)) {
+                spreadNodes(from, end, low, (int) step, updated);
+                return;
+            }
+            level++;
+            if (first > 0 || last < siblings.size()) continue;
+            if (slot == 0) {
+                final long rootStep = Math.min(mSpacing, (Integer.MAX_VALUE - (long) parentLft) / (keys + 1));
+                if (rootStep < MIN_GAP_SPACING)
+                    throw new IllegalStateException("No free indexes left for gapped numbering");
+                mNodes.setRgt(0, (int) (parentLft + rootStep * (keys + 1)));
+                nodeChanged(0);
+                updated.add(parent);
+                spreadNodes(1, end, parentLft, (int) rootStep, updated);
+                return;
+            }
+            //Window becomes parent with its siblings. Go down through array, parent is the closest node which ends after current node
+            do {
+                slot--;
+            } while (mNodes.rgt(slot) < parentRgt);
+            siblings = getChildren(mNodes.lft(slot), mNodes.rgt(slot));
+            first = 0;
+            while (siblings.get(first) != parent) {
+                first++;
+            }
+            last = first + 1;
+        }
+    }
+
+    /**
+     * Assigns indexes with specified step to nodes in depth-first order
+     *
+     * @param from       index of first node in mNodes
+     * @param end        index after last node, nodes from first to last must be complete subtrees
+     * @param startIndex index before first assigned index
+     * @param step       distance between neighbour indexes
+     * @param updated    list to add nodes with changed indexes to
+     */
+    private void spreadNodes(int from, int end, int startIndex, int step, List<T> updated) {
+        final int count = end - from;
+        final int[] stack = new int[count];
+        final boolean[] changed = new boolean[count];
+        int top = -1;
+        int index = startIndex;
+        for (int i = from; i < end; i++) {
+            //Old rgt of open nodes is compared with old lft of current node
+            while (top >= 0 && mNodes.rgt(stack[top]) < mNodes.lft(i)) {
+                final int closed = stack[top--];
+                index += step;
+                if (mNodes.rgt(closed) != index) {
+                    changed[closed - from] = true;
+                    mNodes.setRgt(closed, index);
+                }
+            }
+            index += step;
+            if (mNodes.lft(i) != index) {
+                changed[i - from] = true;
+                mNodes.setLft(i, index);
+            }
+            stack[++top] = i;
+        }
+        while (top >= 0) {
+            final int closed = stack[top--];
+            index += step;
+            if (mNodes.rgt(closed) != index) {
+                changed[closed - from] = true;
+                mNodes.setRgt(closed, index);
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            if (changed[i]) {
+                nodeChanged(from + i);
+                updated.add(mNodes.get(from + i));
+            }
+        }
+    }
+
+    /**
+     * Returns spacing of indexes
+     *
+     * @return {@link #DENSE_SPACING} for dense numbering, otherwise distance between indexes after respread
+     * @see #setSpacing(int)
+     */
+    public int getSpacing() {
+        return mSpacing;
+    }
+
+    /**
+     * Sets numbering of the tree and renumbers all nodes.
+     * In dense numbering every insert shifts indexes of all nodes to the right.
+     * In gapped numbering nodes are spread with specified distance between indexes, inserts use free indexes,
+     * and only nodes around insert are respread when free indexes are exhausted
+     *
+     * @param spacing {@link #DENSE_SPACING} for dense numbering, or distance between indexes not less then {@link #MIN_GAP_SPACING}
+     * @return TreeUpdated object with renumbered nodes
+     * @see TreeUpdate
+     */
+    public TreeUpdate<T> setSpacing(int spacing) {
+        checkSpacing(spacing);
+        final long maxIndex = (2L * mNodes.size() - 1) * spacing;
+        if (maxIndex > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Spacing " + spacing + " is too big for tree of size " + mNodes.size());
+        mSpacing = spacing;
+        List<T> updated = new ArrayList<>();
+        if (mNodes.lft(0) != 0 || mNodes.rgt(0) != maxIndex) {
+            mNodes.setLft(0, 0);
+            mNodes.setRgt(0, (int) maxIndex);
+            nodeChanged(0);
+            updated.add(getRoot());
+        }
+        spreadNodes(1, mNodes.size(), 0, spacing, updated);
+        return new TreeUpdate<>(new ArrayList<>(), updated, new ArrayList<>(), new ArrayList<>());
+    }
+
+    static void checkSpacing(int spacing) {
+        if (spacing != DENSE_SPACING && spacing < MIN_GAP_SPACING)
+            throw new IllegalArgumentException("Wrong spacing = " + spacing);
+    }
+
+    /**
+     * Starts transaction to apply many inserts, deletes and moves with one renumbering pass
+     *
+     * @return new transaction for this tree
+     * @see TreeTransaction
+     */
+    public TreeTransaction<T> beginTransaction() {
+        return new TreeTransaction<>(this);
+    }
+
+    /**
+     * Sets function which returns business key of node and indexes all nodes by key.
+     * Index is updated by every insert and delete, renumbering does not change it,
+     * so node can be found by key after any change of the tree
+     *
+     * @param keyExtractor returns key of node, keys of nodes in the tree must be unique. Null removes index
+     * @throws IllegalArgumentException if two nodes have the same key
+     * @see #getNodeByKey(Object)
+     */
+    public void setKeyExtractor(@Nullable Function<? super T, ?> keyExtractor) {
+        mKeyIndex = keyExtractor == null ? null : buildKeyIndex(mNodes, keyExtractor);
+        mKeyExtractor = keyExtractor;
+    }
+
+    /**
+     * Returns node by business key in O(1)
+     *
+     * @param key key of node
+     * @return node with specified key, null if not found
+     * @throws IllegalStateException if key extractor is not set
+     * @see #setKeyExtractor(Function)
+     */
+    @Nullable
+    public T getNodeByKey(@NonNull Object key) {
+        if (mKeyIndex == null) throw new IllegalStateException("Key extractor is not set");
+        return mKeyIndex.get(key);
+    }
+
+    private static <T> Map<Object, T> buildKeyIndex(List<T> nodes, Function<? super T, ?> keyExtractor) {
+        Map<Object, T> keyIndex = new HashMap<>(nodes.size() * 2);
+        for (T node : nodes) {
+            if (keyIndex.put(keyExtractor.apply(node), node) != null)
+                throw new IllegalArgumentException("Duplicate key of node " + node);
+        }
+        return keyIndex;
+    }
+
+    /**
+     * Returns key of node, null if key extractor is not set
+     */
+    @Nullable
+    Object keyOf(@NonNull T node) {
+        return mKeyExtractor == null ? null : mKeyExtractor.apply(node);
+    }
+
+    /**
+     * Throws IllegalArgumentException if node with the same key is already in the tree
+     */
+    private void checkNewKey(@NonNull T node) {
+        if (mKeyIndex != null && mKeyIndex.containsKey(keyOf(node)))
+            throw new IllegalArgumentException("Duplicate key of node " + node);
+    }
+
+    /**
+     * Updates key index with inserted and deleted nodes of update
+     *
+     * @param update update of the tree
+     * @return the same update
+     */
+    TreeUpdate<T> indexKeys(@NonNull TreeUpdate<T> update) {
+        if (mKeyIndex != null) {
+            for (T node : update.deleted) {
+                mKeyIndex.remove(mKeyExtractor.apply(node));
+            }
+            for (T node : update.inserted) {
+                mKeyIndex.put(mKeyExtractor.apply(node), node);
+            }
+        }
+        return update;
+    }
+
+    /**
+     * Creates immutable snapshot of current state of the tree, which can be read from other threads while the tree is changed.
+     * Chunks of nodes which were not changed since previous snapshot are shared with it,
+     * if nothing was changed previous snapshot is returned. Must be called on the thread which changes the tree.
+     * Changed slots are recorded by the tree, so cost is proportional to number of chunks and changed nodes.
+     * In dense numbering structural changes renumber all following nodes, gapped numbering keeps them shared
+     *
+     * @return snapshot of the tree
+     * @see TreeSnapshot
+     */
+    public TreeSnapshot<T> snapshot() {
+        mSnapshot = TreeSnapshot.of(mNodes, mSnapshot, mSnapshotChanges);
+        if (mSnapshotChanges == null) {
+            mSnapshotChanges = new TreeSnapshot.Changes();
+        }
+        mSnapshotChanges.reset(mNodes.size());
+        return mSnapshot;
     }
 
     public int size() {
@@ -278,14 +795,19 @@ public class Tree<T extends TreeNode> {
      * @param newParent new parent of node
      * @param newIndex index inside parent node (from 0 to parent node children array size)
      * @return TreeUpdated object with changes in tree
+     * @throws IllegalArgumentException if node is root, or new parent is node itself or its descendant
      * @see TreeUpdate
      */
     public TreeUpdate<T> moveNode(T node, T newParent, int newIndex) {
-        if (node.getLft() == newParent.getLft() && node.getRgt() == newParent.getRgt()) {
-            throw new IllegalArgumentException("You are trying to move node inside itself");
-        }
         int oldLft = node.getLft();
         int oldRgt = node.getRgt();
+        final int slot = requireSlot(oldLft, oldRgt);
+        if (slot == 0) throw new IllegalArgumentException("Root node can not be moved");
+        final int end = subtreeEnd(slot);
+        final int newParentSlot = requireSlot(newParent.getLft(), newParent.getRgt());
+        if (newParentSlot >= slot && newParentSlot < end) {
+            throw new IllegalArgumentException("You are trying to move node inside itself");
+        }
         List<T> newParentChildren = getChildren(newParent.getLft(), newParent.getRgt());
         if (newIndex < 0 || newIndex > newParentChildren.size()) {
             throw new IllegalArgumentException("Illegal new index. Children size = " + newParentChildren.size());
@@ -296,6 +818,23 @@ public class Tree<T extends TreeNode> {
         } else {
             newLft = newParentChildren.get(newIndex - 1).getRgt() + 1;
         }
+        //Visible rows before move
+        final VisibleIndex index = visibleIndex();
+        final T movedNode = mNodes.get(slot);
+        final T oldParentNode = mNodes.get(parentSlot(slot));
+        final T newParentNode = mNodes.get(newParentSlot);
+        final int fromPosition = index.positionOf(slot);
+        final int movedRows = visibleRows(index, slot, end);
+        if (mSpacing != DENSE_SPACING) {
+            List<T> updated = moveNodeIntoGap(slot, end, newParentSlot, newParentChildren, newIndex);
+            if (updated != null) {
+                return new TreeUpdate<>(new ArrayList<>(), updated, new ArrayList<>(),
+                        moveChanges(movedNode, end - slot, fromPosition, movedRows, oldParentNode, newParentNode));
+            }
+        }
+        //Slot of the first node after new place of subtree
+        final int targetSlot = lowerBound(newLft);
+        shiftDepths(slot, end, newParent.getDepth() + 1 - node.getDepth());
         int movedTreeWidth = node.getRgt() - node.getLft() + 1;
         int moveDistance = newLft - node.getLft();
         int tmppos = node.getLft();
@@ -305,34 +844,654 @@ public class Tree<T extends TreeNode> {
         }
 
         List<T> updated = new ArrayList<>();
-        for (T nodeFromArray : mNodes) {
-            int lftBefore = nodeFromArray.getLft();
-            int rgtBefore = nodeFromArray.getRgt();
+        for (int i = 0; i < mNodes.size(); i++) {
+            final int lftBefore = mNodes.lft(i);
+            final int rgtBefore = mNodes.rgt(i);
+            int nodeLft = lftBefore;
+            int nodeRgt = rgtBefore;
             //create new space for subtree
-            if (nodeFromArray.getLft() >= newLft) {
-                nodeFromArray.setLft(nodeFromArray.getLft() + movedTreeWidth);
+            if (nodeLft >= newLft) {
+                nodeLft += movedTreeWidth;
             }
-            if (nodeFromArray.getRgt() >= newLft) {
-                nodeFromArray.setRgt(nodeFromArray.getRgt() + movedTreeWidth);
+            if (nodeRgt >= newLft) {
+                nodeRgt += movedTreeWidth;
             }
             //move subtree into new space
-            if (nodeFromArray.getLft() >= tmppos && nodeFromArray.getRgt() < tmppos + movedTreeWidth) {
-                nodeFromArray.setRgt(nodeFromArray.getRgt() + moveDistance);
-                nodeFromArray.setLft(nodeFromArray.getLft() + moveDistance);
+            if (nodeLft >= tmppos && nodeRgt < tmppos + movedTreeWidth) {
+                nodeRgt += moveDistance;
+                nodeLft += moveDistance;
             }
             //remove old space vacated by subtree
-            if (nodeFromArray.getLft() > oldRgt) {
-                nodeFromArray.setLft(nodeFromArray.getLft() - movedTreeWidth);
+            if (nodeLft > oldRgt) {
+                nodeLft -= movedTreeWidth;
+            }
+            if (nodeRgt > oldRgt) {
+                nodeRgt -= movedTreeWidth;
             }
-            if (nodeFromArray.getRgt() > oldRgt) {
-                nodeFromArray.setRgt(nodeFromArray.getRgt() - movedTreeWidth);
+            if (lftBefore != nodeLft || rgtBefore != nodeRgt) {
+                mNodes.setLft(i, nodeLft);
+                mNodes.setRgt(i, nodeRgt);
+                nodeChanged(i);
+                updated.add(mNodes.get(i));
             }
-            if (lftBefore != nodeFromArray.getLft() || rgtBefore != nodeFromArray.getRgt()) {
-                updated.add(nodeFromArray);
+        }
+        moveBlock(slot, end, targetSlot, newParentSlot);
+        return new TreeUpdate<>(new ArrayList<>(), updated, new ArrayList<>(),
+                moveChanges(movedNode, end - slot, fromPosition, movedRows, oldParentNode, newParentNode));
+    }
+
+    /**
+     * Moves subtree into free indexes between new neighbours in gapped numbering, so only moved nodes are changed
+     *
+     * @return updated nodes, null if there is not enough free indexes between new neighbours
+     */
+    @Nullable
+    private List<T> moveNodeIntoGap(int slot, int end, int newParentSlot, List<T> newParentChildren, int newIndex) {
+        T node = mNodes.get(slot);
+        T newParent = mNodes.get(newParentSlot);
+        T prev = newIndex == 0 ? null : newParentChildren.get(newIndex - 1);
+        if (prev == node) prev = newIndex > 1 ? newParentChildren.get(newIndex - 2) : null;
+        T next = newIndex == newParentChildren.size() ? null : newParentChildren.get(newIndex);
+        if (next == node) next = newIndex + 1 < newParentChildren.size() ? newParentChildren.get(newIndex + 1) : null;
+        final int low = prev == null ? newParent.getLft() : prev.getRgt();
+        final int high = next == null ? newParent.getRgt() : next.getLft();
+        List<T> updated = new ArrayList<>();
+        if (low < node.getLft() && node.getRgt() < high) {
+            //Node is already between new neighbours
+            return updated;
+        }
+        //Subtree is spread between new neighbours
+        final long step = Math.min(mSpacing, ((long) high - low) / (2L * (end - slot) + 1));
+        if (step < 1) return null;
+        final int targetSlot = lowerBound(low + 1);
+        shiftDepths(slot, end, newParent.getDepth() + 1 - node.getDepth());
+        spreadNodes(slot, end, low, (int) step, updated);
+        moveBlock(slot, end, targetSlot, newParentSlot);
+        return updated;
+    }
+
+    /**
+     * Returns changes of visible rows after move of subtree
+     *
+     * @param movedNode    root of moved subtree
+     * @param size         number of nodes in moved subtree
+     * @param fromPosition visible position of subtree root before move
+     * @param movedRows    visible rows of subtree before move
+     * @param oldParent    parent before move
+     * @param newParent    parent after move
+     */
+    private List<VisibleChange> moveChanges(T movedNode, int size, int fromPosition, int movedRows, T oldParent, T newParent) {
+        final VisibleIndex index = visibleIndex();
+        final int slot = slotOf(movedNode.getLft());
+        final int toPosition = index.positionOf(slot);
+        final int newRows = visibleRows(index, slot, slot + size);
+        List<VisibleChange> changes = new ArrayList<>(4);
+        if (movedRows != newRows || fromPosition != toPosition) {
+            if (movedRows == 1 && newRows == 1) {
+                changes.add(VisibleChange.moved(fromPosition, toPosition));
+            } else {
+                if (movedRows > 0) changes.add(VisibleChange.removed(fromPosition, movedRows));
+                if (newRows > 0) changes.add(VisibleChange.inserted(toPosition, newRows));
             }
         }
-        mNodes = sortByLft(mNodes);
-        return new TreeUpdate<>(new ArrayList<>(), updated, new ArrayList<>());
+        //Parents can become leaf or not leaf
+        addChangedRow(changes, index, slotOf(oldParent.getLft()));
+        if (newParent != oldParent) {
+            addChangedRow(changes, index, slotOf(newParent.getLft()));
+        }
+        return changes;
+    }
+
+    /**
+     * Returns changes of visible rows after insert of leaf, must be called before leaf is inserted
+     *
+     * @param parentSlot index of parent in mNodes
+     * @param slot       index of inserted leaf in mNodes
+     */
+    private List<VisibleChange> leafInsertChanges(int parentSlot, int slot) {
+        final VisibleIndex index = visibleIndex();
+        List<VisibleChange> changes = new ArrayList<>(2);
+        if (!index.isVisible(parentSlot)) return changes;
+        if (mNodes.isExpanded(parentSlot)) {
+            //Nodes before leaf keep their slots
+            changes.add(VisibleChange.inserted(index.countBefore(slot), 1));
+        }
+        //Parent can stop being leaf
+        addChangedRow(changes, index, parentSlot);
+        return changes;
+    }
+
+    /**
+     * Returns changed rows of nodes which shown state was changed without structural changes, neighbour rows are joined into one range
+     *
+     * @param nodes changed nodes
+     * @return changed ranges of visible rows
+     */
+    List<VisibleChange> changedRows(@NonNull List<T> nodes) {
+        final VisibleIndex index = visibleIndex();
+        final int[] positions = new int[nodes.size()];
+        int count = 0;
+        for (T node : nodes) {
+            final int slot = slotOf(node.getLft());
+            final int position = slot < 0 ? -1 : index.positionOf(slot);
+            if (position >= 0) positions[count++] = position;
+        }
+        Arrays.sort(positions, 0, count);
+        List<VisibleChange> changes = new ArrayList<>();
+        int i = 0;
+        while (i < count) {
+            final int start = positions[i];
+            int end = start + 1;
+            while (++i < count && positions[i] <= end) {
+                end = positions[i] + 1;
+            }
+            changes.add(VisibleChange.changed(start, end - start));
+        }
+        return changes;
+    }
+
+    private static void addChangedRow(List<VisibleChange> changes, VisibleIndex index, int slot) {
+        final int position = slot < 0 ? -1 : index.positionOf(slot);
+        if (position >= 0) {
+            changes.add(VisibleChange.changed(position, 1));
+        }
+    }
+
+    /**
+     * Returns number of visible rows of subtree, 0 if subtree root is hidden
+     *
+     * @param slot index of subtree root in mNodes
+     * @param end  index after last descendant of subtree root
+     */
+    private static int visibleRows(VisibleIndex index, int slot, int end) {
+        return index.isVisible(slot) ? index.countBefore(end) - index.countBefore(slot) : 0;
+    }
+
+    /**
+     * Returns index of parent of node in specified slot, -1 for root.
+     * Parents of all nodes are found in one pass after structural change, then lookup is O(1)
+     *
+     * @param slot index of node in mNodes
+     * @return index of parent in mNodes
+     */
+    int parentSlot(int slot) {
+        if (!mParentSlotsValid) {
+            checkIndexesWritable();
+            final int size = mNodes.size();
+            if (mParentSlots.length < size) {
+                mParentSlots = new int[size];
+            }
+            //Stack of open nodes, top is parent of current node
+            final int[] stack = new int[size];
+            int top = -1;
+            for (int i = 0; i < size; i++) {
+                while (top >= 0 && mNodes.rgt(stack[top]) < mNodes.lft(i)) {
+                    top--;
+                }
+                mParentSlots[i] = top >= 0 ? stack[top] : -1;
+                stack[++top] = i;
+            }
+            mParentSlotsValid = true;
+        }
+        return mParentSlots[slot];
+    }
+
+    /**
+     * Sorts children of every node of the tree
+     *
+     * @param comparator order of siblings
+     * @return TreeUpdated object with renumbered nodes and moves of visible rows
+     * @see #sortChildren(int, int, Comparator)
+     */
+    public TreeUpdate<T> sortChildren(@NonNull Comparator<? super T> comparator) {
+        return sortChildren(mNodes.lft(0), mNodes.rgt(0), comparator);
+    }
+
+    /**
+     * Sorts children of node with specified indexes and of all its descendants. Sort is stable.
+     * Subtree is renumbered in one depth-first pass using the same indexes it had, so nodes outside of subtree are not changed.
+     * Cost is O(n log n) of subtree size
+     *
+     * @param lft        the lft index of the node
+     * @param rgt        the rgt index of the node
+     * @param comparator order of siblings
+     * @return TreeUpdated object with renumbered nodes and moves of visible rows
+     */
+    public TreeUpdate<T> sortChildren(int lft, int rgt, @NonNull Comparator<? super T> comparator) {
+        final int slot = requireSlot(lft, rgt);
+        final int end = subtreeEnd(slot);
+        final int count = end - slot;
+        //Children of every node of subtree by local id (slot - slot of subtree root), in compressed form
+        final int[] childStart = new int[count + 1];
+        for (int i = 1; i < count; i++) {
+            childStart[parentSlot(slot + i) - slot + 1]++;
+        }
+        for (int i = 0; i < count; i++) {
+            childStart[i + 1] += childStart[i];
+        }
+        final Integer[] children = new Integer[Math.max(count - 1, 0)];
+        final int[] filled = Arrays.copyOf(childStart, count);
+        for (int i = 1; i < count; i++) {
+            children[filled[parentSlot(slot + i) - slot]++] = i;
+        }
+        final Comparator<Integer> byNode = (first, second) -> comparator.compare(mNodes.get(slot + first), mNodes.get(slot + second));
+        for (int i = 0; i < count; i++) {
+            if (childStart[i + 1] - childStart[i] > 1) {
+                Arrays.sort(children, childStart[i], childStart[i + 1], byNode);
+            }
+        }
+        //Subtree keeps its indexes, they are given to nodes in new depth-first order
+        final int[] indexes = new int[2 * count];
+        for (int i = 0; i < count; i++) {
+            indexes[2 * i] = mNodes.lft(slot + i);
+            indexes[2 * i + 1] = mNodes.rgt(slot + i);
+        }
+        Arrays.sort(indexes);
+        final VisibleIndex index = visibleIndex();
+        final List<T> oldRows = new ArrayList<>();
+        for (int i = slot; i < end; i++) {
+            if (index.isVisible(i)) oldRows.add(mNodes.get(i));
+        }
+        final int firstRow = index.countBefore(slot);
+        final List<T> nodes = new ArrayList<>(mNodes.subList(slot, end));
+        final int[] newLft = new int[count];
+        final int[] newRgt = new int[count];
+        final int[] order = new int[count];
+        //Stack of open nodes and position of next child of every open node
+        final int[] stack = new int[count];
+        final int[] nextChild = new int[count];
+        int top = 0;
+        int next = 0;
+        int ordered = 0;
+        stack[0] = 0;
+        nextChild[0] = childStart[0];
+        newLft[0] = indexes[next++];
+        order[ordered++] = 0;
+        while (top >= 0) {
+            final int id = stack[top];
+            if (nextChild[top] < childStart[id + 1]) {
+                final int child = children[nextChild[top]++];
+                newLft[child] = indexes[next++];
+                order[ordered++] = child;
+                stack[++top] = child;
+                nextChild[top] = childStart[child];
+            } else {
+                newRgt[id] = indexes[next++];
+                top--;
+            }
+        }
+        List<T> updated = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            T node = nodes.get(order[i]);
+            if (node.getLft() != newLft[order[i]] || node.getRgt() != newRgt[order[i]]) {
+                node.setLft(newLft[order[i]]);
+                node.setRgt(newRgt[order[i]]);
+                updated.add(node);
+            }
+            //Depth of node is not changed, storage loads new indexes from node
+            mNodes.set(slot + i, node);
+        }
+        reorderSlots(slot, order);
+        final VisibleIndex newIndex = visibleIndex();
+        final List<T> newRows = new ArrayList<>(oldRows.size());
+        for (int i = slot; i < end; i++) {
+            if (newIndex.isVisible(i)) newRows.add(mNodes.get(i));
+        }
+        //Rows are the same nodes in new order, so changes are moves. Node objects are already renumbered, so new lft is key
+        List<VisibleChange> visibleChanges = new ArrayList<>();
+        for (VisibleChange change : TreeDiff.calculate(oldRows, newRows, TreeNode::getLft)) {
+            visibleChanges.add(change.offset(firstRow));
+        }
+        return new TreeUpdate<>(new ArrayList<>(), updated, new ArrayList<>(), visibleChanges);
+    }
+
+    /**
+     * Only depths inside moved subtree are changed
+     */
+    private void shiftDepths(int slot, int end, int depthShift) {
+        if (depthShift == 0) return;
+        for (int i = slot; i < end; i++) {
+            mNodes.setDepth(i, mNodes.depth(i) + depthShift);
+        }
+        if (mSnapshotChanges != null) mSnapshotChanges.changed(slot, end);
+    }
+
+    /**
+     * Inserts node into storage, indexes which are already built are updated in place without reading other nodes
+     *
+     * @param slot       index of new node in mNodes
+     * @param node       new leaf
+     * @param parentSlot index of parent in mNodes
+     */
+    void insertSlot(int slot, T node, int parentSlot) {
+        mNodes.add(slot, node);
+        if (mSnapshotChanges != null) mSnapshotChanges.inserted(slot, 1);
+        if (mVisibleIndexValid) {
+            mVisibleIndex.insertSlot(slot, mVisibleIndex.isVisible(parentSlot) && mNodes.isExpanded(parentSlot));
+        }
+        if (mParentSlotsValid) {
+            final int size = mNodes.size();
+            if (mParentSlots.length < size) {
+                mParentSlots = Arrays.copyOf(mParentSlots, Math.max(size, mParentSlots.length * 2));
+            }
+            System.arraycopy(mParentSlots, slot, mParentSlots, slot + 1, size - 1 - slot);
+            mParentSlots[slot] = parentSlot;
+            for (int i = slot + 1; i < size; i++) {
+                if (mParentSlots[i] >= slot) mParentSlots[i]++;
+            }
+        }
+        mStructureVersion++;
+    }
+
+    /**
+     * Removes subtree from storage, indexes which are already built are updated in place without reading other nodes
+     *
+     * @param slot index of subtree root in mNodes
+     * @param end  index after last descendant of subtree root
+     */
+    void removeSlots(int slot, int end) {
+        mNodes.subList(slot, end).clear();
+        if (mSnapshotChanges != null) mSnapshotChanges.removed(slot, end);
+        if (mVisibleIndexValid) {
+            mVisibleIndex.removeSlots(slot, end);
+        }
+        if (mParentSlotsValid) {
+            final int size = mNodes.size();
+            final int removed = end - slot;
+            System.arraycopy(mParentSlots, end, mParentSlots, slot, size - slot);
+            //Nodes after subtree can not be children of removed nodes
+            for (int i = slot; i < size; i++) {
+                if (mParentSlots[i] >= end) mParentSlots[i] -= removed;
+            }
+        }
+        mStructureVersion++;
+    }
+
+    /**
+     * Moves block of subtree nodes to its new slot, other nodes keep their order.
+     * Indexes which are already built are updated in place, only slots between old and new place are changed
+     *
+     * @param slot          index of subtree root in mNodes
+     * @param end           index after last descendant of subtree root
+     * @param targetSlot    index of the first node after new place of subtree, before move
+     * @param newParentSlot index of new parent in mNodes, before move
+     * @return new index of subtree root in mNodes
+     */
+    int moveBlock(int slot, int end, int targetSlot, int newParentSlot) {
+        if (targetSlot > end) {
+            Collections.rotate(mNodes.subList(slot, targetSlot), slot - end);
+        } else if (targetSlot < slot) {
+            Collections.rotate(mNodes.subList(targetSlot, end), end - slot);
+        }
+        if (mSnapshotChanges != null) mSnapshotChanges.moved(slot, end, targetSlot);
+        final int newSlot = movedSlot(slot, slot, end, targetSlot);
+        final int parentSlot = movedSlot(newParentSlot, slot, end, targetSlot);
+        if (mParentSlotsValid) {
+            moveRange(mParentSlots, slot, end, targetSlot);
+            final int size = mNodes.size();
+            for (int i = Math.min(slot, targetSlot); i < size; i++) {
+                mParentSlots[i] = movedSlot(mParentSlots[i], slot, end, targetSlot);
+            }
+            mParentSlots[newSlot] = parentSlot;
+        }
+        if (mVisibleIndexValid) {
+            mVisibleIndex.moveSlots(slot, end, targetSlot);
+            final boolean visible = mVisibleIndex.isVisible(parentSlot) && mNodes.isExpanded(parentSlot);
+            if (mVisibleIndex.isVisible(newSlot) != visible) {
+                //Descendants are shown after subtree root and hidden before it
+                if (visible) mVisibleIndex.setVisible(newSlot, true);
+                if (mNodes.isExpanded(newSlot)) updateDescendantsVisibility(newSlot, visible);
+                if (!visible) mVisibleIndex.setVisible(newSlot, false);
+            }
+        }
+        mStructureVersion++;
+        return newSlot;
+    }
+
+    /**
+     * Updates indexes after nodes of subtree are reordered in storage, nodes outside of subtree are not changed
+     *
+     * @param slot  index of subtree root in mNodes
+     * @param order old index inside subtree of node in every new index inside subtree
+     */
+    void reorderSlots(int slot, int[] order) {
+        final int end = slot + order.length;
+        if (mSnapshotChanges != null) mSnapshotChanges.changed(slot, end);
+        if (mParentSlotsValid) {
+            final int[] newIndexes = new int[order.length];
+            for (int i = 0; i < order.length; i++) {
+                newIndexes[order[i]] = i;
+            }
+            final int[] parents = Arrays.copyOfRange(mParentSlots, slot, end);
+            //Parent of subtree root is outside of subtree
+            for (int i = 1; i < order.length; i++) {
+                mParentSlots[slot + i] = slot + newIndexes[parents[order[i]] - slot];
+            }
+        }
+        if (mVisibleIndexValid) {
+            //Every node with lft less then hiddenUntil is descendant of collapsed or hidden node
+            int hiddenUntil = mVisibleIndex.isVisible(slot) && mNodes.isExpanded(slot) ? Integer.MIN_VALUE : mNodes.rgt(slot);
+            for (int i = slot + 1; i < end; i++) {
+                final boolean visible = mNodes.lft(i) >= hiddenUntil;
+                mVisibleIndex.setVisible(i, visible);
+                if (visible && !mNodes.isExpanded(i)) {
+                    hiddenUntil = mNodes.rgt(i);
+                }
+            }
+        }
+        mStructureVersion++;
+    }
+
+    /**
+     * Returns index of node after block of slots is moved before target slot
+     *
+     * @param index      index before move
+     * @param slot       index of the first slot of block
+     * @param end        index after the last slot of block
+     * @param targetSlot index of the first slot after new place of block, before move
+     * @return index after move
+     */
+    static int movedSlot(int index, int slot, int end, int targetSlot) {
+        if (targetSlot > end) {
+            if (index < slot || index >= targetSlot) return index;
+            return index < end ? index + targetSlot - end : index - (end - slot);
+        }
+        if (targetSlot < slot) {
+            if (index < targetSlot || index >= end) return index;
+            return index >= slot ? index - (slot - targetSlot) : index + (end - slot);
+        }
+        return index;
+    }
+
+    /**
+     * Moves values of block of slots before target slot, like {@link #moveBlock(int, int, int, int)} moves nodes
+     */
+    static void moveRange(int[] values, int slot, int end, int targetSlot) {
+        if (targetSlot > end) {
+            final int[] block = Arrays.copyOfRange(values, slot, end);
+            System.arraycopy(values, end, values, slot, targetSlot - end);
+            System.arraycopy(block, 0, values, targetSlot - block.length, block.length);
+        } else if (targetSlot < slot) {
+            final int[] block = Arrays.copyOfRange(values, slot, end);
+            System.arraycopy(values, targetSlot, values, targetSlot + block.length, slot - targetSlot);
+            System.arraycopy(block, 0, values, targetSlot, block.length);
+        }
+    }
+
+    /**
+     * Shows or hides descendants of expanded or collapsed node in visible index.
+     * Descendants of collapsed descendants are skipped, so cost is proportional to number of changed rows
+     *
+     * @param slot    index of node in mNodes
+     * @param visible true if node was expanded, false if collapsed
+     * @return number of rows which became visible or hidden
+     */
+    private int updateDescendantsVisibility(int slot, boolean visible) {
+        //Descendants of hidden node stay hidden
+        if (!mVisibleIndex.isVisible(slot)) return 0;
+        final int end = subtreeEnd(slot);
+        int changedRows = 0;
+        int i = slot + 1;
+        while (i < end) {
+            if (mVisibleIndex.setVisible(i, visible)) {
+                changedRows++;
+            }
+            //Descendants of collapsed node are already hidden
+            i = mNodes.isExpanded(i) ? i + 1 : subtreeEnd(i);
+        }
+        return changedRows;
+    }
+
+    /**
+     * Returns index after last descendant of node in specified slot
+     *
+     * @param slot index of node in mNodes
+     * @return index after last descendant of node
+     */
+    int subtreeEnd(int slot) {
+        return lowerBound(mNodes.rgt(slot), slot + 1);
+    }
+
+    /**
+     * Returns index of first node with lft greater or equal to specified value
+     *
+     * @param lft lft to search for
+     * @return index of first node with lft greater or equal to specified value, size of tree if there is no such node
+     */
+    int lowerBound(int lft) {
+        return lowerBound(lft, 0);
+    }
+
+    private int lowerBound(int lft, int from) {
+        int low = from;
+        int high = mNodes.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (mNodes.lft(mid) < lft) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Finds index of node with specified lft using binary search over mNodes sorted by lft
+     *
+     * @param lft lft of node
+     * @return index of node in mNodes, -1 if not found
+     */
+    int slotOf(int lft) {
+        int slot = lowerBound(lft);
+        return slot < mNodes.size() && mNodes.lft(slot) == lft ? slot : -1;
+    }
+
+    /**
+     * Finds index of node with specified lft and rgt
+     *
+     * @param lft lft of node
+     * @param rgt rgt of node
+     * @return index of node in mNodes, -1 if not found
+     */
+    int slotOf(int lft, int rgt) {
+        int slot = slotOf(lft);
+        return slot >= 0 && mNodes.rgt(slot) == rgt ? slot : -1;
+    }
+
+    /**
+     * Finds index of node with specified lft and rgt, throws NodeNotFoundException if not found
+     *
+     * @param lft lft of node
+     * @param rgt rgt of node
+     * @return index of node in mNodes
+     */
+    int requireSlot(int lft, int rgt) {
+        int slot = slotOf(lft, rgt);
+        if (slot < 0) throw new NodeNotFoundException(lft, rgt);
+        return slot;
+    }
+
+    /**
+     * Computes depth of every node in one pass using stack of open nodes
+     */
+    private void computeDepths() {
+        final int[] openRgt = new int[mNodes.size()];
+        int top = -1;
+        for (int i = 0; i < mNodes.size(); i++) {
+            while (top >= 0 && openRgt[top] < mNodes.lft(i)) {
+                top--;
+            }
+            mNodes.setDepth(i, top + 1);
+            openRgt[++top] = mNodes.rgt(i);
+        }
+    }
+
+    /**
+     * Replaces nodes with already numbered nodes sorted by lft
+     *
+     * @param nodes new nodes of the tree with valid indexes and depths
+     */
+    void replaceNodes(@NonNull List<T> nodes) {
+        mNodes.clear();
+        mNodes.addAll(nodes);
+        invalidateIndexes();
+    }
+
+    private VisibleIndex visibleIndex() {
+        if (!mVisibleIndexValid) {
+            checkIndexesWritable();
+            mVisibleIndex.rebuild(mNodes);
+            mVisibleIndexValid = true;
+        }
+        return mVisibleIndex;
+    }
+
+    /**
+     * Rebuilds lazy indexes now, so following reads do not change state of the tree and can run concurrently
+     */
+    void prepareIndexes() {
+        visibleIndex();
+        if (!mNodes.isEmpty()) {
+            parentSlot(0);
+        }
+    }
+
+    /**
+     * Throws ConcurrentModificationException if current thread reads the tree concurrently and index is not ready,
+     * which means that the tree is being changed by other thread
+     */
+    void checkIndexesWritable() {
+        if (mReadOnlyThreads != null && mReadOnlyThreads.get() != null)
+            throw new ConcurrentModificationException("Index of the tree is rebuilt during concurrent read");
+    }
+
+    /**
+     * Marks all lazy indexes as stale, must be called after nodes are changed without the tree methods
+     */
+    void invalidateIndexes() {
+        mVisibleIndexValid = false;
+        mParentSlotsValid = false;
+        if (mSnapshotChanges != null) mSnapshotChanges.all();
+        mStructureVersion++;
+    }
+
+    /**
+     * Marks node in specified slot as changed since last snapshot, must be called when indexes or flags of node are changed
+     *
+     * @param slot index of node in mNodes
+     */
+    void nodeChanged(int slot) {
+        if (mSnapshotChanges != null) mSnapshotChanges.changed(slot, slot + 1);
+    }
+
+    /**
+     * Returns number which is changed on every structural change of the tree, so indexes by slot can be invalidated
+     *
+     * @return current version of tree structure
+     */
+    int getStructureVersion() {
+        return mStructureVersion;
     }
 
     /**
@@ -349,6 +1508,22 @@ public class Tree<T extends TreeNode> {
                 .collect(Collectors.toList());
     }
 
+    /**
+     * Storage of node indexes
+     */
+    public enum Storage {
+        /**
+         * Indexes are read from node objects
+         */
+        OBJECTS,
+        /**
+         * Indexes, depths and flags are kept in parallel primitive arrays and written through to node objects.
+         * Scans over large trees do not dereference nodes, but nodes must be changed only through the tree.
+         * Columns are kept in addition to node fields, so this storage takes about 13 more bytes per node
+         */
+        COLUMNS
+    }
+
     public static class TreeUpdate<T> {
         /**
          * List of inserted nodes
@@ -362,11 +1537,23 @@ public class Tree<T extends TreeNode> {
          * List of deleted nodes
          */
         public final List<T> deleted;
+        /**
+         * Changes of visible rows in order of application, null if they are unknown and all rows must be reloaded.
+         * Rows of updated nodes are not included
+         */
+        @Nullable
+        public final List<VisibleChange> visibleChanges;
 
         public TreeUpdate(@NonNull List<T> inserted, @NonNull List<T> updated, @NonNull List<T> deleted) {
+            this(inserted, updated, deleted, null);
+        }
+
+        public TreeUpdate(@NonNull List<T> inserted, @NonNull List<T> updated, @NonNull List<T> deleted,
+                          @Nullable List<VisibleChange> visibleChanges) {
             this.inserted = inserted;
             this.updated = updated;
             this.deleted = deleted;
+            this.visibleChanges = visibleChanges;
         }
 
 
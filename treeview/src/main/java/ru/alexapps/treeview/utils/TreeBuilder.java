@@ -0,0 +1,137 @@
+package ru.alexapps.treeview.utils;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+
+import ru.alexapps.treeview.model.CheckableTreeNode;
+import ru.alexapps.treeview.model.TreeNode;
+
+/**
+ * Builds the tree from depth-first events, for example from pull parser of hierarchical document.
+ * Lft is assigned when node is entered, rgt when it is left, and nodes are appended to storage in lft order,
+ * so the tree is ready after the last event without intermediate list, sorting or validation.
+ * First entered node is root, expanded and checked states of nodes are kept
+ */
+public class TreeBuilder<T extends TreeNode> {
+    private final NodeStorage<T> mNodes;
+    private final int mSpacing;
+    //Slots of entered but not yet left nodes
+    private int[] mOpenSlots = new int[16];
+    private int mOpenCount;
+    private int mIndex;
+    private boolean mBuilt;
+
+    public TreeBuilder() {
+        this(Tree.DENSE_SPACING, Tree.Storage.OBJECTS, 16);
+    }
+
+    /**
+     * @param spacing      spacing of indexes, {@link Tree#DENSE_SPACING} or at least {@link Tree#MIN_GAP_SPACING}
+     * @param storage      storage of new tree
+     * @param expectedSize expected number of nodes, storage is grown if there are more nodes
+     */
+    public TreeBuilder(int spacing, @NonNull Tree.Storage storage, int expectedSize) {
+        Tree.checkSpacing(spacing);
+        mNodes = NodeStorage.create(storage, Math.max(expectedSize, 1));
+        mSpacing = spacing;
+    }
+
+    /**
+     * Enters node, its lft and depth are assigned. Next entered nodes are its descendants until it is left
+     *
+     * @param node child of the last entered and not left node, or root
+     * @return this builder
+     * @throws IllegalStateException if root was already left or tree was built
+     */
+    @NonNull
+    public TreeBuilder<T> enterChild(@NonNull T node) {
+        checkNotBuilt();
+        if (mOpenCount == 0 && mNodes.size() > 0) throw new IllegalStateException("Tree must have only one root");
+        if (mIndex > Integer.MAX_VALUE - 2 * mSpacing) throw new IllegalStateException("Too many nodes for spacing " + mSpacing);
+        node.setLft(mIndex);
+        node.setDepth(mOpenCount);
+        mNodes.add(node);
+        if (mOpenCount == mOpenSlots.length) {
+            mOpenSlots = Arrays.copyOf(mOpenSlots, mOpenCount * 2);
+        }
+        mOpenSlots[mOpenCount++] = mNodes.size() - 1;
+        mIndex += mSpacing;
+        return this;
+    }
+
+    /**
+     * Leaves the last entered node, its rgt is assigned
+     *
+     * @return this builder
+     * @throws IllegalStateException if there is no entered node to leave or tree was built
+     */
+    @NonNull
+    public TreeBuilder<T> leaveChild() {
+        checkNotBuilt();
+        if (mOpenCount == 0) throw new IllegalStateException("There is no node to leave");
+        mNodes.setRgt(mOpenSlots[--mOpenCount], mIndex);
+        mIndex += mSpacing;
+        return this;
+    }
+
+    /**
+     * Enters and leaves node without children
+     *
+     * @param node child of the last entered and not left node, or root
+     * @return this builder
+     */
+    @NonNull
+    public TreeBuilder<T> addLeaf(@NonNull T node) {
+        return enterChild(node).leaveChild();
+    }
+
+    /**
+     * @return number of entered nodes
+     */
+    public int size() {
+        return mNodes.size();
+    }
+
+    /**
+     * @return number of entered and not left nodes, which is depth of next entered node
+     */
+    public int getOpenCount() {
+        return mOpenCount;
+    }
+
+    /**
+     * Creates tree, builder can not be used after that
+     *
+     * @return new tree
+     * @throws IllegalStateException if root was not entered or some nodes were not left
+     */
+    @NonNull
+    public Tree<T> build() {
+        return new Tree<>(finish(), mSpacing);
+    }
+
+    /**
+     * Creates checkable tree, builder can not be used after that
+     *
+     * @param builder builder of checkable nodes
+     * @return new tree
+     * @throws IllegalStateException if root was not entered or some nodes were not left
+     */
+    @NonNull
+    public static <T extends CheckableTreeNode> CheckableTree<T> buildCheckable(@NonNull TreeBuilder<T> builder) {
+        return new CheckableTree<>(builder.finish(), builder.mSpacing);
+    }
+
+    NodeStorage<T> finish() {
+        checkNotBuilt();
+        if (mNodes.size() == 0) throw new IllegalStateException("Tree must have root");
+        if (mOpenCount > 0) throw new IllegalStateException(mOpenCount + " nodes were not left");
+        mBuilt = true;
+        return mNodes;
+    }
+
+    private void checkNotBuilt() {
+        if (mBuilt) throw new IllegalStateException("Tree is already built");
+    }
+}
@@ -0,0 +1,204 @@
+package ru.alexapps.treeview.utils;
+
+import androidx.annotation.NonNull;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import ru.alexapps.treeview.model.CheckableTreeNode;
+import ru.alexapps.treeview.model.TreeNode;
+
+/**
+ * Compact binary format of the tree. Shape of the tree is written as depth-first sequence of bits,
+ * 1 opens node and 0 closes it, expanded and checked states are written as bitsets in lft order,
+ * then payloads of nodes are written in lft order by user writer. Tree of n nodes without payloads takes about n / 2 bytes.
+ * Indexes are not written: decoder assigns them with spacing of encoded tree while reading the shape,
+ * so gapped trees are restored evenly spread. Shape is always valid nested set, so decoder does not validate or sort nodes
+ */
+public final class TreeCodec {
+    private static final int MAGIC = 0x54524545;
+    private static final int VERSION = 1;
+    private static final int FLAG_CHECKED = 1;
+
+    private TreeCodec() {
+    }
+
+    /**
+     * Writes tree. Checked states are written for {@link CheckableTree}
+     *
+     * @param tree   tree to write
+     * @param out    output
+     * @param writer writes payload of node
+     * @throws IOException if output fails
+     */
+    public static <T extends TreeNode> void encode(@NonNull Tree<T> tree, @NonNull DataOutput out,
+                                                   @NonNull PayloadWriter<? super T> writer) throws IOException {
+        final NodeStorage<T> nodes = tree.mNodes;
+        final int size = nodes.size();
+        final boolean checkable = tree instanceof CheckableTree;
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeByte(checkable ? FLAG_CHECKED : 0);
+        writeVarInt(out, tree.getSpacing());
+        writeVarInt(out, size);
+        final byte[] shape = new byte[bytes(2 * size)];
+        final byte[] expanded = new byte[bytes(size)];
+        final byte[] checked = new byte[checkable ? bytes(size) : 0];
+        //Rgt of open nodes, closed bits are zeros, so only open bits are set
+        final int[] openRgt = new int[size];
+        int top = -1;
+        int bit = 0;
+        for (int i = 0; i < size; i++) {
+            while (top >= 0 && openRgt[top] < nodes.lft(i)) {
+                top--;
+                bit++;
+            }
+            setBit(shape, bit++);
+            openRgt[++top] = nodes.rgt(i);
+            if (nodes.isExpanded(i)) setBit(expanded, i);
+            if (checkable && ((CheckableTreeNode) nodes.get(i)).isChecked()) setBit(checked, i);
+        }
+        out.write(shape);
+        out.write(expanded);
+        out.write(checked);
+        for (int i = 0; i < size; i++) {
+            writer.write(nodes.get(i), out);
+        }
+    }
+
+    /**
+     * Reads tree written by {@link #encode(Tree, DataOutput, PayloadWriter)}, checked states are skipped
+     *
+     * @param in      input
+     * @param reader  creates node from its payload
+     * @param storage storage of new tree
+     * @return new tree
+     * @throws IOException if input fails or is not tree data
+     */
+    @NonNull
+    public static <T extends TreeNode> Tree<T> decode(@NonNull DataInput in, @NonNull PayloadReader<? extends T> reader,
+                                                      @NonNull Tree.Storage storage) throws IOException {
+        final Header header = readHeader(in);
+        return new Tree<>(readNodes(in, header, reader, storage, false), header.spacing);
+    }
+
+    /**
+     * Reads tree with checked states written by {@link #encode(Tree, DataOutput, PayloadWriter)}.
+     * If checked states were not written, all nodes are unchecked
+     *
+     * @param in      input
+     * @param reader  creates node from its payload
+     * @param storage storage of new tree
+     * @return new tree
+     * @throws IOException if input fails or is not tree data
+     */
+    @NonNull
+    public static <T extends CheckableTreeNode> CheckableTree<T> decodeCheckable(@NonNull DataInput in, @NonNull PayloadReader<? extends T> reader,
+                                                                                @NonNull Tree.Storage storage) throws IOException {
+        final Header header = readHeader(in);
+        return new CheckableTree<>(readNodes(in, header, reader, storage, true), header.spacing);
+    }
+
+    private static Header readHeader(DataInput in) throws IOException {
+        if (in.readInt() != MAGIC) throw new IOException("Not a tree data");
+        final int version = in.readUnsignedByte();
+        if (version != VERSION) throw new IOException("Unsupported version " + version);
+        final int flags = in.readUnsignedByte();
+        final int spacing = readVarInt(in);
+        final int size = readVarInt(in);
+        if (spacing != Tree.DENSE_SPACING && spacing < Tree.MIN_GAP_SPACING || size < 1 || (2L * size - 1) * spacing > Integer.MAX_VALUE)
+            throw new IOException("Wrong size " + size + " or spacing " + spacing);
+        return new Header(flags, spacing, size);
+    }
+
+    /**
+     * Streams shape into builder: node is entered on open bit and left on close bit
+     */
+    private static <T extends TreeNode> NodeStorage<T> readNodes(DataInput in, Header header, PayloadReader<? extends T> reader,
+                                                                 Tree.Storage storage, boolean checkable) throws IOException {
+        final int size = header.size;
+        final byte[] shape = new byte[bytes(2 * size)];
+        final byte[] expanded = new byte[bytes(size)];
+        final byte[] checked = new byte[(header.flags & FLAG_CHECKED) != 0 ? bytes(size) : 0];
+        in.readFully(shape);
+        in.readFully(expanded);
+        in.readFully(checked);
+        final TreeBuilder<T> builder = new TreeBuilder<>(header.spacing, storage, size);
+        for (int bit = 0; bit < 2 * size; bit++) {
+            if (getBit(shape, bit)) {
+                final int slot = builder.size();
+                //Only root has no parent
+                if (slot == size || builder.getOpenCount() == 0 && slot > 0) throw new IOException("Corrupted tree shape");
+                T node = reader.read(in);
+                node.setExpanded(getBit(expanded, slot));
+                if (checkable) {
+                    ((CheckableTreeNode) node).setChecked(checked.length > 0 && getBit(checked, slot));
+                }
+                builder.enterChild(node);
+            } else {
+                if (builder.getOpenCount() == 0) throw new IOException("Corrupted tree shape");
+                builder.leaveChild();
+            }
+        }
+        if (builder.getOpenCount() > 0 || builder.size() != size) throw new IOException("Corrupted tree shape");
+        return builder.finish();
+    }
+
+    private static int bytes(int bits) {
+        return (bits + 7) >>> 3;
+    }
+
+    private static void setBit(byte[] bits, int bit) {
+        bits[bit >>> 3] |= 1 << (bit & 7);
+    }
+
+    private static boolean getBit(byte[] bits, int bit) {
+        return (bits[bit >>> 3] & (1 << (bit & 7))) != 0;
+    }
+
+    private static void writeVarInt(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(DataInput in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            final int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    private static class Header {
+        final int flags;
+        final int spacing;
+        final int size;
+
+        Header(int flags, int spacing, int size) {
+            this.flags = flags;
+            this.spacing = spacing;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Writes user data of node
+     */
+    public interface PayloadWriter<T> {
+        void write(@NonNull T node, @NonNull DataOutput out) throws IOException;
+    }
+
+    /**
+     * Creates node from user data written by {@link PayloadWriter}. Indexes and flags of node are set by decoder
+     */
+    public interface PayloadReader<T> {
+        @NonNull
+        T read(@NonNull DataInput in) throws IOException;
+    }
+}
@@ -0,0 +1,257 @@
+package ru.alexapps.treeview.utils;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.BiPredicate;
+import java.util.function.Function;
+
+import ru.alexapps.treeview.model.TreeNode;
+
+/**
+ * Calculates script of visible changes which transforms old visible rows to new visible rows.
+ * Rows are matched by stable key: rows with keys missing in new rows are removed, rows with new keys are inserted,
+ * rows which are not in the longest increasing subsequence of kept rows are moved, so number of moves is minimal.
+ * Kept rows which content is not the same are changed. Calculation is O(n log n) and can be done on background thread
+ */
+public final class TreeDiff {
+
+    private TreeDiff() {
+    }
+
+    /**
+     * Calculates changes of rows, content of rows is compared by {@link #sameContent(Object, Object)}
+     *
+     * @see #calculate(List, List, Function, BiPredicate)
+     */
+    @NonNull
+    @WorkerThread
+    public static <T, K> List<VisibleChange> calculate(@NonNull List<? extends T> oldRows, @NonNull List<? extends T> newRows,
+                                                       @NonNull Function<? super T, ? extends K> keyExtractor) {
+        return calculate(oldRows, newRows, keyExtractor, TreeDiff::sameContent);
+    }
+
+    /**
+     * Calculates changes of rows
+     *
+     * @param oldRows         rows before change
+     * @param newRows         rows after change
+     * @param keyExtractor    returns stable key of row, keys must be unique in each list
+     * @param contentsTheSame returns true if old row and new row with the same key are shown the same, so row is not changed
+     * @return changes in order of application
+     * @see VisibleChange
+     */
+    @NonNull
+    @WorkerThread
+    public static <T, K> List<VisibleChange> calculate(@NonNull List<? extends T> oldRows, @NonNull List<? extends T> newRows,
+                                                       @NonNull Function<? super T, ? extends K> keyExtractor,
+                                                       @NonNull BiPredicate<? super T, ? super T> contentsTheSame) {
+        final int newSize = newRows.size();
+        final Map<K, Integer> newIndexes = new HashMap<>(newSize * 2);
+        for (int i = 0; i < newSize; i++) {
+            if (newIndexes.put(keyExtractor.apply(newRows.get(i)), i) != null)
+                throw new IllegalArgumentException("Duplicate key of row " + newRows.get(i));
+        }
+        List<VisibleChange> changes = new ArrayList<>();
+        //Old index of new row, -1 for inserted rows
+        final int[] oldIndexes = new int[newSize];
+        Arrays.fill(oldIndexes, -1);
+        //Removed rows go from the end, so positions of rows before them are not changed
+        int removedEnd = -1;
+        for (int i = oldRows.size() - 1; i >= 0; i--) {
+            Integer newIndex = newIndexes.get(keyExtractor.apply(oldRows.get(i)));
+            if (newIndex == null) {
+                if (removedEnd < 0) removedEnd = i + 1;
+                continue;
+            }
+            if (oldIndexes[newIndex] >= 0)
+                throw new IllegalArgumentException("Duplicate key of row " + oldRows.get(i));
+            oldIndexes[newIndex] = i;
+            if (removedEnd >= 0) {
+                changes.add(VisibleChange.removed(i + 1, removedEnd - i - 1));
+                removedEnd = -1;
+            }
+        }
+        if (removedEnd >= 0) {
+            changes.add(VisibleChange.removed(0, removedEnd));
+        }
+        addMovesAndInserts(oldIndexes, changes);
+        //Changed rows are notified after structural changes, so positions are new positions
+        int changedStart = -1;
+        for (int i = 0; i <= newSize; i++) {
+            final boolean changed = i < newSize && oldIndexes[i] >= 0 && !contentsTheSame.test(oldRows.get(oldIndexes[i]), newRows.get(i));
+            if (changed && changedStart < 0) {
+                changedStart = i;
+            } else if (!changed && changedStart >= 0) {
+                changes.add(VisibleChange.changed(changedStart, i - changedStart));
+                changedStart = -1;
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * Default content comparison: nodes are compared by {@link TreeNode#contentEquals(TreeNode)}, so renumbered rows are not changed,
+     * other rows are compared by equals
+     *
+     * @param oldRow row before change
+     * @param newRow row after change with the same key
+     * @return true if row is not changed
+     */
+    public static boolean sameContent(@NonNull Object oldRow, @NonNull Object newRow) {
+        if (oldRow instanceof TreeNode && newRow instanceof TreeNode) {
+            return ((TreeNode) oldRow).contentEquals((TreeNode) newRow);
+        }
+        return Objects.equals(oldRow, newRow);
+    }
+
+    /**
+     * Moves kept rows and inserts new rows in order of new rows. Rows of longest increasing subsequence of old indexes
+     * stay on their places, every other row is placed right after previous new row.
+     * Positions are found with Fenwick tree over final order of all places, which rows take during the script
+     *
+     * @param oldIndexes old index of every new row, -1 for inserted rows
+     * @param changes    list to add changes to
+     */
+    private static void addMovesAndInserts(int[] oldIndexes, List<VisibleChange> changes) {
+        final int newSize = oldIndexes.length;
+        final boolean[] stays = longestIncreasingSubsequence(oldIndexes);
+        //Places of rows: kept rows in old order have original places, moved and inserted rows get new places.
+        //Order of places is built as linked list, new place goes right after place of previous new row
+        final int keptCount = countKept(oldIndexes);
+        final int[] next = new int[keptCount + newSize + 1];
+        final int head = next.length - 1;
+        //Rank of kept old row among kept rows in old order is its original place
+        final int[] originalPlace = keptPlaces(oldIndexes, keptCount, next, head);
+        final int[] place = new int[newSize];
+        int newPlaces = keptCount;
+        for (int i = 0; i < newSize; i++) {
+            if (stays[i]) {
+                place[i] = originalPlace[i];
+                continue;
+            }
+            final int after = i == 0 ? head : place[i - 1];
+            place[i] = newPlaces++;
+            next[place[i]] = next[after];
+            next[after] = place[i];
+        }
+        final int[] rank = new int[newPlaces];
+        int currentRank = 0;
+        for (int p = next[head]; p != -1; p = next[p]) {
+            rank[p] = ++currentRank;
+        }
+        //Fenwick tree over ranks of places, which are taken by rows now
+        final int[] fenwick = new int[newPlaces + 1];
+        for (int i = 0; i < newSize; i++) {
+            if (oldIndexes[i] >= 0) add(fenwick, rank[originalPlace[i]], 1);
+        }
+        for (int i = 0; i < newSize; i++) {
+            if (stays[i]) continue;
+            final int to = i == 0 ? 0 : count(fenwick, rank[place[i - 1]]);
+            if (oldIndexes[i] >= 0) {
+                final int from = count(fenwick, rank[originalPlace[i]]) - 1;
+                add(fenwick, rank[originalPlace[i]], -1);
+                add(fenwick, rank[place[i]], 1);
+                final int toPosition = count(fenwick, rank[place[i]]) - 1;
+                if (from != toPosition) {
+                    changes.add(VisibleChange.moved(from, toPosition));
+                }
+            } else {
+                add(fenwick, rank[place[i]], 1);
+                //Neighbour inserted rows are notified with one range
+                VisibleChange last = changes.isEmpty() ? null : changes.get(changes.size() - 1);
+                if (last != null && last.type == VisibleChange.Type.INSERTED && last.position + last.count == to) {
+                    changes.set(changes.size() - 1, VisibleChange.inserted(last.position, last.count + 1));
+                } else {
+                    changes.add(VisibleChange.inserted(to, 1));
+                }
+            }
+        }
+    }
+
+    private static int countKept(int[] oldIndexes) {
+        int count = 0;
+        for (int oldIndex : oldIndexes) {
+            if (oldIndex >= 0) count++;
+        }
+        return count;
+    }
+
+    /**
+     * Links original places of kept rows in old order and returns original place of every new row
+     */
+    private static int[] keptPlaces(int[] oldIndexes, int keptCount, int[] next, int head) {
+        final int[] keptOldIndexes = new int[keptCount];
+        int k = 0;
+        for (int i = 0; i < oldIndexes.length; i++) {
+            if (oldIndexes[i] >= 0) keptOldIndexes[k++] = oldIndexes[i];
+        }
+        Arrays.sort(keptOldIndexes);
+        final int[] originalPlace = new int[oldIndexes.length];
+        for (int i = 0; i < oldIndexes.length; i++) {
+            if (oldIndexes[i] >= 0) {
+                originalPlace[i] = Arrays.binarySearch(keptOldIndexes, oldIndexes[i]);
+            }
+        }
+        next[head] = keptCount == 0 ? -1 : 0;
+        for (int place = 0; place < keptCount; place++) {
+            next[place] = place + 1 < keptCount ? place + 1 : -1;
+        }
+        return originalPlace;
+    }
+
+    /**
+     * Marks rows which form longest increasing subsequence of old indexes, inserted rows are not marked
+     */
+    private static boolean[] longestIncreasingSubsequence(int[] oldIndexes) {
+        final int size = oldIndexes.length;
+        //tails[length - 1] is index of row which ends increasing subsequence of that length with minimal old index
+        final int[] tails = new int[size];
+        final int[] previous = new int[size];
+        int length = 0;
+        for (int i = 0; i < size; i++) {
+            if (oldIndexes[i] < 0) continue;
+            int low = 0;
+            int high = length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (oldIndexes[tails[mid]] < oldIndexes[i]) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            previous[i] = low > 0 ? tails[low - 1] : -1;
+            tails[low] = i;
+            if (low == length) length++;
+        }
+        final boolean[] stays = new boolean[size];
+        for (int i = length > 0 ? tails[length - 1] : -1; i >= 0; i = previous[i]) {
+            stays[i] = true;
+        }
+        return stays;
+    }
+
+    private static void add(int[] fenwick, int rank, int delta) {
+        for (int i = rank; i < fenwick.length; i += i & -i) {
+            fenwick[i] += delta;
+        }
+    }
+
+    /**
+     * Returns number of taken places with rank from 1 to specified rank
+     */
+    private static int count(int[] fenwick, int rank) {
+        int count = 0;
+        for (int i = rank; i > 0; i -= i & -i) {
+            count += fenwick[i];
+        }
+        return count;
+    }
+}
@@ -0,0 +1,499 @@
+package ru.alexapps.treeview.utils;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import ru.alexapps.treeview.exceptions.NodeNotFoundException;
+import ru.alexapps.treeview.model.CheckableTreeNode;
+import ru.alexapps.treeview.model.TreeNode;
+
+/**
+ * Immutable state of the tree at the moment of {@link Tree#snapshot()}. Snapshot can be read from any thread without locks
+ * while the tree is changed, and it never changes itself.
+ * Nodes are shared with the tree, so indexes, depth, expanded and checked state of node must be read from snapshot
+ * by index of node, fields of node object can be already changed by the tree.
+ * Nodes are kept in chunks, and next snapshot of the tree reuses every chunk which was not changed.
+ * The tree records changed slots, so new snapshot copies only changed nodes without comparing the others.
+ * In dense numbering insert, delete and move renumber all nodes after changed slot, so these chunks can not be shared.
+ * Use gapped numbering ({@link Tree#setSpacing(int)}) if the tree is changed and snapshotted often
+ */
+public final class TreeSnapshot<T extends TreeNode> {
+    static final int CHUNK_SIZE = 64;
+    //New chunks shorter than this are merged with next chunk instead of sharing it
+    private static final int MIN_CHUNK_SIZE = CHUNK_SIZE / 4;
+
+    private final Chunk[] mChunks;
+    //Index of the first node of every chunk
+    private final int[] mOffsets;
+    private final int mSize;
+    //Indexes of visible nodes, computed lazily. Computation is idempotent, so race of readers is harmless
+    private volatile int[] mVisibleIndexes;
+
+    private TreeSnapshot(Chunk[] chunks, int size) {
+        mChunks = chunks;
+        mSize = size;
+        mOffsets = new int[chunks.length];
+        int offset = 0;
+        for (int i = 0; i < chunks.length; i++) {
+            mOffsets[i] = offset;
+            offset += chunks[i].size();
+        }
+    }
+
+    /**
+     * Creates snapshot of nodes, chunks of previous snapshot which are inside of unchanged slots are reused.
+     * Cost is proportional to number of chunks and number of changed nodes
+     *
+     * @param nodes    nodes of the tree sorted by lft
+     * @param previous previous snapshot of the same tree, null if there is no one
+     * @param changes  changes of the tree since previous snapshot, null if they are unknown
+     * @return new snapshot or previous snapshot if nothing was changed
+     */
+    static <T extends TreeNode> TreeSnapshot<T> of(@NonNull NodeStorage<T> nodes, @Nullable TreeSnapshot<T> previous,
+                                                   @Nullable Changes changes) {
+        final int size = nodes.size();
+        List<Chunk> chunks = new ArrayList<>(size / CHUNK_SIZE + 1);
+        if (previous == null || changes == null || changes.mAll) {
+            addChunks(chunks, nodes, 0, size);
+            return new TreeSnapshot<>(chunks.toArray(new Chunk[0]), size);
+        }
+        if (changes.mCount == 1 && changes.mStarts[0] == 0 && changes.mLengths[0] == previous.mSize) {
+            return previous;
+        }
+        int slot = 0;
+        int pendingStart = 0;
+        for (int segment = 0; segment < changes.mCount; segment++) {
+            final int oldStart = changes.mStarts[segment];
+            final int length = changes.mLengths[segment];
+            if (oldStart >= 0) {
+                //Chunks of previous snapshot which are completely inside of unchanged segment
+                int chunk = previous.chunkOf(oldStart);
+                if (previous.mOffsets[chunk] < oldStart) chunk++;
+                for (; chunk < previous.mChunks.length; chunk++) {
+                    final Chunk shared = previous.mChunks[chunk];
+                    if (previous.mOffsets[chunk] + shared.size() > oldStart + length) break;
+                    final int chunkSlot = slot + previous.mOffsets[chunk] - oldStart;
+                    final int pending = chunkSlot - pendingStart;
+                    if (pending == 0 || pending >= MIN_CHUNK_SIZE) {
+                        addChunks(chunks, nodes, pendingStart, chunkSlot);
+                        chunks.add(shared);
+                        pendingStart = chunkSlot + shared.size();
+                    }
+                }
+            }
+            slot += length;
+        }
+        addChunks(chunks, nodes, pendingStart, size);
+        return new TreeSnapshot<>(chunks.toArray(new Chunk[0]), size);
+    }
+
+    /**
+     * Copies nodes from specified range into new chunks
+     */
+    private static void addChunks(List<Chunk> chunks, NodeStorage<?> nodes, int from, int to) {
+        for (int start = from; start < to; start += CHUNK_SIZE) {
+            chunks.add(new Chunk(nodes, start, Math.min(start + CHUNK_SIZE, to)));
+        }
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public T getRoot() {
+        return getNode(0);
+    }
+
+    /**
+     * Returns node by its index in lft order
+     *
+     * @param index index of node, from 0 to size - 1
+     * @return node with specified index
+     */
+    @SuppressWarnings("unchecked")
+    public T getNode(int index) {
+        final int chunk = chunkOf(index);
+        return (T) mChunks[chunk].mNodes[index - mOffsets[chunk]];
+    }
+
+    public int getLft(int index) {
+        final int chunk = chunkOf(index);
+        return mChunks[chunk].mLft[index - mOffsets[chunk]];
+    }
+
+    public int getRgt(int index) {
+        final int chunk = chunkOf(index);
+        return mChunks[chunk].mRgt[index - mOffsets[chunk]];
+    }
+
+    public int getDepth(int index) {
+        final int chunk = chunkOf(index);
+        return mChunks[chunk].mDepth[index - mOffsets[chunk]];
+    }
+
+    public boolean isExpanded(int index) {
+        final int chunk = chunkOf(index);
+        return mChunks[chunk].mExpanded[index - mOffsets[chunk]];
+    }
+
+    /**
+     * Returns checked state of node at the moment of snapshot, false if node is not {@link CheckableTreeNode}
+     *
+     * @param index index of node, from 0 to size - 1
+     * @return true if node was checked
+     */
+    public boolean isChecked(int index) {
+        final int chunk = chunkOf(index);
+        return mChunks[chunk].mChecked[index - mOffsets[chunk]];
+    }
+
+    /**
+     * Returns index of node with specified lft and rgt, -1 if not found
+     *
+     * @param lft the lft index
+     * @param rgt the rgt index
+     * @return index of node in lft order
+     */
+    public int indexOf(int lft, int rgt) {
+        final int index = lowerBound(lft, 0);
+        return index < mSize && getLft(index) == lft && getRgt(index) == rgt ? index : -1;
+    }
+
+    /**
+     * Returns node by lft and rgt indexes. If not found returns null
+     *
+     * @param lft the lft index
+     * @param rgt the rgt index
+     * @return node with specified indexes
+     */
+    @Nullable
+    public T getNodeByLftRgt(int lft, int rgt) {
+        final int index = indexOf(lft, rgt);
+        return index < 0 ? null : getNode(index);
+    }
+
+    public List<T> getDescendants(int lft, int rgt) {
+        final int index = requireIndex(lft, rgt);
+        final int end = lowerBound(rgt, index + 1);
+        List<T> descendants = new ArrayList<>(end - index - 1);
+        for (int i = index + 1; i < end; i++) {
+            descendants.add(getNode(i));
+        }
+        return descendants;
+    }
+
+    public List<T> getChildren(int lft, int rgt) {
+        final int index = requireIndex(lft, rgt);
+        final int end = lowerBound(rgt, index + 1);
+        List<T> children = new ArrayList<>();
+        for (int i = index + 1; i < end; i = lowerBound(getRgt(i), i + 1)) {
+            children.add(getNode(i));
+        }
+        return children;
+    }
+
+    public List<T> getAncestors(int lft, int rgt) {
+        final int index = requireIndex(lft, rgt);
+        //Nodes are sorted by lft, so only nodes before current node can be ancestors
+        List<T> ancestors = new ArrayList<>();
+        for (int i = 0; i < index; i++) {
+            if (getRgt(i) > rgt) ancestors.add(getNode(i));
+        }
+        return ancestors;
+    }
+
+    @Nullable
+    public T getParent(int lft, int rgt) {
+        final int index = requireIndex(lft, rgt);
+        //Parent is the closest node before current node which contains it
+        for (int i = index - 1; i >= 0; i--) {
+            if (getRgt(i) > rgt) return getNode(i);
+        }
+        return null;
+    }
+
+    /**
+     * Returns List of nodes which are not descendants of any collapsed node
+     *
+     * @return visible nodes sorted by lft
+     */
+    public List<T> getVisibleNodes() {
+        final int[] visible = visibleIndexes();
+        List<T> visibleNodes = new ArrayList<>(visible.length);
+        for (int index : visible) {
+            visibleNodes.add(getNode(index));
+        }
+        return visibleNodes;
+    }
+
+    public int getVisibleCount() {
+        return visibleIndexes().length;
+    }
+
+    public T getVisibleNode(int position) {
+        return getNode(visibleIndexes()[position]);
+    }
+
+    private int[] visibleIndexes() {
+        int[] visible = mVisibleIndexes;
+        if (visible == null) {
+            visible = new int[mSize];
+            int count = 0;
+            //Every node with lft less then hiddenUntil is descendant of collapsed node
+            int hiddenUntil = Integer.MIN_VALUE;
+            for (int c = 0; c < mChunks.length; c++) {
+                final Chunk chunk = mChunks[c];
+                for (int i = 0; i < chunk.size(); i++) {
+                    if (chunk.mLft[i] < hiddenUntil) continue;
+                    visible[count] = mOffsets[c] + i;
+                    count++;
+                    if (!chunk.mExpanded[i]) {
+                        hiddenUntil = chunk.mRgt[i];
+                    }
+                }
+            }
+            visible = Arrays.copyOf(visible, count);
+            mVisibleIndexes = visible;
+        }
+        return visible;
+    }
+
+    private int requireIndex(int lft, int rgt) {
+        final int index = indexOf(lft, rgt);
+        if (index < 0) throw new NodeNotFoundException(lft, rgt);
+        return index;
+    }
+
+    private int lowerBound(int lft, int from) {
+        int low = from;
+        int high = mSize;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (getLft(mid) < lft) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private int chunkOf(int index) {
+        if (index < 0 || index >= mSize)
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + mSize);
+        int low = 0;
+        int high = mChunks.length - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (mOffsets[mid] <= index) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns number of chunks which are the same objects in both snapshots
+     */
+    static int sharedChunks(@NonNull TreeSnapshot<?> first, @NonNull TreeSnapshot<?> second) {
+        Map<Chunk, Boolean> chunks = new IdentityHashMap<>();
+        for (Chunk chunk : first.mChunks) {
+            chunks.put(chunk, Boolean.TRUE);
+        }
+        int shared = 0;
+        for (Chunk chunk : second.mChunks) {
+            if (chunks.containsKey(chunk)) shared++;
+        }
+        return shared;
+    }
+
+    int chunkCount() {
+        return mChunks.length;
+    }
+
+    /**
+     * Immutable copy of indexes and flags of consecutive nodes
+     */
+    private static final class Chunk {
+        final Object[] mNodes;
+        final int[] mLft;
+        final int[] mRgt;
+        final int[] mDepth;
+        final boolean[] mExpanded;
+        final boolean[] mChecked;
+
+        Chunk(NodeStorage<?> nodes, int from, int to) {
+            final int size = to - from;
+            mNodes = new Object[size];
+            mLft = new int[size];
+            mRgt = new int[size];
+            mDepth = new int[size];
+            mExpanded = new boolean[size];
+            mChecked = new boolean[size];
+            for (int i = 0; i < size; i++) {
+                mNodes[i] = nodes.get(from + i);
+                mLft[i] = nodes.lft(from + i);
+                mRgt[i] = nodes.rgt(from + i);
+                mDepth[i] = nodes.depth(from + i);
+                mExpanded[i] = nodes.isExpanded(from + i);
+                mChecked[i] = mNodes[i] instanceof CheckableTreeNode && ((CheckableTreeNode) mNodes[i]).isChecked();
+            }
+        }
+
+        int size() {
+            return mNodes.length;
+        }
+    }
+
+    /**
+     * Changes of the tree since snapshot. Slots of the tree are split into segments, unchanged segment keeps
+     * index of its first node in snapshot, so chunks of snapshot inside of it are reused without reading nodes.
+     * Changes usually go in slot order, so search of segment starts from the last changed one
+     */
+    static final class Changes {
+        //Length of every segment and index of its first node in snapshot, -1 if segment is changed
+        private int[] mLengths = new int[8];
+        private int[] mStarts = new int[8];
+        private int mCount;
+        private int mSize;
+        //Segment of the last change and slot of its first node
+        private int mCursor;
+        private int mCursorSlot;
+        //True if changes are not tracked anymore and every node must be copied
+        private boolean mAll;
+
+        /**
+         * Starts new tracking, all nodes are unchanged
+         *
+         * @param size number of nodes of the tree at the moment of snapshot
+         */
+        void reset(int size) {
+            mCount = 0;
+            mSize = 0;
+            mAll = false;
+            mCursor = 0;
+            mCursorSlot = 0;
+            if (size > 0) {
+                mLengths[0] = size;
+                mStarts[0] = 0;
+                mCount = 1;
+                mSize = size;
+            }
+        }
+
+        void changed(int from, int to) {
+            replace(from, to, to - from);
+        }
+
+        void inserted(int slot, int count) {
+            replace(slot, slot, count);
+        }
+
+        void removed(int from, int to) {
+            replace(from, to, 0);
+        }
+
+        /**
+         * Block of slots is moved before target slot, moved nodes are changed
+         */
+        void moved(int slot, int end, int targetSlot) {
+            removed(slot, end);
+            inserted(Tree.movedSlot(slot, slot, end, targetSlot), end - slot);
+        }
+
+        /**
+         * Stops tracking, next snapshot copies all nodes
+         */
+        void all() {
+            mAll = true;
+        }
+
+        /**
+         * Replaces slots in range with changed segment of specified length
+         */
+        private void replace(int from, int to, int length) {
+            if (mAll) return;
+            final int first = split(from);
+            final int last = split(to);
+            //Cursor goes to the segment before change, it is not changed by merges after it
+            if (first > 0) {
+                mCursor = first - 1;
+                mCursorSlot = from - mLengths[first - 1];
+            } else {
+                mCursor = 0;
+                mCursorSlot = 0;
+            }
+            final int added = length > 0 ? 1 : 0;
+            moveSegments(last, first + added);
+            if (added > 0) {
+                mLengths[first] = length;
+                mStarts[first] = -1;
+                if (first + 1 < mCount && mStarts[first + 1] < 0) {
+                    mLengths[first] += mLengths[first + 1];
+                    moveSegments(first + 2, first + 1);
+                }
+            }
+            if (first > 0 && first < mCount && mStarts[first - 1] < 0 && mStarts[first] < 0) {
+                mLengths[first - 1] += mLengths[first];
+                moveSegments(first + 1, first);
+            }
+            mSize += length - (to - from);
+            //Segments smaller than chunks can not share anything
+            if (mCount > mSize / CHUNK_SIZE + CHUNK_SIZE) {
+                mAll = true;
+            }
+        }
+
+        /**
+         * Splits segment which contains slot, so new segment starts at slot
+         *
+         * @return index of segment which starts at slot, number of segments if slot is size of the tree
+         */
+        private int split(int slot) {
+            int index = 0;
+            int start = 0;
+            if (slot >= mCursorSlot && mCursor < mCount) {
+                index = mCursor;
+                start = mCursorSlot;
+            }
+            while (index < mCount && start + mLengths[index] <= slot) {
+                start += mLengths[index];
+                index++;
+            }
+            if (index < mCount && start < slot) {
+                moveSegments(index + 1, index + 2);
+                final int head = slot - start;
+                mLengths[index + 1] = mLengths[index] - head;
+                mStarts[index + 1] = mStarts[index] < 0 ? -1 : mStarts[index] + head;
+                mLengths[index] = head;
+                index++;
+                start = slot;
+            }
+            mCursor = index;
+            mCursorSlot = start;
+            return index;
+        }
+
+        /**
+         * Moves segments starting from specified index to new index, count of segments is changed
+         */
+        private void moveSegments(int from, int to) {
+            final int count = mCount + to - from;
+            if (count > mLengths.length) {
+                mLengths = Arrays.copyOf(mLengths, Math.max(count, mLengths.length * 2));
+                mStarts = Arrays.copyOf(mStarts, mLengths.length);
+            }
+            System.arraycopy(mLengths, from, mLengths, to, mCount - from);
+            System.arraycopy(mStarts, from, mStarts, to, mCount - from);
+            mCount = count;
+        }
+    }
+}
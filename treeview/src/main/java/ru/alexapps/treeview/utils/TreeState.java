@@ -0,0 +1,191 @@
+package ru.alexapps.treeview.utils;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+
+import ru.alexapps.treeview.model.CheckableTreeNode;
+import ru.alexapps.treeview.model.TreeNode;
+
+/**
+ * Expanded and checked states of all nodes of the tree with scroll anchor, to keep them after process death
+ * without saving nodes. States are kept either as bitsets in lft order, which can be restored only to the tree
+ * of the same shape, or as keys of expanded and checked nodes. Restore is one linear pass over nodes
+ */
+public final class TreeState {
+    /**
+     * Number of nodes of saved tree
+     */
+    public final int size;
+    /**
+     * Hash of indexes of saved tree, bitsets are restored only to the tree with the same hash
+     */
+    public final int shapeHash;
+    /**
+     * Expanded states in lft order, null if states are saved by keys
+     */
+    @Nullable
+    public final long[] expandedBits;
+    /**
+     * Checked states in lft order, null if states are saved by keys or the tree is not checkable
+     */
+    @Nullable
+    public final long[] checkedBits;
+    /**
+     * Keys of expanded nodes, null if states are saved in lft order
+     */
+    @Nullable
+    public final String[] expandedKeys;
+    /**
+     * Keys of checked nodes, null if states are saved in lft order or the tree is not checkable
+     */
+    @Nullable
+    public final String[] checkedKeys;
+    /**
+     * Index of anchor node in lft order, -1 if there is no anchor or states are saved by keys
+     */
+    public final int anchorIndex;
+    /**
+     * Key of anchor node, null if there is no anchor or states are saved in lft order
+     */
+    @Nullable
+    public final String anchorKey;
+
+    public TreeState(int size, int shapeHash, @Nullable long[] expandedBits, @Nullable long[] checkedBits,
+                     @Nullable String[] expandedKeys, @Nullable String[] checkedKeys, int anchorIndex, @Nullable String anchorKey) {
+        this.size = size;
+        this.shapeHash = shapeHash;
+        this.expandedBits = expandedBits;
+        this.checkedBits = checkedBits;
+        this.expandedKeys = expandedKeys;
+        this.checkedKeys = checkedKeys;
+        this.anchorIndex = anchorIndex;
+        this.anchorKey = anchorKey;
+    }
+
+    /**
+     * Saves states of nodes as bitsets in lft order
+     *
+     * @param tree   tree to save
+     * @param anchor node to scroll to after restore, for example first visible node
+     * @return saved states
+     */
+    @NonNull
+    public static <T extends TreeNode> TreeState save(@NonNull Tree<T> tree, @Nullable T anchor) {
+        final NodeStorage<T> nodes = tree.mNodes;
+        final int size = nodes.size();
+        final boolean checkable = tree instanceof CheckableTree;
+        final long[] expanded = new long[words(size)];
+        final long[] checked = checkable ? new long[words(size)] : null;
+        for (int i = 0; i < size; i++) {
+            if (nodes.isExpanded(i)) expanded[i >>> 6] |= 1L << i;
+            if (checkable && ((CheckableTreeNode) nodes.get(i)).isChecked()) checked[i >>> 6] |= 1L << i;
+        }
+        final int anchorIndex = anchor == null ? -1 : tree.slotOf(anchor.getLft(), anchor.getRgt());
+        return new TreeState(size, shapeHash(nodes), expanded, checked, null, null, anchorIndex, null);
+    }
+
+    /**
+     * Saves keys of expanded and checked nodes, so states can be restored to changed tree
+     *
+     * @param tree         tree to save
+     * @param anchor       node to scroll to after restore, for example first visible node
+     * @param keyExtractor returns stable key of node
+     * @return saved states
+     */
+    @NonNull
+    public static <T extends TreeNode> TreeState save(@NonNull Tree<T> tree, @Nullable T anchor,
+                                                      @NonNull Function<? super T, String> keyExtractor) {
+        final NodeStorage<T> nodes = tree.mNodes;
+        final boolean checkable = tree instanceof CheckableTree;
+        List<String> expanded = new ArrayList<>();
+        List<String> checked = new ArrayList<>();
+        for (int i = 0; i < nodes.size(); i++) {
+            if (nodes.isExpanded(i)) expanded.add(keyExtractor.apply(nodes.get(i)));
+            if (checkable && ((CheckableTreeNode) nodes.get(i)).isChecked()) checked.add(keyExtractor.apply(nodes.get(i)));
+        }
+        return new TreeState(nodes.size(), shapeHash(nodes), null, null, expanded.toArray(new String[0]),
+                checkable ? checked.toArray(new String[0]) : null, -1, anchor == null ? null : keyExtractor.apply(anchor));
+    }
+
+    /**
+     * Restores states saved in lft order. Nothing is restored if the tree has other shape
+     *
+     * @param tree tree to restore states to
+     * @return anchor node, null if there is no anchor or states were not restored
+     * @throws IllegalStateException if states were saved by keys
+     */
+    @Nullable
+    public <T extends TreeNode> T restore(@NonNull Tree<T> tree) {
+        if (expandedBits == null) throw new IllegalStateException("States are saved by keys");
+        final NodeStorage<T> nodes = tree.mNodes;
+        if (nodes.size() != size || shapeHash(nodes) != shapeHash) return null;
+        final boolean checkable = checkedBits != null && tree instanceof CheckableTree;
+        for (int i = 0; i < size; i++) {
+            nodes.setExpanded(i, (expandedBits[i >>> 6] & (1L << i)) != 0);
+            if (checkable) {
+                ((CheckableTreeNode) nodes.get(i)).setChecked((checkedBits[i >>> 6] & (1L << i)) != 0);
+            }
+        }
+        tree.invalidateIndexes();
+        return anchorIndex >= 0 ? nodes.get(anchorIndex) : null;
+    }
+
+    /**
+     * Restores states saved by keys. Nodes which keys were not saved become collapsed and unchecked,
+     * descendants of checked nodes become checked
+     *
+     * @param tree         tree to restore states to
+     * @param keyExtractor returns stable key of node, the same as on save
+     * @return anchor node, null if there is no anchor or it is not in the tree
+     * @throws IllegalStateException if states were saved in lft order
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public <T extends TreeNode> T restore(@NonNull Tree<T> tree, @NonNull Function<? super T, String> keyExtractor) {
+        if (expandedKeys == null) throw new IllegalStateException("States are saved in lft order");
+        final NodeStorage<T> nodes = tree.mNodes;
+        final Set<String> expanded = new HashSet<>(Arrays.asList(expandedKeys));
+        final Set<String> checked = checkedKeys == null ? null : new HashSet<>(Arrays.asList(checkedKeys));
+        final boolean checkable = checked != null && tree instanceof CheckableTree;
+        T anchor = null;
+        for (int i = 0; i < nodes.size(); i++) {
+            final T node = nodes.get(i);
+            final String key = keyExtractor.apply(node);
+            nodes.setExpanded(i, expanded.contains(key));
+            if (checkable) {
+                ((CheckableTreeNode) node).setChecked(false);
+            }
+            if (anchor == null && key.equals(anchorKey)) anchor = node;
+        }
+        tree.invalidateIndexes();
+        if (checkable) {
+            //Tree could be changed after save, so checked states are propagated to new descendants and ancestors
+            checkNodes((CheckableTree) tree, checked, (Function) keyExtractor);
+        }
+        return anchor;
+    }
+
+    private static <T extends CheckableTreeNode> void checkNodes(CheckableTree<T> tree, Set<String> keys,
+                                                                 Function<? super T, String> keyExtractor) {
+        tree.setNodesChecked(node -> keys.contains(keyExtractor.apply(node)), true);
+    }
+
+    private static int words(int bits) {
+        return (bits + 63) >>> 6;
+    }
+
+    private static int shapeHash(NodeStorage<?> nodes) {
+        int hash = nodes.size();
+        for (int i = 0; i < nodes.size(); i++) {
+            hash = (hash * 31 + nodes.lft(i)) * 31 + nodes.rgt(i);
+        }
+        return hash;
+    }
+}
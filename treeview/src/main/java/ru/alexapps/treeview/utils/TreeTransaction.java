@@ -0,0 +1,370 @@
+package ru.alexapps.treeview.utils;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import ru.alexapps.treeview.exceptions.NodeNotFoundException;
+import ru.alexapps.treeview.exceptions.RemoveRootNodeException;
+import ru.alexapps.treeview.model.TreeNode;
+
+/**
+ * Collects many inserts, deletes and moves and applies them to the tree with one renumbering pass.
+ * Nodes are referenced by identity, so nodes inserted in this transaction can be used as parents of other nodes.
+ * Operations are checked on commit, if any operation is invalid, tree is not changed
+ *
+ * @see Tree#beginTransaction()
+ */
+public class TreeTransaction<T extends TreeNode> {
+    private static final int NO_NODE = -1;
+
+    private final Tree<T> mTree;
+    private final List<Operation<T>> mOperations = new ArrayList<>();
+    private boolean mCommitted;
+
+    //Linked representation of the tree, built on commit
+    private final List<T> mNodes = new ArrayList<>();
+    private final Map<T, Integer> mIds = new IdentityHashMap<>();
+    private int[] mParent;
+    private int[] mFirstChild;
+    private int[] mNextSibling;
+    private int[] mPrevSibling;
+
+    TreeTransaction(@NonNull Tree<T> tree) {
+        mTree = tree;
+    }
+
+    /**
+     * Adds node as first child of parent
+     *
+     * @param node   the node to add
+     * @param parent the parent node, can be inserted in this transaction
+     * @return this transaction
+     */
+    public TreeTransaction<T> addNode(@NonNull T node, @NonNull T parent) {
+        return addNode(node, parent, 0);
+    }
+
+    /**
+     * Adds node to parent on specified position
+     *
+     * @param node              the node to add
+     * @param parent            the parent node, can be inserted in this transaction
+     * @param indexInsideParent position inside parent (0 - first child)
+     * @return this transaction
+     */
+    public TreeTransaction<T> addNode(@NonNull T node, @NonNull T parent, int indexInsideParent) {
+        return addOperation(new Operation<>(Operation.ADD, node, parent, indexInsideParent));
+    }
+
+    /**
+     * Removes node and all of its descendants
+     *
+     * @param node the node to remove
+     * @return this transaction
+     */
+    public TreeTransaction<T> deleteNode(@NonNull T node) {
+        return addOperation(new Operation<>(Operation.DELETE, node, null, 0));
+    }
+
+    /**
+     * Moves node and all its descendants inside specified parent at specified index
+     *
+     * @param node      node to move
+     * @param newParent new parent of node
+     * @param newIndex  index inside parent node (from 0 to parent node children array size)
+     * @return this transaction
+     * @see Tree#moveNode
+     */
+    public TreeTransaction<T> moveNode(@NonNull T node, @NonNull T newParent, int newIndex) {
+        return addOperation(new Operation<>(Operation.MOVE, node, newParent, newIndex));
+    }
+
+    /**
+     * Applies all operations to the tree with one renumbering pass
+     *
+     * @return TreeUpdated object with all changes in tree
+     * @see Tree.TreeUpdate
+     */
+    public Tree.TreeUpdate<T> commit() {
+        if (mCommitted) throw new IllegalStateException("Transaction is already committed");
+        mCommitted = true;
+        final NodeStorage<T> oldNodes = mTree.mNodes;
+        buildLinks(oldNodes);
+        List<T> added = new ArrayList<>();
+        for (Operation<T> operation : mOperations) {
+            switch (operation.type) {
+                case Operation.ADD:
+                    if (mIds.containsKey(operation.node))
+                        throw new IllegalArgumentException("Node is already in the tree");
+                    int parentId = requireAttached(operation.parent);
+                    int after = predecessor(parentId, operation.index, NO_NODE);
+                    link(newId(operation.node), parentId, after);
+                    added.add(operation.node);
+                    break;
+                case Operation.DELETE:
+                    int deletedId = requireAttached(operation.node);
+                    if (deletedId == 0) throw new RemoveRootNodeException();
+                    unlink(deletedId);
+                    break;
+                case Operation.MOVE:
+                    int movedId = requireAttached(operation.node);
+                    int newParentId = requireAttached(operation.parent);
+                    for (int ancestor = newParentId; ancestor != NO_NODE; ancestor = mParent[ancestor]) {
+                        if (ancestor == movedId)
+                            throw new IllegalArgumentException("You are trying to move node inside itself");
+                    }
+                    int predecessor = predecessor(newParentId, operation.index, movedId);
+                    unlink(movedId);
+                    link(movedId, newParentId, predecessor);
+                    break;
+            }
+        }
+        checkKeys(added);
+        return renumber(oldNodes, added);
+    }
+
+    /**
+     * Checks that keys of added nodes are unique among nodes which stay in the tree, before the tree is changed
+     */
+    private void checkKeys(List<T> added) {
+        Set<Object> keys = new HashSet<>();
+        for (T node : added) {
+            if (!isAttached(mIds.get(node))) continue;
+            Object key = mTree.keyOf(node);
+            //Key extractor is not set
+            if (key == null) return;
+            T owner = mTree.getNodeByKey(key);
+            if (!keys.add(key) || owner != null && isAttached(mIds.get(owner)))
+                throw new IllegalArgumentException("Duplicate key of node " + node);
+        }
+    }
+
+    private TreeTransaction<T> addOperation(Operation<T> operation) {
+        if (mCommitted) throw new IllegalStateException("Transaction is already committed");
+        mOperations.add(operation);
+        return this;
+    }
+
+    /**
+     * Builds parent and sibling links for nodes sorted by lft in one pass
+     */
+    private void buildLinks(NodeStorage<T> nodes) {
+        final int capacity = nodes.size() + mOperations.size();
+        mParent = new int[capacity];
+        mFirstChild = new int[capacity];
+        mNextSibling = new int[capacity];
+        mPrevSibling = new int[capacity];
+        Arrays.fill(mFirstChild, NO_NODE);
+        Arrays.fill(mNextSibling, NO_NODE);
+        Arrays.fill(mPrevSibling, NO_NODE);
+        //Ids of open nodes and their last children
+        final int[] stack = new int[nodes.size()];
+        final int[] lastChild = new int[nodes.size()];
+        int top = -1;
+        for (int slot = 0; slot < nodes.size(); slot++) {
+            //Ids of existing nodes are their slots
+            while (top >= 0 && nodes.rgt(stack[top]) < nodes.lft(slot)) {
+                top--;
+            }
+            int id = newId(nodes.get(slot));
+            if (top >= 0) {
+                mParent[id] = stack[top];
+                if (lastChild[top] == NO_NODE) {
+                    mFirstChild[stack[top]] = id;
+                } else {
+                    mNextSibling[lastChild[top]] = id;
+                    mPrevSibling[id] = lastChild[top];
+                }
+                lastChild[top] = id;
+            }
+            stack[++top] = id;
+            lastChild[top] = NO_NODE;
+        }
+    }
+
+    private int newId(T node) {
+        int id = mNodes.size();
+        mNodes.add(node);
+        mIds.put(node, id);
+        mParent[id] = NO_NODE;
+        return id;
+    }
+
+    /**
+     * Returns id of node, which is in the tree and not removed by previous operations
+     */
+    private int requireAttached(T node) {
+        Integer id = mIds.get(node);
+        if (id != null && isAttached(id)) return id;
+        throw new NodeNotFoundException(node.getLft(), node.getRgt());
+    }
+
+    private boolean isAttached(int id) {
+        int current = id;
+        while (mParent[current] != NO_NODE) {
+            current = mParent[current];
+        }
+        //Only root has no parent, other nodes without parent are detached
+        return current == 0;
+    }
+
+    /**
+     * Returns child after which node must be placed to be on specified position, NO_NODE to place node first
+     *
+     * @param parentId id of parent
+     * @param index    position inside parent
+     * @param movedId  id of node which is moved inside same parent, this node is skipped
+     */
+    private int predecessor(int parentId, int index, int movedId) {
+        if (index < 0) throw new IllegalArgumentException("Wrong index = " + index);
+        int predecessor = NO_NODE;
+        int child = mFirstChild[parentId];
+        for (int i = 0; i < index; i++) {
+            if (child == NO_NODE) throw new IllegalArgumentException("Wrong index = " + index + " total children: " + i);
+            predecessor = child;
+            child = mNextSibling[child];
+        }
+        //Position before or after moved node is its current position
+        return predecessor != NO_NODE && predecessor == movedId ? mPrevSibling[movedId] : predecessor;
+    }
+
+    private void link(int id, int parentId, int predecessor) {
+        mParent[id] = parentId;
+        int next = predecessor == NO_NODE ? mFirstChild[parentId] : mNextSibling[predecessor];
+        mPrevSibling[id] = predecessor;
+        mNextSibling[id] = next;
+        if (predecessor == NO_NODE) {
+            mFirstChild[parentId] = id;
+        } else {
+            mNextSibling[predecessor] = id;
+        }
+        if (next != NO_NODE) {
+            mPrevSibling[next] = id;
+        }
+    }
+
+    private void unlink(int id) {
+        int parentId = mParent[id];
+        if (mPrevSibling[id] == NO_NODE) {
+            mFirstChild[parentId] = mNextSibling[id];
+        } else {
+            mNextSibling[mPrevSibling[id]] = mNextSibling[id];
+        }
+        if (mNextSibling[id] != NO_NODE) {
+            mPrevSibling[mNextSibling[id]] = mPrevSibling[id];
+        }
+        mParent[id] = NO_NODE;
+        mPrevSibling[id] = NO_NODE;
+        mNextSibling[id] = NO_NODE;
+    }
+
+    /**
+     * Assigns new indexes and depths in one depth-first pass and replaces nodes of the tree
+     */
+    private Tree.TreeUpdate<T> renumber(NodeStorage<T> oldNodes, List<T> added) {
+        final int oldSize = oldNodes.size();
+        final int[] oldLft = new int[oldSize];
+        final int[] oldRgt = new int[oldSize];
+        for (int id = 0; id < oldSize; id++) {
+            oldLft[id] = oldNodes.lft(id);
+            oldRgt[id] = oldNodes.rgt(id);
+        }
+        final int step = step(attachedCount());
+        final boolean[] attached = new boolean[mNodes.size()];
+        List<T> newNodes = new ArrayList<>(mNodes.size());
+        final int[] stack = new int[mNodes.size()];
+        int top = -1;
+        int index = 0;
+        int id = 0;
+        //Iterative pre-order traversal: assign lft on enter, rgt on leave
+        while (true) {
+            T node = mNodes.get(id);
+            attached[id] = true;
+            node.setLft(index);
+            index += step;
+            node.setDepth(top + 1);
+            newNodes.add(node);
+            stack[++top] = id;
+            id = mFirstChild[id];
+            while (id == NO_NODE && top >= 0) {
+                int closed = stack[top--];
+                mNodes.get(closed).setRgt(index);
+                index += step;
+                id = mNextSibling[closed];
+            }
+            if (top < 0) break;
+        }
+        List<T> updated = new ArrayList<>();
+        for (T node : newNodes) {
+            int nodeId = mIds.get(node);
+            if (nodeId < oldSize && (oldLft[nodeId] != node.getLft() || oldRgt[nodeId] != node.getRgt())) {
+                updated.add(node);
+            }
+        }
+        List<T> deleted = new ArrayList<>();
+        for (int oldId = 0; oldId < oldSize; oldId++) {
+            if (!attached[oldId]) deleted.add(oldNodes.get(oldId));
+        }
+        List<T> inserted = new ArrayList<>();
+        for (T node : added) {
+            if (attached[mIds.get(node)]) inserted.add(node);
+        }
+        mTree.replaceNodes(newNodes);
+        return mTree.indexKeys(new Tree.TreeUpdate<>(inserted, updated, deleted));
+    }
+
+    /**
+     * Counts nodes reachable from root by links, without changing them
+     */
+    private int attachedCount() {
+        final int[] stack = new int[mNodes.size()];
+        int top = 0;
+        int count = 0;
+        stack[0] = 0;
+        while (top >= 0) {
+            final int id = stack[top--];
+            count++;
+            for (int child = mFirstChild[id]; child != NO_NODE; child = mNextSibling[child]) {
+                stack[++top] = child;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns spacing of the tree if all indexes fit into int, otherwise the largest step which fits,
+     * so gapped tree which grew too much gets smaller gaps instead of overflowing indexes
+     */
+    private int step(int size) {
+        final long indexes = 2L * size - 1;
+        final int spacing = mTree.getSpacing();
+        if (indexes * spacing <= Integer.MAX_VALUE) return spacing;
+        if (indexes > Integer.MAX_VALUE) throw new IllegalStateException("Tree of size " + size + " does not fit into int indexes");
+        return (int) (Integer.MAX_VALUE / indexes);
+    }
+
+    private static class Operation<T> {
+        static final int ADD = 0;
+        static final int DELETE = 1;
+        static final int MOVE = 2;
+
+        final int type;
+        final T node;
+        final T parent;
+        final int index;
+
+        Operation(int type, T node, T parent, int index) {
+            this.type = type;
+            this.node = node;
+            this.parent = parent;
+            this.index = index;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package ru.alexapps.treeview.utils;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Change of visible rows caused by tree update.
+ * Positions of every change are relative to visible rows after all previous changes of the same update are applied,
+ * as in RecyclerView.Adapter notifications
+ *
+ * @see Tree.TreeUpdate#visibleChanges
+ */
+public final class VisibleChange {
+    public enum Type {
+        /**
+         * Rows became visible
+         */
+        INSERTED,
+        /**
+         * Rows became hidden or were removed
+         */
+        REMOVED,
+        /**
+         * Single row was moved from position to toPosition
+         */
+        MOVED,
+        /**
+         * Rows stay on their positions, but must be rebound
+         */
+        CHANGED
+    }
+
+    @NonNull
+    public final Type type;
+    /**
+     * First row of change
+     */
+    public final int position;
+    /**
+     * Number of rows
+     */
+    public final int count;
+    /**
+     * New position of moved row, -1 for other types
+     */
+    public final int toPosition;
+
+    private VisibleChange(@NonNull Type type, int position, int count, int toPosition) {
+        this.type = type;
+        this.position = position;
+        this.count = count;
+        this.toPosition = toPosition;
+    }
+
+    static VisibleChange inserted(int position, int count) {
+        return new VisibleChange(Type.INSERTED, position, count, -1);
+    }
+
+    static VisibleChange removed(int position, int count) {
+        return new VisibleChange(Type.REMOVED, position, count, -1);
+    }
+
+    static VisibleChange moved(int fromPosition, int toPosition) {
+        return new VisibleChange(Type.MOVED, fromPosition, 1, toPosition);
+    }
+
+    static VisibleChange changed(int position, int count) {
+        return new VisibleChange(Type.CHANGED, position, count, -1);
+    }
+
+    /**
+     * Returns the same change with positions shifted by offset
+     */
+    VisibleChange offset(int offset) {
+        return offset == 0 ? this : new VisibleChange(type, position + offset, count, toPosition < 0 ? -1 : toPosition + offset);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        VisibleChange change = (VisibleChange) o;
+        return type == change.type &&
+                position == change.position &&
+                count == change.count &&
+                toPosition == change.toPosition;
+    }
+
+    @Override
+    public int hashCode() {
+        return ((type.hashCode() * 31 + position) * 31 + count) * 31 + toPosition;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return type == Type.MOVED
+                ? type + " " + position + " -> " + toPosition
+                : type + " " + position + " x" + count;
+    }
+}
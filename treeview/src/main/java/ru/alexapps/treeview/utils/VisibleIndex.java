@@ -0,0 +1,212 @@
+package ru.alexapps.treeview.utils;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Order-statistics index over visible nodes of the tree.
+ * Stores visibility flag for every slot of the lft-sorted node list and Fenwick tree over these flags,
+ * so visible count is O(1), position to slot and slot to position are O(log n)
+ */
+final class VisibleIndex {
+    private final BitSet mVisible = new BitSet();
+    //Fenwick tree, 1-based
+    private int[] mFenwick = new int[1];
+    private int mSize;
+    private int mCount;
+
+    /**
+     * Rebuilds index in one linear pass
+     *
+     * @param nodes nodes sorted by lft
+     */
+    void rebuild(@NonNull NodeStorage<?> nodes) {
+        mSize = nodes.size();
+        mCount = 0;
+        mVisible.clear();
+        if (mFenwick.length < mSize + 1) {
+            mFenwick = new int[mSize + 1];
+        } else {
+            Arrays.fill(mFenwick, 0);
+        }
+        //Every node with lft less then hiddenUntil is descendant of collapsed node
+        int hiddenUntil = Integer.MIN_VALUE;
+        for (int i = 0; i < mSize; i++) {
+            if (nodes.lft(i) < hiddenUntil) continue;
+            mVisible.set(i);
+            mCount++;
+            mFenwick[i + 1] += 1;
+            if (!nodes.isExpanded(i)) {
+                hiddenUntil = nodes.rgt(i);
+            }
+        }
+        //Linear Fenwick construction
+        for (int i = 1; i <= mSize; i++) {
+            int parent = i + (i & -i);
+            if (parent <= mSize) {
+                mFenwick[parent] += mFenwick[i];
+            }
+        }
+    }
+
+    /**
+     * Inserts slot with specified visibility, following slots are shifted by one.
+     * Only Fenwick nodes after inserted slot are recalculated from flags, nodes are not read
+     *
+     * @param slot    index of inserted node in lft-sorted list
+     * @param visible visibility of inserted node
+     */
+    void insertSlot(int slot, boolean visible) {
+        shiftFlags(slot, mSize, 1);
+        mSize++;
+        mVisible.set(slot, visible);
+        if (visible) mCount++;
+        if (mFenwick.length < mSize + 1) {
+            mFenwick = Arrays.copyOf(mFenwick, Math.max(mSize + 1, mFenwick.length * 2));
+        }
+        rebuildFrom(slot);
+    }
+
+    /**
+     * Removes slots from specified range, following slots are shifted back.
+     * Only Fenwick nodes after removed range are recalculated from flags, nodes are not read
+     *
+     * @param from index of the first removed slot
+     * @param to   index after the last removed slot
+     */
+    void removeSlots(int from, int to) {
+        mCount -= mVisible.get(from, to).cardinality();
+        mVisible.clear(from, to);
+        shiftFlags(to, mSize, from - to);
+        mSize -= to - from;
+        rebuildFrom(from);
+    }
+
+    /**
+     * Moves flags of block of slots to new place, like rotation of nodes between old and new place of block.
+     * Only flags between old and new place are changed, every one in O(log n)
+     *
+     * @param slot       index of the first slot of block
+     * @param end        index after the last slot of block
+     * @param targetSlot index of the first slot after new place of block, before move
+     */
+    void moveSlots(int slot, int end, int targetSlot) {
+        final int from = Math.min(slot, targetSlot);
+        final int to = Math.max(end, targetSlot);
+        final BitSet flags = mVisible.get(from, to);
+        for (int i = from; i < to; i++) {
+            setVisible(Tree.movedSlot(i, slot, end, targetSlot), flags.get(i - from));
+        }
+    }
+
+    /**
+     * @return number of visible nodes
+     */
+    int size() {
+        return mCount;
+    }
+
+    boolean isVisible(int slot) {
+        return mVisible.get(slot);
+    }
+
+    /**
+     * Changes visibility of node in specified slot
+     *
+     * @param slot    index of node in lft-sorted list
+     * @param visible new visibility value
+     * @return true if visibility was changed
+     */
+    boolean setVisible(int slot, boolean visible) {
+        if (mVisible.get(slot) == visible) return false;
+        mVisible.set(slot, visible);
+        final int delta = visible ? 1 : -1;
+        mCount += delta;
+        for (int i = slot + 1; i <= mSize; i += i & -i) {
+            mFenwick[i] += delta;
+        }
+        return true;
+    }
+
+    /**
+     * Returns visible position of node in specified slot, -1 if node is hidden
+     *
+     * @param slot index of node in lft-sorted list
+     * @return visible position of node
+     */
+    int positionOf(int slot) {
+        if (!mVisible.get(slot)) return -1;
+        return countBefore(slot);
+    }
+
+    /**
+     * Returns number of visible nodes before specified slot
+     *
+     * @param slot index in lft-sorted list, from 0 to size of list
+     * @return number of visible nodes in slots from 0 to slot - 1
+     */
+    int countBefore(int slot) {
+        int count = 0;
+        for (int i = slot; i > 0; i -= i & -i) {
+            count += mFenwick[i];
+        }
+        return count;
+    }
+
+    /**
+     * Returns slot of visible node at specified position
+     *
+     * @param position visible position, from 0 to {@link #size()} - 1
+     * @return index of node in lft-sorted list
+     */
+    int slotAt(int position) {
+        if (position < 0 || position >= mCount)
+            throw new IndexOutOfBoundsException("Position: " + position + ", visible size: " + mCount);
+        int slot = 0;
+        int remaining = position + 1;
+        for (int step = Integer.highestOneBit(mSize); step > 0; step >>= 1) {
+            int next = slot + step;
+            if (next <= mSize && mFenwick[next] < remaining) {
+                slot = next;
+                remaining -= mFenwick[next];
+            }
+        }
+        //slot is 1-based index of last element with prefix sum less then position + 1
+        return slot;
+    }
+
+    /**
+     * Moves flags of slots from specified range by shift
+     */
+    private void shiftFlags(int from, int to, int shift) {
+        final BitSet moved = mVisible.get(from, to);
+        mVisible.clear(from, to);
+        for (int i = moved.nextSetBit(0); i >= 0; i = moved.nextSetBit(i + 1)) {
+            mVisible.set(from + shift + i);
+        }
+    }
+
+    /**
+     * Recalculates Fenwick nodes after specified slot from flags. Nodes up to slot cover only unchanged flags,
+     * complete nodes of prefix sum of slot are added to recalculated nodes which contain them
+     */
+    private void rebuildFrom(int slot) {
+        for (int i = slot + 1; i <= mSize; i++) {
+            mFenwick[i] = mVisible.get(i - 1) ? 1 : 0;
+        }
+        for (int i = slot; i > 0; i -= i & -i) {
+            int parent = i + (i & -i);
+            if (parent <= mSize) {
+                mFenwick[parent] += mFenwick[i];
+            }
+        }
+        for (int i = slot + 1; i <= mSize; i++) {
+            int parent = i + (i & -i);
+            if (parent <= mSize) {
+                mFenwick[parent] += mFenwick[i];
+            }
+        }
+    }
+}
@@ -3,9 +3,16 @@ package ru.alexapps.treeview.utils.testutils;
 import androidx.annotation.NonNull;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
+import java.util.function.Consumer;
 
+import ru.alexapps.treeview.model.CheckableTreeNode;
 import ru.alexapps.treeview.model.TreeNode;
+import ru.alexapps.treeview.utils.CheckableTree;
+import ru.alexapps.treeview.utils.Tree;
+import ru.alexapps.treeview.utils.TreeBuilder;
 
 public class TestUtils {
 
@@ -50,6 +57,227 @@ public class TestUtils {
         return result;
     }
 
+    /**
+     * Generates nodes of the tree of specified shape in lft order with dense indexes.
+     * Size of subtree of every node is known when node is created, so nodes are streamed in O(n) time
+     * and only ancestors of current node are kept in memory
+     *
+     * @param shape    shape of the tree
+     * @param size     number of nodes
+     * @param seed     seed of random shapes, the same seed gives the same tree
+     * @param factory  the Factory to create specific node
+     * @param consumer receives nodes in lft order
+     */
+    public static <T extends TreeNode> void generateNodes(@NonNull Shape shape, int size, long seed,
+                                                          @NonNull TreeNodeFactory<T> factory, @NonNull Consumer<? super T> consumer) {
+        generate(shape, size, seed, new Events() {
+            @Override
+            public void enter(int lft, int rgt) {
+                consumer.accept(factory.createTreeNode(lft, rgt));
+            }
+
+            @Override
+            public void leave() {
+            }
+        });
+    }
+
+    /**
+     * Generates nodes of the tree of specified shape sorted by lft
+     *
+     * @see #generateNodes(Shape, int, long, TreeNodeFactory, Consumer)
+     */
+    public static <T extends TreeNode> List<T> generateNodes(@NonNull Shape shape, int size, long seed, @NonNull TreeNodeFactory<T> factory) {
+        List<T> nodes = new ArrayList<>(size);
+        generateNodes(shape, size, seed, factory, nodes::add);
+        return nodes;
+    }
+
+    /**
+     * Generates the tree of specified shape directly into its storage, without intermediate list and validation
+     *
+     * @param storage storage of new tree, {@link Tree.Storage#COLUMNS} keeps indexes in primitive arrays
+     * @see #generateNodes(Shape, int, long, TreeNodeFactory, Consumer)
+     */
+    public static <T extends TreeNode> Tree<T> generateTree(@NonNull Shape shape, int size, long seed,
+                                                            @NonNull TreeNodeFactory<T> factory, @NonNull Tree.Storage storage) {
+        return build(shape, size, seed, factory, storage).build();
+    }
+
+    /**
+     * Generates the checkable tree of specified shape directly into its storage
+     *
+     * @see #generateTree(Shape, int, long, TreeNodeFactory, Tree.Storage)
+     */
+    public static <T extends CheckableTreeNode> CheckableTree<T> generateCheckableTree(@NonNull Shape shape, int size, long seed,
+                                                                                      @NonNull TreeNodeFactory<T> factory, @NonNull Tree.Storage storage) {
+        return TreeBuilder.buildCheckable(build(shape, size, seed, factory, storage));
+    }
+
+    private static <T extends TreeNode> TreeBuilder<T> build(Shape shape, int size, long seed, TreeNodeFactory<T> factory, Tree.Storage storage) {
+        TreeBuilder<T> builder = new TreeBuilder<>(Tree.DENSE_SPACING, storage, size);
+        generate(shape, size, seed, new Events() {
+            @Override
+            public void enter(int lft, int rgt) {
+                builder.enterChild(factory.createTreeNode(lft, rgt));
+            }
+
+            @Override
+            public void leave() {
+                builder.leaveChild();
+            }
+        });
+        return builder;
+    }
+
+    /**
+     * Walks the tree in depth-first order. Every open node keeps number of nodes left for its children
+     * and number of children left, size of next child is chosen by shape from them
+     */
+    private static void generate(Shape shape, int size, long seed, Events events) {
+        if (size < 1) throw new IllegalArgumentException("Wrong size = " + size);
+        final Random random = new Random(seed);
+        int[] nodesLeft = new int[16];
+        int[] childrenLeft = new int[16];
+        int top = 0;
+        int index = 0;
+        nodesLeft[0] = size - 1;
+        childrenLeft[0] = size > 1 ? shape.childCount(size - 1, random) : 0;
+        events.enter(index++, 2 * size - 1);
+        while (top >= 0) {
+            if (childrenLeft[top] == 0) {
+                top--;
+                index++;
+                events.leave();
+                continue;
+            }
+            final int childSize = shape.childSize(nodesLeft[top], childrenLeft[top], random);
+            nodesLeft[top] -= childSize;
+            childrenLeft[top]--;
+            if (++top == nodesLeft.length) {
+                nodesLeft = Arrays.copyOf(nodesLeft, top * 2);
+                childrenLeft = Arrays.copyOf(childrenLeft, top * 2);
+            }
+            nodesLeft[top] = childSize - 1;
+            childrenLeft[top] = childSize > 1 ? shape.childCount(childSize - 1, random) : 0;
+            final int lft = index++;
+            events.enter(lft, lft + 2 * childSize - 1);
+        }
+    }
+
+    private interface Events {
+        void enter(int lft, int rgt);
+
+        void leave();
+    }
+
+    /**
+     * Shape of generated tree: number of children of node and sizes of their subtrees
+     */
+    public abstract static class Shape {
+
+        /**
+         * @param descendants number of descendants of node, at least 1
+         * @param random      source of randomness
+         * @return number of children, from 1 to descendants
+         */
+        abstract int childCount(int descendants, Random random);
+
+        /**
+         * @param nodesLeft    number of descendants which are not in subtrees of previous children
+         * @param childrenLeft number of children left including this one, at most nodesLeft
+         * @param random       source of randomness
+         * @return size of subtree of next child, from 1 to nodesLeft - childrenLeft + 1, all nodes left for the last child
+         */
+        abstract int childSize(int nodesLeft, int childrenLeft, Random random);
+
+        /**
+         * @return tree where every node except leaf has exactly one child
+         */
+        public static Shape deepChain() {
+            return new Shape() {
+                @Override
+                int childCount(int descendants, Random random) {
+                    return 1;
+                }
+
+                @Override
+                int childSize(int nodesLeft, int childrenLeft, Random random) {
+                    return nodesLeft;
+                }
+            };
+        }
+
+        /**
+         * Sizes of sibling subtrees differ at most by one, so tree of (k^(d + 1) - 1) / (k - 1) nodes is complete k-ary tree
+         * of depth d, and tree of other size is as balanced as possible. k = size - 1 gives root with leaves only
+         *
+         * @param k maximal number of children
+         * @return balanced k-ary tree
+         */
+        public static Shape kAry(int k) {
+            if (k < 1) throw new IllegalArgumentException("Wrong number of children = " + k);
+            return new Shape() {
+                @Override
+                int childCount(int descendants, Random random) {
+                    return Math.min(k, descendants);
+                }
+
+                @Override
+                int childSize(int nodesLeft, int childrenLeft, Random random) {
+                    return (nodesLeft + childrenLeft - 1) / childrenLeft;
+                }
+            };
+        }
+
+        /**
+         * @param maxChildren maximal number of children
+         * @return tree where number of children is uniformly random from 1 to maxChildren
+         * and descendants are split between them randomly
+         */
+        public static Shape randomFanOut(int maxChildren) {
+            if (maxChildren < 1) throw new IllegalArgumentException("Wrong number of children = " + maxChildren);
+            return new Shape() {
+                @Override
+                int childCount(int descendants, Random random) {
+                    return 1 + random.nextInt(Math.min(maxChildren, descendants));
+                }
+
+                @Override
+                int childSize(int nodesLeft, int childrenLeft, Random random) {
+                    return randomSize(nodesLeft, childrenLeft, random);
+                }
+            };
+        }
+
+        /**
+         * @return skewed tree where every node has at most two children and descendants are split between them
+         * uniformly at random, so depth of the tree varies from logarithmic to linear across subtrees
+         */
+        public static Shape random() {
+            return new Shape() {
+                @Override
+                int childCount(int descendants, Random random) {
+                    return Math.min(2, descendants);
+                }
+
+                @Override
+                int childSize(int nodesLeft, int childrenLeft, Random random) {
+                    return childrenLeft == 1 ? nodesLeft : 1 + random.nextInt(nodesLeft - 1);
+                }
+            };
+        }
+
+        /**
+         * Random size, which is average size of remaining children on average
+         */
+        private static int randomSize(int nodesLeft, int childrenLeft, Random random) {
+            if (childrenLeft == 1) return nodesLeft;
+            final int maxSize = nodesLeft - childrenLeft + 1;
+            return Math.min(maxSize, 1 + random.nextInt(Math.max(1, 2 * nodesLeft / childrenLeft - 1)));
+        }
+    }
+
     public static class TestTreeNode extends TreeNode {
 
 
@@ -0,0 +1,263 @@
+package ru.alexapps.treeview.view;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.recyclerview.widget.RecyclerView;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BiPredicate;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import ru.alexapps.treeview.model.TreeNode;
+import ru.alexapps.treeview.utils.FilteredTree;
+import ru.alexapps.treeview.utils.Tree;
+import ru.alexapps.treeview.utils.TreeDiff;
+import ru.alexapps.treeview.utils.VisibleChange;
+
+/**
+ * Replaces tree of adapter with new tree. Rows of adapter and rows of new tree are compared by stable key on background thread,
+ * if adapter has filter, new tree is filtered by the same filter,
+ * then new tree is set to adapter and changes are dispatched on main thread.
+ * Newer submission cancels diff which is not finished yet, result of stale diff is never dispatched.
+ * If adapter is notified or gets other tree while diff is calculated, new tree is set with full reload instead of changes.
+ * Exception thrown while new tree is created or compared, for example by invalid nodes, is delivered on main thread
+ * to {@link ErrorListener}, or thrown there if listener is not set
+ *
+ * @see TreeDiff
+ */
+public class AsyncTreeDiffer<T extends TreeNode, K> {
+    private static ExecutorService sDiffExecutor;
+
+    private final TreeAdapter<?, T> mAdapter;
+    private final Function<? super T, ? extends K> mKeyExtractor;
+    private final BiPredicate<? super T, ? super T> mContentsTheSame;
+    private final ExecutorService mBackgroundExecutor;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    //Only diff of the last submission is dispatched
+    private volatile int mGeneration;
+    private Future<?> mPendingDiff;
+    //Number of adapter notifications, rows diffed on background are stale if adapter was notified after they were taken
+    private int mAdapterChanges;
+    @Nullable
+    private ErrorListener mErrorListener;
+
+    public AsyncTreeDiffer(@NonNull TreeAdapter<?, T> adapter, @NonNull Function<? super T, ? extends K> keyExtractor) {
+        this(adapter, keyExtractor, diffExecutor());
+    }
+
+    public AsyncTreeDiffer(@NonNull TreeAdapter<?, T> adapter, @NonNull Function<? super T, ? extends K> keyExtractor,
+                           @NonNull ExecutorService backgroundExecutor) {
+        this(adapter, keyExtractor, TreeDiff::sameContent, backgroundExecutor);
+    }
+
+    /**
+     * @param adapter            adapter which tree is replaced
+     * @param keyExtractor       returns stable key of node, keys must be unique in the tree
+     * @param contentsTheSame    returns true if old and new node with the same key are shown the same, so row is not rebound
+     * @param backgroundExecutor executor to calculate diffs on
+     * @see TreeDiff#sameContent(Object, Object)
+     */
+    public AsyncTreeDiffer(@NonNull TreeAdapter<?, T> adapter, @NonNull Function<? super T, ? extends K> keyExtractor,
+                           @NonNull BiPredicate<? super T, ? super T> contentsTheSame, @NonNull ExecutorService backgroundExecutor) {
+        mAdapter = adapter;
+        mKeyExtractor = keyExtractor;
+        mContentsTheSame = contentsTheSame;
+        mBackgroundExecutor = backgroundExecutor;
+        mAdapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+            @Override
+            public void onChanged() {
+                mAdapterChanges++;
+            }
+
+            @Override
+            public void onItemRangeChanged(int positionStart, int itemCount) {
+                mAdapterChanges++;
+            }
+
+            @Override
+            public void onItemRangeChanged(int positionStart, int itemCount, @Nullable Object payload) {
+                mAdapterChanges++;
+            }
+
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                mAdapterChanges++;
+            }
+
+            @Override
+            public void onItemRangeRemoved(int positionStart, int itemCount) {
+                mAdapterChanges++;
+            }
+
+            @Override
+            public void onItemRangeMoved(int fromPosition, int toPosition, int itemCount) {
+                mAdapterChanges++;
+            }
+        });
+    }
+
+    /**
+     * Submits new nodes, tree is created on background thread
+     *
+     * @param nodes nodes of new tree
+     */
+    @MainThread
+    public void submitNodes(@NonNull List<T> nodes) {
+        submit(() -> new Tree<>(nodes));
+    }
+
+    /**
+     * Submits new tree. Tree must not be changed after submission
+     *
+     * @param tree new tree of adapter
+     */
+    @MainThread
+    public void submitTree(@NonNull Tree<T> tree) {
+        submit(() -> tree);
+    }
+
+    /**
+     * Sets listener of exceptions of submissions, exception is thrown on main thread if listener is null
+     *
+     * @param errorListener listener called on main thread
+     */
+    @MainThread
+    public void setErrorListener(@Nullable ErrorListener errorListener) {
+        mErrorListener = errorListener;
+    }
+
+    private void submit(TreeFactory<T> factory) {
+        final int generation = ++mGeneration;
+        if (mPendingDiff != null) {
+            mPendingDiff.cancel(true);
+        }
+        //Rows and filter of adapter are taken on main thread, where adapter tree is changed
+        final Tree<T> oldTree = mAdapter.getTree();
+        final List<T> oldRows = mAdapter.getRows();
+        final Predicate<? super T> filter = mAdapter.getFilter();
+        final int adapterChanges = mAdapterChanges;
+        mPendingDiff = mBackgroundExecutor.submit(() -> {
+            if (generation != mGeneration) return;
+            final Result<T> result = diff(factory, oldRows, filter, mKeyExtractor, mContentsTheSame);
+            mMainHandler.post(() -> {
+                if (generation != mGeneration) return;
+                mPendingDiff = null;
+                if (result.error != null) {
+                    if (mErrorListener == null) throw result.error;
+                    mErrorListener.onError(result.error);
+                    return;
+                }
+                final Tree<T> newTree = result.newTree;
+                if (mAdapter.getTree() != oldTree || mAdapterChanges != adapterChanges || mAdapter.getFilter() != filter) {
+                    //Adapter was changed after rows were taken, so changes do not match its rows
+                    mAdapter.setData(newTree);
+                    mAdapter.notifyDataSetChanged();
+                    return;
+                }
+                mAdapter.setData(newTree, result.filteredTree);
+                mAdapter.applyVisibleChanges(result.changes);
+            });
+        });
+    }
+
+    /**
+     * Creates new tree and compares rows of adapter with its rows, exception is returned in result instead of thrown,
+     * so it is not lost on background thread
+     *
+     * @return filtered rows of new tree and changes of rows, or exception
+     * @see #diff(List, Tree, Predicate, Function, BiPredicate)
+     */
+    @NonNull
+    static <T extends TreeNode, K> Result<T> diff(@NonNull TreeFactory<T> factory, @NonNull List<T> oldRows, @Nullable Predicate<? super T> filter,
+                                                 @NonNull Function<? super T, ? extends K> keyExtractor,
+                                                 @NonNull BiPredicate<? super T, ? super T> contentsTheSame) {
+        try {
+            return diff(oldRows, factory.create(), filter, keyExtractor, contentsTheSame);
+        } catch (RuntimeException e) {
+            return new Result<>(e);
+        }
+    }
+
+    /**
+     * Compares rows of adapter with rows of new tree. If filter is set, rows of new tree are filtered by the same filter
+     *
+     * @param oldRows         rows of adapter
+     * @param newTree         new tree
+     * @param filter          filter of adapter, null if there is no filter
+     * @param keyExtractor    returns stable key of node
+     * @param contentsTheSame returns true if row of node is not changed
+     * @return filtered rows of new tree and changes of rows
+     */
+    @NonNull
+    static <T extends TreeNode, K> Result<T> diff(@NonNull List<T> oldRows, @NonNull Tree<T> newTree, @Nullable Predicate<? super T> filter,
+                                                 @NonNull Function<? super T, ? extends K> keyExtractor,
+                                                 @NonNull BiPredicate<? super T, ? super T> contentsTheSame) {
+        FilteredTree<T> filteredTree = null;
+        List<T> newRows;
+        if (filter != null) {
+            filteredTree = new FilteredTree<>(newTree);
+            filteredTree.setFilter(filter);
+            newRows = filteredTree.getNodes();
+        } else {
+            newRows = newTree.getVisibleNodes();
+        }
+        return new Result<>(newTree, filteredTree, TreeDiff.calculate(oldRows, newRows, keyExtractor, contentsTheSame));
+    }
+
+    private static synchronized ExecutorService diffExecutor() {
+        if (sDiffExecutor == null) {
+            //Daemon threads do not keep process alive, pool is shared by all differs and never shut down
+            sDiffExecutor = Executors.newFixedThreadPool(2, runnable -> {
+                Thread thread = new Thread(runnable, "AsyncTreeDiffer");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return sDiffExecutor;
+    }
+
+    /**
+     * Receives exceptions of submissions
+     */
+    public interface ErrorListener {
+        /**
+         * @param error exception thrown while new tree was created or compared, adapter keeps its data
+         */
+        void onError(@NonNull RuntimeException error);
+    }
+
+    static class Result<T extends TreeNode> {
+        final Tree<T> newTree;
+        @Nullable
+        final FilteredTree<T> filteredTree;
+        final List<VisibleChange> changes;
+        @Nullable
+        final RuntimeException error;
+
+        Result(Tree<T> newTree, @Nullable FilteredTree<T> filteredTree, List<VisibleChange> changes) {
+            this.newTree = newTree;
+            this.filteredTree = filteredTree;
+            this.changes = changes;
+            this.error = null;
+        }
+
+        Result(@NonNull RuntimeException error) {
+            this.newTree = null;
+            this.filteredTree = null;
+            this.changes = null;
+            this.error = error;
+        }
+    }
+
+    interface TreeFactory<T extends TreeNode> {
+        Tree<T> create();
+    }
+}
@@ -1,6 +1,7 @@
 package ru.alexapps.treeview.view;
 
 import android.content.Context;
+import android.os.Bundle;
 import android.view.View;
 
 import androidx.annotation.NonNull;
@@ -8,14 +9,32 @@ import androidx.annotation.Nullable;
 import androidx.recyclerview.widget.RecyclerView;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
 import ru.alexapps.treeview.model.TreeNode;
+import ru.alexapps.treeview.utils.FilteredTree;
 import ru.alexapps.treeview.utils.Tree;
+import ru.alexapps.treeview.utils.TreeState;
+import ru.alexapps.treeview.utils.TreeTransaction;
+import ru.alexapps.treeview.utils.VisibleChange;
 
 public abstract class TreeAdapter<VH extends RecyclerView.ViewHolder, T extends TreeNode> extends RecyclerView.Adapter<VH> {
+    private static final String STATE_SIZE = "ru.alexapps.treeview.state.SIZE";
+    private static final String STATE_SHAPE_HASH = "ru.alexapps.treeview.state.SHAPE_HASH";
+    private static final String STATE_EXPANDED_BITS = "ru.alexapps.treeview.state.EXPANDED_BITS";
+    private static final String STATE_CHECKED_BITS = "ru.alexapps.treeview.state.CHECKED_BITS";
+    private static final String STATE_EXPANDED_KEYS = "ru.alexapps.treeview.state.EXPANDED_KEYS";
+    private static final String STATE_CHECKED_KEYS = "ru.alexapps.treeview.state.CHECKED_KEYS";
+    private static final String STATE_ANCHOR_INDEX = "ru.alexapps.treeview.state.ANCHOR_INDEX";
+    private static final String STATE_ANCHOR_KEY = "ru.alexapps.treeview.state.ANCHOR_KEY";
 
     private Tree<T> mTree;
+    //Rows of filtered tree are shown instead of visible nodes, null if there is no filter
+    @Nullable
+    private FilteredTree<T> mFilteredTree;
     private final float mDensity;
     private int mPaddingDp = 10;
 
@@ -34,16 +53,301 @@ public abstract class TreeAdapter<VH extends RecyclerView.ViewHolder, T extends
 
     public void setData(@NonNull List<T> dataSet) {
         mTree.resetNodes(dataSet);
+        if (mFilteredTree != null) {
+            mFilteredTree.refresh();
+        }
     }
 
     public void setData(@NonNull Tree<T> data) {
         mTree = data;
+        if (mFilteredTree != null) {
+            Predicate<? super T> predicate = mFilteredTree.getPredicate();
+            mFilteredTree = new FilteredTree<>(data);
+            mFilteredTree.setFilter(predicate);
+        }
+    }
+
+    /**
+     * Sets new tree with filtered rows already built for it
+     *
+     * @param data         new tree
+     * @param filteredTree filtered rows of new tree, null if there is no filter
+     */
+    void setData(@NonNull Tree<T> data, @Nullable FilteredTree<T> filteredTree) {
+        mTree = data;
+        mFilteredTree = filteredTree;
+    }
+
+    /**
+     * Returns current filter
+     *
+     * @return condition of shown nodes, null if there is no filter
+     */
+    @Nullable
+    public Predicate<? super T> getFilter() {
+        return mFilteredTree != null ? mFilteredTree.getPredicate() : null;
+    }
+
+    /**
+     * Returns nodes of all rows: filtered nodes if filter is set, otherwise visible nodes
+     *
+     * @return nodes of rows in order
+     */
+    @NonNull
+    List<T> getRows() {
+        return mFilteredTree != null ? mFilteredTree.getNodes() : mTree.getVisibleNodes();
+    }
+
+    /**
+     * Shows only nodes which match predicate and their ancestors instead of visible nodes and notifies adapter.
+     * Null predicate removes filter
+     *
+     * @param predicate condition of shown nodes
+     * @see FilteredTree
+     */
+    public void setFilter(@Nullable Predicate<? super T> predicate) {
+        if (predicate == null) {
+            if (mFilteredTree != null) {
+                mFilteredTree = null;
+                notifyDataSetChanged();
+            }
+            return;
+        }
+        if (mFilteredTree == null) {
+            mFilteredTree = new FilteredTree<>(mTree);
+        }
+        notifyFilterChanges(mFilteredTree.setFilter(predicate));
+    }
+
+    /**
+     * Applies filter which matches only part of nodes matched by current filter, for example when query is extended.
+     * Only nodes matched by current filter are tested
+     *
+     * @param predicate condition of shown nodes
+     * @see FilteredTree#narrowFilter(Predicate)
+     */
+    public void narrowFilter(@NonNull Predicate<? super T> predicate) {
+        if (mFilteredTree == null) {
+            setFilter(predicate);
+            return;
+        }
+        notifyFilterChanges(mFilteredTree.narrowFilter(predicate));
+    }
+
+    private void notifyFilterChanges(@Nullable List<VisibleChange> changes) {
+        if (changes == null) {
+            notifyDataSetChanged();
+        } else {
+            applyVisibleChanges(changes);
+        }
+    }
+
+    /**
+     * Returns tree of adapter
+     *
+     * @return tree which nodes are shown
+     */
+    @NonNull
+    public Tree<T> getTree() {
+        return mTree;
+    }
+
+    /**
+     * Commits transaction started on adapter tree and notifies adapter once for all changes
+     *
+     * @param transaction transaction of adapter tree
+     * @return TreeUpdated object with all changes in tree
+     * @see Tree#beginTransaction()
+     */
+    public Tree.TreeUpdate<T> commitTransaction(@NonNull TreeTransaction<T> transaction) {
+        Tree.TreeUpdate<T> update = transaction.commit();
+        applyUpdate(update);
+        return update;
+    }
+
+    /**
+     * Notifies adapter about update of adapter tree with range notifications, so only affected rows are rebound
+     * and item animations work. If visible changes of update are unknown, whole data set is reloaded
+     *
+     * @param update update returned by adapter tree
+     * @see Tree.TreeUpdate#visibleChanges
+     */
+    public void applyUpdate(@NonNull Tree.TreeUpdate<T> update) {
+        if (update.visibleChanges == null) {
+            notifyDataSetChanged();
+            return;
+        }
+        if (mFilteredTree == null) {
+            //Renumbered nodes are in updated too, but rows with changed content are already in visible changes
+            applyVisibleChanges(update.visibleChanges);
+            return;
+        }
+        //Changes of visible nodes are not changes of filtered rows, filtered rows are compared if structure was not changed
+        final List<VisibleChange> changes = mFilteredTree.refresh();
+        if (changes == null) {
+            notifyDataSetChanged();
+            return;
+        }
+        //Updated nodes are rebound only if their shown state was changed, not only indexes
+        final boolean contentChanged = hasChangedRows(update.visibleChanges);
+        final int[] updatedPositions = new int[contentChanged ? update.updated.size() : 0];
+        int updatedCount = 0;
+        //Positions are taken after structural changes are applied
+        for (int i = 0; i < updatedPositions.length; i++) {
+            int position = mFilteredTree.getPosition(update.updated.get(i));
+            if (position >= 0) {
+                updatedPositions[updatedCount++] = position;
+            }
+        }
+        notifyVisibleChanges(changes, updatedPositions, updatedCount);
+    }
+
+    private static boolean hasChangedRows(List<VisibleChange> changes) {
+        for (VisibleChange change : changes) {
+            if (change.type == VisibleChange.Type.CHANGED) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Notifies adapter about changes of visible rows, which are already applied to adapter tree
+     *
+     * @param changes changes of visible rows in order of application
+     * @see VisibleChange
+     */
+    public void applyVisibleChanges(@NonNull List<VisibleChange> changes) {
+        notifyVisibleChanges(changes, new int[0], 0);
+    }
+
+    private void notifyVisibleChanges(List<VisibleChange> changes, int[] updatedPositions, int updatedCount) {
+        int capacity = updatedCount;
+        for (VisibleChange change : changes) {
+            if (change.type == VisibleChange.Type.CHANGED) capacity += change.count;
+        }
+        final int[] changedPositions = Arrays.copyOf(updatedPositions, capacity);
+        int changedCount = updatedCount;
+        for (VisibleChange change : changes) {
+            switch (change.type) {
+                case INSERTED:
+                    notifyItemRangeInserted(change.position, change.count);
+                    break;
+                case REMOVED:
+                    notifyItemRangeRemoved(change.position, change.count);
+                    break;
+                case MOVED:
+                    notifyItemMoved(change.position, change.toPosition);
+                    break;
+                case CHANGED:
+                    for (int i = 0; i < change.count; i++) {
+                        changedPositions[changedCount++] = change.position + i;
+                    }
+                    break;
+            }
+        }
+        notifyChangedRanges(changedPositions, changedCount);
+    }
+
+    /**
+     * Notifies changed rows, neighbour rows are notified with one range
+     */
+    private void notifyChangedRanges(int[] positions, int count) {
+        Arrays.sort(positions, 0, count);
+        int i = 0;
+        while (i < count) {
+            final int start = positions[i];
+            int end = start + 1;
+            while (++i < count && positions[i] <= end) {
+                end = positions[i] + 1;
+            }
+            notifyItemRangeChanged(start, end - start);
+        }
+    }
+
+    /**
+     * Saves expanded and checked states of nodes as bitsets in lft order, they can be restored to the tree of the same shape
+     *
+     * @param outState       bundle to save to
+     * @param anchorPosition position of row to scroll to after restore, for example first visible row, -1 if none
+     * @see TreeState
+     */
+    public void saveState(@NonNull Bundle outState, int anchorPosition) {
+        putState(outState, TreeState.save(mTree, anchorNode(anchorPosition)));
+    }
+
+    /**
+     * Saves keys of expanded and checked nodes, they can be restored to changed tree
+     *
+     * @param outState       bundle to save to
+     * @param anchorPosition position of row to scroll to after restore, for example first visible row, -1 if none
+     * @param keyExtractor   returns stable key of node
+     * @see TreeState
+     */
+    public void saveState(@NonNull Bundle outState, int anchorPosition, @NonNull Function<? super T, String> keyExtractor) {
+        putState(outState, TreeState.save(mTree, anchorNode(anchorPosition), keyExtractor));
+    }
+
+    /**
+     * Restores states saved by {@link #saveState(Bundle, int)} and notifies adapter
+     *
+     * @param savedState bundle with saved states
+     * @return position of anchor row to scroll to, -1 if there is no anchor or states were not restored
+     */
+    public int restoreState(@Nullable Bundle savedState) {
+        TreeState state = getState(savedState);
+        if (state == null || state.expandedBits == null) return -1;
+        return onStateRestored(state.restore(mTree));
+    }
+
+    /**
+     * Restores states saved by {@link #saveState(Bundle, int, Function)} and notifies adapter
+     *
+     * @param savedState   bundle with saved states
+     * @param keyExtractor returns stable key of node, the same as on save
+     * @return position of anchor row to scroll to, -1 if there is no anchor
+     */
+    public int restoreState(@Nullable Bundle savedState, @NonNull Function<? super T, String> keyExtractor) {
+        TreeState state = getState(savedState);
+        if (state == null || state.expandedKeys == null) return -1;
+        return onStateRestored(state.restore(mTree, keyExtractor));
+    }
+
+    @Nullable
+    private T anchorNode(int anchorPosition) {
+        return anchorPosition >= 0 && anchorPosition < getItemCount() ? getNodeAtPosition(anchorPosition) : null;
+    }
+
+    private int onStateRestored(@Nullable T anchor) {
+        if (mFilteredTree != null) {
+            mFilteredTree.refresh();
+        }
+        notifyDataSetChanged();
+        return getNodePosition(anchor);
+    }
+
+    private static void putState(Bundle outState, TreeState state) {
+        outState.putInt(STATE_SIZE, state.size);
+        outState.putInt(STATE_SHAPE_HASH, state.shapeHash);
+        outState.putLongArray(STATE_EXPANDED_BITS, state.expandedBits);
+        outState.putLongArray(STATE_CHECKED_BITS, state.checkedBits);
+        outState.putStringArray(STATE_EXPANDED_KEYS, state.expandedKeys);
+        outState.putStringArray(STATE_CHECKED_KEYS, state.checkedKeys);
+        outState.putInt(STATE_ANCHOR_INDEX, state.anchorIndex);
+        outState.putString(STATE_ANCHOR_KEY, state.anchorKey);
+    }
+
+    @Nullable
+    private static TreeState getState(@Nullable Bundle savedState) {
+        if (savedState == null || !savedState.containsKey(STATE_SIZE)) return null;
+        return new TreeState(savedState.getInt(STATE_SIZE, 0), savedState.getInt(STATE_SHAPE_HASH, 0),
+                savedState.getLongArray(STATE_EXPANDED_BITS), savedState.getLongArray(STATE_CHECKED_BITS),
+                savedState.getStringArray(STATE_EXPANDED_KEYS), savedState.getStringArray(STATE_CHECKED_KEYS),
+                savedState.getInt(STATE_ANCHOR_INDEX, -1), savedState.getString(STATE_ANCHOR_KEY));
     }
 
     @Override
     public int getItemCount() {
         //Only visible nodes needed
-        return mTree.getVisibleNodes().size();
+        return mFilteredTree != null ? mFilteredTree.getCount() : mTree.getVisibleCount();
     }
 
     /**
@@ -53,8 +357,7 @@ public abstract class TreeAdapter<VH extends RecyclerView.ViewHolder, T extends
      * @return Returns nesting depth of node in the tree
      */
     public final int getDepthAtPosition(int position) {
-        T node = getNodeAtPosition(position);
-        return mTree.getDepth(node.getLft(), node.getRgt());
+        return getNodeAtPosition(position).getDepth();
     }
 
     public final boolean isNodeExpanded(int position) {
@@ -68,7 +371,7 @@ public abstract class TreeAdapter<VH extends RecyclerView.ViewHolder, T extends
      */
     public final boolean isLeaf(int position) {
         T node = getNodeAtPosition(position);
-        return mTree.getDescendants(node.getLft(), node.getRgt()).size() == 0;
+        return mTree.getDescendantsView(node.getLft(), node.getRgt()).isEmpty();
     }
 
     /**
@@ -88,7 +391,7 @@ public abstract class TreeAdapter<VH extends RecyclerView.ViewHolder, T extends
      * @return Node
      */
     protected final T getNodeAtPosition(int position) {
-        return mTree.getVisibleNodes().get(position);
+        return mFilteredTree != null ? mFilteredTree.getNode(position) : mTree.getVisibleNode(position);
     }
 
     /**
@@ -108,7 +411,7 @@ public abstract class TreeAdapter<VH extends RecyclerView.ViewHolder, T extends
      * @return Returns position for node
      */
     protected int getNodePosition(@Nullable T node) {
-        return mTree.getVisibleNodes().indexOf(node);
+        return mFilteredTree != null ? mFilteredTree.getPosition(node) : mTree.getVisiblePosition(node);
     }
 
     /**
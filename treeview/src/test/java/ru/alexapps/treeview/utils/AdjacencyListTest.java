@@ -0,0 +1,106 @@
+package ru.alexapps.treeview.utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import static ru.alexapps.treeview.utils.testutils.TestUtils.prepareTestData;
+
+public class AdjacencyListTest {
+
+    @Test
+    public void toTree_should_build_tree_equal_to_exported_one() {
+        for (Tree.Storage storage : Tree.Storage.values()) {
+            Tree<TestNodeWithId> tree = new Tree<>(prepareTestData(new int[]{4, 3, 2, 3, 1, 2, 3}, (lft, rgt) -> new TestNodeWithId(lft, lft, rgt)));
+            Map<Integer, Integer> parents = new HashMap<>();
+            AdjacencyList.export(tree, (node, parent, position) -> {
+                parents.put(node.id, parent == null ? null : parent.id);
+                if (parent != null) assertEquals(node, tree.getChildren(parent.getLft(), parent.getRgt()).get(position));
+            });
+            assertEquals(tree.size(), parents.size());
+
+            //Children keep order of input, stable sort by depth puts children before parents but keeps order of siblings
+            List<TestNodeWithId> nodes = new ArrayList<>();
+            for (TestNodeWithId node : tree.mNodes) {
+                TestNodeWithId copy = new TestNodeWithId(node.id, -1, -1);
+                copy.setDepth(node.getDepth());
+                nodes.add(copy);
+            }
+            nodes.sort((node1, node2) -> node2.getDepth() - node1.getDepth());
+            Tree<TestNodeWithId> built = AdjacencyList.toTree(nodes, node -> node.id, node -> parents.get(node.id), Tree.DENSE_SPACING, storage);
+            assertArrayEquals(tree.mNodes.toArray(), built.mNodes.toArray());
+            for (TestNodeWithId node : built.mNodes) {
+                assertEquals(tree.getDepth(node.getLft(), node.getRgt()), node.getDepth());
+            }
+            Tree.validate(new ArrayList<>(built.mNodes), true);
+        }
+    }
+
+    @Test
+    public void toTree_should_assign_gapped_indexes_in_input_order_of_children() {
+        List<TestNodeWithId> nodes = Arrays.asList(new TestNodeWithId(3, 0, 0), new TestNodeWithId(1, 0, 0),
+                new TestNodeWithId(2, 0, 0), new TestNodeWithId(0, 0, 0));
+        Integer[] parents = {null, 0, 0, 1};
+        Tree<TestNodeWithId> tree = AdjacencyList.toTree(nodes, node -> node.id, node -> parents[node.id], Tree.MIN_GAP_SPACING, Tree.Storage.OBJECTS);
+        //Root 0 has children 1 and 2 in input order, 3 is child of 1
+        assertEquals(Arrays.asList(0, 1, 3, 2), ids(tree.mNodes));
+        assertEquals(0, tree.getRoot().getLft());
+        assertEquals(21, tree.getRoot().getRgt());
+        assertEquals(Arrays.asList(0, 1), ids(tree.getAncestors(6, 9)));
+    }
+
+    @Test
+    public void toTree_should_reject_invalid_parents() {
+        List<TestNodeWithId> nodes = Arrays.asList(new TestNodeWithId(0, 0, 0), new TestNodeWithId(1, 0, 0), new TestNodeWithId(2, 0, 0));
+        Integer[][] invalidParents = {{null, null, 0}, {null, 5, 0}, {null, 2, 1}, {1, 0, 0}};
+        for (Integer[] parents : invalidParents) {
+            try {
+                AdjacencyList.toTree(nodes, node -> node.id, node -> parents[node.id]);
+                fail("Parents " + Arrays.toString(parents) + " must be rejected");
+            } catch (IllegalArgumentException ignored) {
+            }
+        }
+    }
+
+    @Test
+    public void toTree_should_not_change_nodes_which_are_not_connected_to_root() {
+        List<TestNodeWithId> nodes = Arrays.asList(new TestNodeWithId(0, 10, 11), new TestNodeWithId(1, 20, 21), new TestNodeWithId(2, 30, 31));
+        //Nodes 1 and 2 are parents of each other
+        Integer[] parents = {null, 2, 1};
+        try {
+            AdjacencyList.toTree(nodes, node -> node.id, node -> parents[node.id]);
+            fail();
+        } catch (IllegalArgumentException ignored) {
+        }
+        for (TestNodeWithId node : nodes) {
+            assertEquals(10 * (node.id + 1), node.getLft());
+            assertEquals(10 * (node.id + 1) + 1, node.getRgt());
+            assertEquals(0, node.getDepth());
+        }
+    }
+
+    @Test
+    public void toTree_should_reject_spacing_which_overflows_indexes() {
+        List<TestNodeWithId> nodes = Arrays.asList(new TestNodeWithId(0, 10, 11), new TestNodeWithId(1, 20, 21), new TestNodeWithId(2, 30, 31));
+        Integer[] parents = {null, 0, 0};
+        try {
+            AdjacencyList.toTree(nodes, node -> node.id, node -> parents[node.id], Integer.MAX_VALUE / 4, Tree.Storage.OBJECTS);
+            fail();
+        } catch (IllegalArgumentException ignored) {
+        }
+        assertEquals(20, nodes.get(1).getLft());
+    }
+
+    private static List<Integer> ids(List<TestNodeWithId> nodes) {
+        List<Integer> ids = new ArrayList<>();
+        for (TestNodeWithId node : nodes) {
+            ids.add(node.id);
+        }
+        return ids;
+    }
+}
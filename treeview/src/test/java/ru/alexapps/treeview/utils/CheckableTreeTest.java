@@ -2,7 +2,12 @@ package ru.alexapps.treeview.utils;
 
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Random;
 
 import ru.alexapps.treeview.exceptions.NodeNotFoundException;
 import ru.alexapps.treeview.model.CheckableTreeNode;
@@ -59,6 +64,131 @@ public class CheckableTreeTest {
         assertEquals(0, treeUpdate.updated.size());
     }
 
+    @Test
+    public void getCheckedState_should_return_indeterminate_parent() {
+        List<TestCheckableTreeNode> nodes = prepareTestData(new int[] {2, 1}, ((lft, rgt) -> new TestCheckableTreeNode(lft, rgt, false)));
+        CheckableTree<TestCheckableTreeNode> tree = new CheckableTree<>(nodes);
+        tree.setNodeChecked(5, 6, true);
+        assertEquals(CheckableTree.CheckedState.INDETERMINATE, tree.getCheckedState(0, 7));
+        assertEquals(CheckableTree.CheckedState.UNCHECKED, tree.getCheckedState(1, 4));
+        assertEquals(CheckableTree.CheckedState.CHECKED, tree.getCheckedState(5, 6));
+        assertEquals(1, tree.getCheckedDescendantsCount(0, 7));
+        assertEquals(3, tree.getDescendantsCount(0, 7));
+        tree.setNodeChecked(1, 4, true);
+        assertEquals(CheckableTree.CheckedState.CHECKED, tree.getCheckedState(0, 7));
+        assertEquals(3, tree.getCheckedDescendantsCount(0, 7));
+    }
+    @Test
+    public void checked_counters_should_match_descendants_after_changes() {
+        List<TestCheckableTreeNode> nodes = prepareTestData(new int[] {3, 2, 1, 2}, ((lft, rgt) -> new TestCheckableTreeNode(lft, rgt, false)));
+        CheckableTree<TestCheckableTreeNode> tree = new CheckableTree<>(nodes);
+        Random random = new Random(3);
+        for (int i = 0; i < 200; i++) {
+            TestCheckableTreeNode node = tree.mNodes.get(random.nextInt(tree.size()));
+            if (i % 10 == 0) {
+                //Counters are rebuilt after structural change
+                tree.addNode(new TestCheckableTreeNode(0, 0, random.nextBoolean()), node);
+            } else {
+                tree.setNodeChecked(node, random.nextBoolean());
+            }
+            for (TestCheckableTreeNode treeNode : tree.mNodes) {
+                List<TestCheckableTreeNode> descendants = tree.getDescendants(treeNode);
+                long checked = descendants.stream().filter(CheckableTreeNode::isChecked).count();
+                assertEquals(checked, tree.getCheckedDescendantsCount(treeNode.getLft(), treeNode.getRgt()));
+                assertEquals(descendants.size(), tree.getDescendantsCount(treeNode.getLft(), treeNode.getRgt()));
+            }
+        }
+    }
+
+    @Test
+    public void setNodesChecked_should_match_setNodeChecked_for_every_node() {
+        Random random = new Random(9);
+        for (int attempt = 0; attempt < 50; attempt++) {
+            long seed = random.nextLong();
+            CheckableTree<TestCheckableTreeNode> bulkTree = randomCheckedTree(seed);
+            CheckableTree<TestCheckableTreeNode> tree = randomCheckedTree(seed);
+            boolean value = random.nextBoolean();
+            List<TestCheckableTreeNode> targets = new ArrayList<>();
+            for (TestCheckableTreeNode node : bulkTree.mNodes) {
+                if (random.nextInt(5) == 0) targets.add(node);
+            }
+            Tree.TreeUpdate<TestCheckableTreeNode> update = bulkTree.setNodesChecked(targets, value);
+            for (TestCheckableTreeNode target : targets) {
+                tree.setNodeChecked(target.getLft(), target.getRgt(), value);
+            }
+            assertArrayEquals(tree.mNodes.toArray(), bulkTree.mNodes.toArray());
+            //Every changed node is reported once
+            assertEquals(update.updated.size(), new HashSet<>(update.updated).size());
+            for (TestCheckableTreeNode node : bulkTree.mNodes) {
+                assertEquals(tree.getCheckedDescendantsCount(node.getLft(), node.getRgt()),
+                        bulkTree.getCheckedDescendantsCount(node.getLft(), node.getRgt()));
+            }
+        }
+    }
+    @Test
+    public void setNodesChecked_predicate_should_resolve_ancestors() {
+        List<TestCheckableTreeNode> nodes = prepareTestData(new int[] {2, 1}, ((lft, rgt) -> new TestCheckableTreeNode(lft, rgt, false)));
+        CheckableTree<TestCheckableTreeNode> tree = new CheckableTree<>(nodes);
+        Tree.TreeUpdate<TestCheckableTreeNode> update = tree.setNodesChecked(node -> node.getRgt() - node.getLft() == 1, true);
+        //Both leaves, parent of first leaf and root
+        assertEquals(4, update.updated.size());
+        assertEquals(CheckableTree.CheckedState.CHECKED, tree.getCheckedState(0, 7));
+        update = tree.setNodesChecked(node -> node.getLft() == 2, false);
+        assertEquals(3, update.updated.size());
+        assertEquals(CheckableTree.CheckedState.INDETERMINATE, tree.getCheckedState(0, 7));
+    }
+
+    private static CheckableTree<TestCheckableTreeNode> randomCheckedTree(long seed) {
+        Random random = new Random(seed);
+        List<TestCheckableTreeNode> nodes = prepareTestData(new int[] {3, 2, 1, 2}, ((lft, rgt) -> new TestCheckableTreeNode(lft, rgt, random.nextBoolean())));
+        return new CheckableTree<>(nodes);
+    }
+    @Test
+    public void setNodeChecked_should_return_changed_visible_rows() {
+        //Rows of collapsed tree are 0_7, 1_4 and 5_6, node 2_3 is hidden
+        List<TestCheckableTreeNode> nodes = prepareTestData(new int[] {2, 1}, ((lft, rgt) -> new TestCheckableTreeNode(lft, rgt, false)));
+        CheckableTree<TestCheckableTreeNode> tree = new CheckableTree<>(nodes);
+        tree.setExpanded(0, 7, true);
+        assertEquals(Collections.singletonList(VisibleChange.changed(1, 1)), tree.setNodeChecked(1, 4, true).visibleChanges);
+        assertEquals(Arrays.asList(VisibleChange.changed(0, 1), VisibleChange.changed(2, 1)),
+                tree.setNodeChecked(5, 6, true).visibleChanges);
+        tree.setExpanded(1, 4, true);
+        assertEquals(Collections.singletonList(VisibleChange.changed(0, 4)),
+                tree.setNodesChecked(node -> node.getLft() == 0, false).visibleChanges);
+    }
+    @Test
+    public void structural_changes_should_update_built_counters_in_place() {
+        for (int spacing : new int[]{Tree.DENSE_SPACING, Tree.MIN_GAP_SPACING}) {
+            CheckableTree<TestCheckableTreeNode> tree = new CheckableTree<>(prepareTestData(new int[]{3, 2, 1, 2}, TestCheckableTreeNode::new));
+            tree.setSpacing(spacing);
+            Random random = new Random(9);
+            for (int i = 0; i < 300; i++) {
+                tree.prepareIndexes();
+                TestCheckableTreeNode parent = tree.mNodes.get(random.nextInt(tree.size()));
+                int childrenSize = tree.getChildren(parent.getLft(), parent.getRgt()).size();
+                TestCheckableTreeNode node = tree.mNodes.get(random.nextInt(tree.size()));
+                int operation = random.nextInt(4);
+                if (operation == 0 || tree.size() < 3) {
+                    tree.addNode(new TestCheckableTreeNode(0, 0, random.nextBoolean()), parent.getLft(), parent.getRgt(), random.nextInt(childrenSize + 1));
+                } else if (operation == 1) {
+                    //Root can't be moved and node can't be moved inside its own subtree
+                    if (parent.getLft() >= node.getLft() && parent.getRgt() <= node.getRgt()) continue;
+                    tree.moveNode(node, parent, random.nextInt(childrenSize + 1));
+                } else if (operation == 2) {
+                    if (node == tree.getRoot()) continue;
+                    tree.deleteNode(node.getLft(), node.getRgt());
+                } else {
+                    tree.sortChildren(parent.getLft(), parent.getRgt(), (first, second) -> Boolean.compare(first.isChecked(), second.isChecked()));
+                }
+                //Tree over the same nodes builds its counters from scratch
+                CheckableTree<TestCheckableTreeNode> rebuilt = new CheckableTree<>(tree.mNodes, spacing);
+                for (TestCheckableTreeNode current : tree.mNodes) {
+                    assertEquals(rebuilt.getCheckedDescendantsCount(current.getLft(), current.getRgt()),
+                            tree.getCheckedDescendantsCount(current.getLft(), current.getRgt()));
+                }
+            }
+        }
+    }
 
     static class TestCheckableTreeNode extends CheckableTreeNode {
         public TestCheckableTreeNode(int lft, int rgt) {
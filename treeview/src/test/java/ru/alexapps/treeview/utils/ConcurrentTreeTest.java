@@ -0,0 +1,67 @@
+package ru.alexapps.treeview.utils;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import ru.alexapps.treeview.utils.testutils.TestUtils.TestTreeNode;
+
+import static org.junit.Assert.*;
+import static ru.alexapps.treeview.utils.testutils.TestUtils.prepareTestData;
+
+public class ConcurrentTreeTest {
+
+    @Test
+    public void read_should_see_consistent_tree_while_writer_changes_it() throws InterruptedException {
+        List<TestTreeNode> nodes = prepareTestData(new int[]{3, 2, 1, 2});
+        nodes.forEach(node -> node.setExpanded(true));
+        ConcurrentTree<TestTreeNode, Tree<TestTreeNode>> tree = new ConcurrentTree<>(new Tree<>(nodes));
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        Thread writer = new Thread(() -> {
+            for (int i = 0; i < 2000; i++) {
+                TestTreeNode root = tree.getRoot();
+                if (i % 2 == 0) {
+                    TestTreeNode node = new TestTreeNode(0, 0);
+                    node.setExpanded(true);
+                    tree.addNode(node, root.getLft(), root.getRgt(), 0);
+                } else {
+                    TestTreeNode first = tree.getChildren(root.getLft(), root.getRgt()).get(0);
+                    tree.deleteNode(first.getLft(), first.getRgt());
+                }
+            }
+        });
+        Thread reader = new Thread(() -> {
+            try {
+                for (int i = 0; i < 2000; i++) {
+                    //All nodes are expanded, so every node is visible and root contains all other nodes
+                    int[] counts = tree.read(t -> new int[]{t.size(), t.getVisibleNodes().size(),
+                            t.getDescendants(t.getRoot().getLft(), t.getRoot().getRgt()).size()});
+                    assertEquals(counts[0], counts[1]);
+                    assertEquals(counts[0] - 1, counts[2]);
+                }
+            } catch (Throwable e) {
+                error.set(e);
+            }
+        });
+        writer.start();
+        reader.start();
+        writer.join();
+        reader.join();
+        assertNull(error.get());
+        assertEquals(nodes.size(), tree.size());
+    }
+
+    @Test
+    public void getContentionStats_should_count_reads_and_writes() {
+        ConcurrentTree<TestTreeNode, Tree<TestTreeNode>> tree = new ConcurrentTree<>(new Tree<>(prepareTestData(new int[]{2, 1})));
+        tree.getVisibleNodes();
+        tree.setExpanded(0, 7, true);
+        assertEquals(3, tree.getVisibleCount());
+        ConcurrentTree.ContentionStats stats = tree.getContentionStats();
+        assertEquals(2, stats.reads);
+        assertEquals(0, stats.failedOptimisticReads);
+        assertEquals(1, stats.writes);
+        assertEquals(0, stats.blockedWrites);
+    }
+}
@@ -0,0 +1,91 @@
+package ru.alexapps.treeview.utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import ru.alexapps.treeview.utils.testutils.TestUtils.TestTreeNode;
+
+import static org.junit.Assert.*;
+import static ru.alexapps.treeview.utils.testutils.TestUtils.prepareTestData;
+
+public class FilteredTreeTest {
+
+    @Test
+    public void setFilter_should_show_matched_nodes_with_ancestors() {
+        Tree<TestTreeNode> tree = new Tree<>(prepareTestData(new int[]{3, 2, 1, 2}));
+        FilteredTree<TestTreeNode> filteredTree = new FilteredTree<>(tree);
+        assertNull(filteredTree.setFilter(node -> node.getLft() == 8));
+        //Node 8_9 is child of 7_10, which is child of root
+        assertEquals(3, filteredTree.getCount());
+        assertEquals(1, filteredTree.getMatchedCount());
+        assertEquals(tree.getNodeByLftRgt(0, 17), filteredTree.getNode(0));
+        assertEquals(tree.getNodeByLftRgt(8, 9), filteredTree.getNode(2));
+        assertTrue(filteredTree.isMatched(2));
+        assertFalse(filteredTree.isMatched(1));
+        assertEquals(1, filteredTree.getPosition(tree.getNodeByLftRgt(7, 10)));
+        assertEquals(-1, filteredTree.getPosition(tree.getNodeByLftRgt(11, 16)));
+    }
+
+    @Test
+    public void narrowFilter_should_match_full_filter_and_return_changes() {
+        Tree<TestTreeNode> tree = new Tree<>(prepareTestData(new int[]{3, 2, 1, 2, 3, 1, 2}));
+        FilteredTree<TestTreeNode> filteredTree = new FilteredTree<>(tree);
+        FilteredTree<TestTreeNode> expectedTree = new FilteredTree<>(tree);
+        filteredTree.setFilter(node -> node.getLft() % 2 == 1);
+        for (int divisor : new int[]{3, 9, 27}) {
+            Predicate<TestTreeNode> predicate = node -> node.getLft() % 2 == 1 && node.getLft() % divisor == 0;
+            List<TestTreeNode> oldRows = filteredTree.getNodes();
+            List<VisibleChange> changes = filteredTree.narrowFilter(predicate);
+            expectedTree.setFilter(predicate);
+            assertEquals(expectedTree.getNodes(), filteredTree.getNodes());
+            assertEquals(expectedRows(tree, predicate), filteredTree.getNodes());
+            assertEquals(filteredTree.getNodes(), applyChanges(oldRows, changes, filteredTree.getNodes()));
+        }
+        //Widening filter also returns changes
+        List<TestTreeNode> oldRows = filteredTree.getNodes();
+        List<VisibleChange> changes = filteredTree.setFilter(node -> node.getRgt() % 4 == 0);
+        assertEquals(filteredTree.getNodes(), applyChanges(oldRows, changes, filteredTree.getNodes()));
+    }
+
+    @Test
+    public void isMatched_should_throw_exception_for_position_after_rows() {
+        Tree<TestTreeNode> tree = new Tree<>(prepareTestData(new int[]{3, 2, 1, 2}));
+        FilteredTree<TestTreeNode> filteredTree = new FilteredTree<>(tree);
+        filteredTree.setFilter(node -> true);
+        //Narrower filter reuses longer array of rows
+        filteredTree.setFilter(node -> node.getLft() == 8);
+        try {
+            filteredTree.isMatched(filteredTree.getCount());
+            fail();
+        } catch (IndexOutOfBoundsException ignored) {
+        }
+    }
+
+    private static List<TestTreeNode> expectedRows(Tree<TestTreeNode> tree, Predicate<TestTreeNode> predicate) {
+        return tree.mNodes.stream()
+                .filter(node -> predicate.test(node) || tree.getDescendants(node).stream().anyMatch(predicate))
+                .collect(Collectors.toList());
+    }
+
+    private static List<TestTreeNode> applyChanges(List<TestTreeNode> oldRows, List<VisibleChange> changes, List<TestTreeNode> newRows) {
+        List<TestTreeNode> rows = new ArrayList<>(oldRows);
+        for (VisibleChange change : changes) {
+            for (int i = 0; i < change.count; i++) {
+                if (change.type == VisibleChange.Type.REMOVED) {
+                    rows.remove(change.position);
+                } else {
+                    rows.add(change.position + i, null);
+                }
+            }
+        }
+        //Inserted rows are placeholders, every other row must stay on its new position
+        for (int i = 0; i < rows.size(); i++) {
+            if (rows.get(i) == null) rows.set(i, newRows.get(i));
+        }
+        return rows;
+    }
+}
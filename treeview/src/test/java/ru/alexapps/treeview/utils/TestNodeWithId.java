@@ -0,0 +1,34 @@
+package ru.alexapps.treeview.utils;
+
+import java.util.Objects;
+
+import ru.alexapps.treeview.model.TreeNode;
+import ru.alexapps.treeview.utils.testutils.TestUtils.TestTreeNode;
+
+class TestNodeWithId extends TestTreeNode {
+    final int id;
+
+    public TestNodeWithId(int id, int lft, int rgt) {
+        super(lft, rgt);
+        this.id = id;
+    }
+
+    @Override
+    public boolean contentEquals(TreeNode other) {
+        return super.contentEquals(other) && id == ((TestNodeWithId) other).id;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof TestNodeWithId)) return false;
+        if (!super.equals(o)) return false;
+        TestNodeWithId that = (TestNodeWithId) o;
+        return id == that.id;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(super.hashCode(), id);
+    }
+}
@@ -0,0 +1,94 @@
+package ru.alexapps.treeview.utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import ru.alexapps.treeview.utils.CheckableTreeTest.TestCheckableTreeNode;
+import ru.alexapps.treeview.utils.testutils.TestUtils.TestTreeNode;
+
+import static org.junit.Assert.*;
+import static ru.alexapps.treeview.utils.testutils.TestUtils.prepareTestData;
+
+public class TreeBuilderTest {
+
+    @Test
+    public void build_should_create_tree_equal_to_replayed_one() {
+        for (Tree.Storage storage : Tree.Storage.values()) {
+            for (int spacing : new int[]{Tree.DENSE_SPACING, Tree.MIN_GAP_SPACING}) {
+                Tree<TestTreeNode> tree = new Tree<>(prepareTestData(new int[]{4, 3, 2, 3, 1, 2, 3}));
+                tree.setSpacing(spacing);
+                TreeBuilder<TestTreeNode> builder = new TreeBuilder<>(spacing, storage, 4);
+                replay(tree, builder);
+                Tree<TestTreeNode> built = builder.build();
+                assertEquals(tree.size(), built.size());
+                for (int i = 0; i < tree.size(); i++) {
+                    TestTreeNode node = built.mNodes.get(i);
+                    assertEquals(tree.mNodes.lft(i), node.getLft());
+                    assertEquals(tree.mNodes.rgt(i), node.getRgt());
+                    assertEquals(tree.mNodes.depth(i), node.getDepth());
+                }
+                new Tree<>(new ArrayList<>(built.mNodes), true, spacing);
+            }
+        }
+    }
+
+    @Test
+    public void buildCheckable_should_keep_checked_states() {
+        TreeBuilder<TestCheckableTreeNode> builder = new TreeBuilder<>();
+        builder.enterChild(new TestCheckableTreeNode(0, 0))
+                .addLeaf(new TestCheckableTreeNode(0, 0, true))
+                .enterChild(new TestCheckableTreeNode(0, 0))
+                .addLeaf(new TestCheckableTreeNode(0, 0, true))
+                .leaveChild()
+                .leaveChild();
+        CheckableTree<TestCheckableTreeNode> tree = TreeBuilder.buildCheckable(builder);
+        assertEquals(0, tree.getRoot().getLft());
+        assertEquals(7, tree.getRoot().getRgt());
+        assertTrue(tree.getNodeByLftRgt(1, 2).isChecked());
+        assertTrue(tree.getNodeByLftRgt(4, 5).isChecked());
+        assertEquals(2, tree.getCheckedDescendantsCount(0, 7));
+    }
+
+    @Test
+    public void builder_should_reject_wrong_events() {
+        TreeBuilder<TestTreeNode> builder = new TreeBuilder<>();
+        try {
+            builder.leaveChild();
+            fail("Node can not be left before it is entered");
+        } catch (IllegalStateException ignored) {
+        }
+        builder.enterChild(new TestTreeNode(0, 0)).addLeaf(new TestTreeNode(0, 0));
+        try {
+            builder.build();
+            fail("Tree with not left root can not be built");
+        } catch (IllegalStateException ignored) {
+        }
+        builder.leaveChild();
+        try {
+            builder.enterChild(new TestTreeNode(0, 0));
+            fail("Second root can not be entered");
+        } catch (IllegalStateException ignored) {
+        }
+        assertEquals(2, builder.build().size());
+    }
+
+    /**
+     * Sends events of depth-first walk of the tree, node copies are entered
+     */
+    private static void replay(Tree<TestTreeNode> tree, TreeBuilder<TestTreeNode> builder) {
+        List<Integer> openRgt = new ArrayList<>();
+        for (int i = 0; i < tree.size(); i++) {
+            while (!openRgt.isEmpty() && openRgt.get(openRgt.size() - 1) < tree.mNodes.lft(i)) {
+                openRgt.remove(openRgt.size() - 1);
+                builder.leaveChild();
+            }
+            builder.enterChild(new TestTreeNode(-1, -1));
+            openRgt.add(tree.mNodes.rgt(i));
+        }
+        for (int i = 0; i < openRgt.size(); i++) {
+            builder.leaveChild();
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package ru.alexapps.treeview.utils;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+
+import ru.alexapps.treeview.model.TreeNode;
+import ru.alexapps.treeview.utils.CheckableTreeTest.TestCheckableTreeNode;
+
+import static org.junit.Assert.*;
+import static ru.alexapps.treeview.utils.testutils.TestUtils.prepareTestData;
+
+public class TreeCodecTest {
+
+    @Test
+    public void decode_should_restore_encoded_tree() throws IOException {
+        Random random = new Random(2);
+        for (Tree.Storage storage : Tree.Storage.values()) {
+            List<TestNodeWithId> nodes = prepareTestData(new int[]{4, 3, 2, 3, 1, 2, 3}, (lft, rgt) -> new TestNodeWithId(random.nextInt(), lft, rgt));
+            nodes.forEach(node -> node.setExpanded(random.nextBoolean()));
+            Tree<TestNodeWithId> tree = new Tree<>(nodes);
+            byte[] data = encode(tree, (node, out) -> out.writeInt(node.id));
+
+            Tree<TestNodeWithId> decoded = TreeCodec.decode(input(data), in -> new TestNodeWithId(in.readInt(), 0, 0), storage);
+            assertArrayEquals(tree.mNodes.toArray(), decoded.mNodes.toArray());
+            for (TestNodeWithId node : decoded.mNodes) {
+                assertEquals(tree.getDepth(node.getLft(), node.getRgt()), node.getDepth());
+                assertEquals(node.getDepth(), decoded.getDepth(node.getLft(), node.getRgt()));
+            }
+            assertEquals(tree.getVisibleNodes(), decoded.getVisibleNodes());
+            //Shape and flags take less then one byte per node
+            assertTrue(data.length - 4 * nodes.size() < nodes.size());
+        }
+    }
+
+    @Test
+    public void decodeCheckable_should_restore_checked_states_and_spacing() throws IOException {
+        Random random = new Random(4);
+        List<TestCheckableTreeNode> nodes = prepareTestData(new int[]{3, 2, 1, 2}, (lft, rgt) -> new TestCheckableTreeNode(lft, rgt, random.nextBoolean()));
+        CheckableTree<TestCheckableTreeNode> tree = new CheckableTree<>(nodes);
+        tree.setSpacing(Tree.MIN_GAP_SPACING);
+        byte[] data = encode(tree, (node, out) -> { });
+
+        CheckableTree<TestCheckableTreeNode> decoded = TreeCodec.decodeCheckable(input(data), in -> new TestCheckableTreeNode(0, 0), Tree.Storage.OBJECTS);
+        assertEquals(Tree.MIN_GAP_SPACING, decoded.getSpacing());
+        assertArrayEquals(tree.mNodes.toArray(), decoded.mNodes.toArray());
+        for (TestCheckableTreeNode node : decoded.mNodes) {
+            assertEquals(tree.getCheckedDescendantsCount(node.getLft(), node.getRgt()),
+                    decoded.getCheckedDescendantsCount(node.getLft(), node.getRgt()));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void decode_should_throw_exception_on_corrupted_shape() throws IOException {
+        byte[] data = encode(new Tree<>(prepareTestData(new int[]{2, 1})), (node, out) -> { });
+        //Shape starts right after header of 8 bytes, clearing first bit closes node which was not opened
+        data[8] &= ~1;
+        TreeCodec.decode(input(data), in -> new TestNodeWithId(0, 0, 0), Tree.Storage.OBJECTS);
+    }
+
+    private static <T extends TreeNode> byte[] encode(Tree<T> tree, TreeCodec.PayloadWriter<? super T> writer) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        TreeCodec.encode(tree, new DataOutputStream(bytes), writer);
+        return bytes.toByteArray();
+    }
+
+    private static DataInputStream input(byte[] data) {
+        return new DataInputStream(new ByteArrayInputStream(data));
+    }
+}
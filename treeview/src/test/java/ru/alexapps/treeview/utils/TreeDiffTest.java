@@ -0,0 +1,139 @@
+package ru.alexapps.treeview.utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Function;
+
+import static org.junit.Assert.*;
+import static ru.alexapps.treeview.utils.testutils.TestUtils.prepareTestData;
+
+public class TreeDiffTest {
+
+    @Test
+    public void calculate_should_return_empty_script_for_same_rows() {
+        List<String> rows = Arrays.asList("a", "b", "c");
+        assertEquals(Collections.emptyList(), TreeDiff.calculate(rows, rows, Function.identity()));
+    }
+
+    @Test
+    public void calculate_should_move_single_row() {
+        List<String> oldRows = Arrays.asList("a", "b", "c", "d");
+        List<String> newRows = Arrays.asList("b", "c", "d", "a");
+        assertEquals(Collections.singletonList(VisibleChange.moved(0, 3)),
+                TreeDiff.calculate(oldRows, newRows, Function.identity()));
+    }
+
+    @Test
+    public void calculate_should_group_removed_and_inserted_rows() {
+        List<String> oldRows = Arrays.asList("a", "b", "c", "d", "e");
+        List<String> newRows = Arrays.asList("a", "x", "y", "e");
+        assertEquals(Arrays.asList(VisibleChange.removed(1, 3), VisibleChange.inserted(1, 2)),
+                TreeDiff.calculate(oldRows, newRows, Function.identity()));
+    }
+
+    @Test
+    public void calculate_should_change_rows_with_same_key() {
+        List<String> oldRows = Arrays.asList("a1", "b1", "c1");
+        List<String> newRows = Arrays.asList("a1", "b2", "c2");
+        assertEquals(Collections.singletonList(VisibleChange.changed(1, 2)),
+                TreeDiff.calculate(oldRows, newRows, row -> row.charAt(0)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void calculate_should_throw_exception_duplicate_key() {
+        TreeDiff.calculate(Collections.singletonList("a"), Arrays.asList("a", "a"), Function.identity());
+    }
+
+    @Test
+    public void calculate_should_transform_random_rows() {
+        Random random = new Random(1);
+        for (int attempt = 0; attempt < 200; attempt++) {
+            List<Integer> oldRows = randomRows(random);
+            List<Integer> newRows = randomRows(random);
+            List<VisibleChange> changes = TreeDiff.calculate(oldRows, newRows, Function.identity());
+            List<Integer> rows = new ArrayList<>(oldRows);
+            int moves = 0;
+            for (VisibleChange change : changes) {
+                switch (change.type) {
+                    case INSERTED:
+                        rows.addAll(change.position, Collections.nCopies(change.count, null));
+                        break;
+                    case REMOVED:
+                        rows.subList(change.position, change.position + change.count).clear();
+                        break;
+                    case MOVED:
+                        rows.add(change.toPosition, rows.remove(change.position));
+                        moves++;
+                        break;
+                    case CHANGED:
+                        fail("Rows with same key are equal");
+                }
+            }
+            assertEquals(newRows.size(), rows.size());
+            for (int i = 0; i < rows.size(); i++) {
+                //Inserted rows are bound from new rows
+                if (rows.get(i) == null) {
+                    assertFalse(oldRows.contains(newRows.get(i)));
+                } else {
+                    assertEquals(newRows.get(i), rows.get(i));
+                }
+            }
+            //Only rows out of longest increasing subsequence of old positions are moved
+            List<Integer> kept = new ArrayList<>(newRows);
+            kept.retainAll(oldRows);
+            assertTrue(moves <= kept.size() - longestIncreasingSubsequence(kept, oldRows));
+        }
+    }
+
+    @Test
+    public void calculate_should_not_change_renumbered_rows() {
+        Tree<TestNodeWithId> oldTree = createExpandedTree();
+        Tree<TestNodeWithId> newTree = createExpandedTree();
+        //Leaf goes above all other rows, so all of them are renumbered
+        newTree.addNode(new TestNodeWithId(100, 0, 0), newTree.getRoot().getLft(), newTree.getRoot().getRgt(), 0);
+
+        assertEquals(Collections.singletonList(VisibleChange.inserted(1, 1)),
+                TreeDiff.calculate(oldTree.getVisibleNodes(), newTree.getVisibleNodes(), node -> node.id));
+        //Equals compares indexes, so root and every row after leaf would be rebound
+        assertEquals(Arrays.asList(VisibleChange.inserted(1, 1), VisibleChange.changed(0, 1), VisibleChange.changed(2, oldTree.getVisibleCount() - 1)),
+                TreeDiff.calculate(oldTree.getVisibleNodes(), newTree.getVisibleNodes(), node -> node.id, TestNodeWithId::equals));
+    }
+
+    private static Tree<TestNodeWithId> createExpandedTree() {
+        Tree<TestNodeWithId> tree = new Tree<>(prepareTestData(new int[]{3, 2, 1}, (lft, rgt) -> new TestNodeWithId(lft, lft, rgt)));
+        for (TestNodeWithId node : tree.getDescendants(tree.getRoot())) {
+            tree.setExpanded(node.getLft(), node.getRgt(), true);
+        }
+        tree.setExpanded(tree.getRoot().getLft(), tree.getRoot().getRgt(), true);
+        return tree;
+    }
+
+    private static int longestIncreasingSubsequence(List<Integer> kept, List<Integer> oldRows) {
+        int[] lengths = new int[kept.size()];
+        int longest = 0;
+        for (int i = 0; i < kept.size(); i++) {
+            lengths[i] = 1;
+            for (int j = 0; j < i; j++) {
+                if (oldRows.indexOf(kept.get(j)) < oldRows.indexOf(kept.get(i))) {
+                    lengths[i] = Math.max(lengths[i], lengths[j] + 1);
+                }
+            }
+            longest = Math.max(longest, lengths[i]);
+        }
+        return longest;
+    }
+
+    private static List<Integer> randomRows(Random random) {
+        List<Integer> rows = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            if (random.nextInt(3) > 0) rows.add(i);
+        }
+        Collections.shuffle(rows, random);
+        return rows.subList(0, random.nextInt(rows.size() + 1));
+    }
+}
@@ -0,0 +1,141 @@
+package ru.alexapps.treeview.utils;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import ru.alexapps.treeview.utils.CheckableTreeTest.TestCheckableTreeNode;
+
+import ru.alexapps.treeview.utils.testutils.TestUtils.TestTreeNode;
+
+import static org.junit.Assert.*;
+import static ru.alexapps.treeview.utils.testutils.TestUtils.prepareTestData;
+
+public class TreeSnapshotTest {
+
+    @Test
+    public void snapshot_should_not_change_after_tree_changes() {
+        Tree<TestTreeNode> tree = new Tree<>(prepareTestData(new int[]{3, 2, 1, 2}));
+        TreeSnapshot<TestTreeNode> snapshot = tree.snapshot();
+        final int size = snapshot.size();
+        final int[] lft = new int[size];
+        final int[] rgt = new int[size];
+        final TestTreeNode[] nodes = new TestTreeNode[size];
+        for (int i = 0; i < size; i++) {
+            lft[i] = snapshot.getLft(i);
+            rgt[i] = snapshot.getRgt(i);
+            nodes[i] = snapshot.getNode(i);
+        }
+        tree.addNode(new TestTreeNode(0, 0), tree.getRoot().getLft(), tree.getRoot().getRgt(), 0);
+        tree.deleteNode(tree.getNodeByLftRgt(13, 18).getLft(), tree.getNodeByLftRgt(13, 18).getRgt());
+        tree.setExpanded(tree.getRoot().getLft(), tree.getRoot().getRgt(), true);
+
+        assertEquals(size, snapshot.size());
+        for (int i = 0; i < size; i++) {
+            assertEquals(lft[i], snapshot.getLft(i));
+            assertEquals(rgt[i], snapshot.getRgt(i));
+            assertSame(nodes[i], snapshot.getNode(i));
+        }
+        //Root was collapsed at the moment of snapshot
+        assertEquals(1, snapshot.getVisibleCount());
+        assertEquals(4, tree.snapshot().getVisibleCount());
+    }
+
+    @Test
+    public void snapshot_should_answer_queries_like_tree() {
+        Tree<TestTreeNode> tree = new Tree<>(prepareTestData(new int[]{3, 2, 1, 2}));
+        for (TestTreeNode node : tree.getDescendants(tree.getRoot())) {
+            if (node.getLft() % 3 != 0) tree.setExpanded(node.getLft(), node.getRgt(), true);
+        }
+        tree.setExpanded(tree.getRoot().getLft(), tree.getRoot().getRgt(), true);
+        TreeSnapshot<TestTreeNode> snapshot = tree.snapshot();
+
+        assertEquals(tree.getVisibleNodes(), snapshot.getVisibleNodes());
+        for (int i = 0; i < tree.size(); i++) {
+            TestTreeNode node = tree.mNodes.get(i);
+            assertEquals(i, snapshot.indexOf(node.getLft(), node.getRgt()));
+            assertEquals(tree.getDepth(node.getLft(), node.getRgt()), snapshot.getDepth(i));
+            assertEquals(tree.getDescendants(node), snapshot.getDescendants(node.getLft(), node.getRgt()));
+            assertEquals(tree.getChildren(node.getLft(), node.getRgt()), snapshot.getChildren(node.getLft(), node.getRgt()));
+            assertEquals(tree.getAncestors(node.getLft(), node.getRgt()), snapshot.getAncestors(node.getLft(), node.getRgt()));
+            assertEquals(tree.getParent(node.getLft(), node.getRgt()), snapshot.getParent(node.getLft(), node.getRgt()));
+        }
+    }
+
+    @Test
+    public void snapshot_should_share_unchanged_chunks() {
+        List<TestTreeNode> nodes = prepareTestData(new int[]{2000});
+        Tree<TestTreeNode> tree = new Tree<>(nodes);
+        tree.setSpacing(Tree.MIN_GAP_SPACING);
+        TreeSnapshot<TestTreeNode> first = tree.snapshot();
+        assertSame(first, tree.snapshot());
+
+        //Node is inserted into gap, so other nodes are not renumbered
+        TestTreeNode parent = tree.getChildren(tree.getRoot().getLft(), tree.getRoot().getRgt()).get(1000);
+        tree.addNode(new TestTreeNode(0, 0), parent);
+        TreeSnapshot<TestTreeNode> second = tree.snapshot();
+
+        assertNotSame(first, second);
+        assertEquals(first.size() + 1, second.size());
+        assertTrue(second.chunkCount() - TreeSnapshot.sharedChunks(first, second) <= 3);
+        assertEquals(tree.getDescendants(parent), second.getDescendants(parent.getLft(), parent.getRgt()));
+    }
+
+    @Test
+    public void snapshot_should_keep_checked_state() {
+        CheckableTree<TestCheckableTreeNode> tree = new CheckableTree<>(prepareTestData(new int[]{3, 2}, TestCheckableTreeNode::new));
+        TreeSnapshot<TestCheckableTreeNode> snapshot = tree.snapshot();
+        tree.setNodeChecked(tree.getRoot().getLft(), tree.getRoot().getRgt(), true);
+        TreeSnapshot<TestCheckableTreeNode> checked = tree.snapshot();
+
+        assertNotSame(snapshot, checked);
+        for (int i = 0; i < tree.size(); i++) {
+            assertFalse(snapshot.isChecked(i));
+            assertTrue(checked.isChecked(i));
+        }
+    }
+
+    @Test
+    public void snapshot_of_changed_slots_should_match_full_copy() {
+        for (int spacing : new int[]{Tree.DENSE_SPACING, Tree.MIN_GAP_SPACING}) {
+            CheckableTree<TestCheckableTreeNode> tree = new CheckableTree<>(prepareTestData(new int[]{4, 3, 2, 2, 2}, TestCheckableTreeNode::new));
+            tree.setSpacing(spacing);
+            tree.snapshot();
+            Random random = new Random(13);
+            for (int i = 0; i < 300; i++) {
+                TestCheckableTreeNode parent = tree.mNodes.get(random.nextInt(tree.size()));
+                int childrenSize = tree.getChildren(parent.getLft(), parent.getRgt()).size();
+                TestCheckableTreeNode node = tree.mNodes.get(random.nextInt(tree.size()));
+                int operation = random.nextInt(6);
+                if (operation == 0 || tree.size() < 3) {
+                    tree.addNode(new TestCheckableTreeNode(0, 0, random.nextBoolean()), parent.getLft(), parent.getRgt(), random.nextInt(childrenSize + 1));
+                } else if (operation == 1) {
+                    if (parent.getLft() >= node.getLft() && parent.getRgt() <= node.getRgt()) continue;
+                    tree.moveNode(node, parent, random.nextInt(childrenSize + 1));
+                } else if (operation == 2) {
+                    if (node == tree.getRoot()) continue;
+                    tree.deleteNode(node.getLft(), node.getRgt());
+                } else if (operation == 3) {
+                    tree.setExpanded(node.getLft(), node.getRgt(), !node.isExpanded());
+                } else if (operation == 4) {
+                    tree.setNodeChecked(node.getLft(), node.getRgt(), !node.isChecked());
+                } else {
+                    tree.sortChildren(parent.getLft(), parent.getRgt(), (first, second) -> Boolean.compare(first.isChecked(), second.isChecked()));
+                }
+                if (random.nextInt(3) > 0) continue;
+                TreeSnapshot<TestCheckableTreeNode> snapshot = tree.snapshot();
+                TreeSnapshot<TestCheckableTreeNode> copy = TreeSnapshot.of(tree.mNodes, null, null);
+                assertEquals(copy.size(), snapshot.size());
+                for (int slot = 0; slot < copy.size(); slot++) {
+                    assertSame(copy.getNode(slot), snapshot.getNode(slot));
+                    assertEquals(copy.getLft(slot), snapshot.getLft(slot));
+                    assertEquals(copy.getRgt(slot), snapshot.getRgt(slot));
+                    assertEquals(copy.getDepth(slot), snapshot.getDepth(slot));
+                    assertEquals(copy.isExpanded(slot), snapshot.isExpanded(slot));
+                    assertEquals(copy.isChecked(slot), snapshot.isChecked(slot));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package ru.alexapps.treeview.utils;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+import java.util.function.Function;
+
+import ru.alexapps.treeview.utils.CheckableTreeTest.TestCheckableTreeNode;
+import ru.alexapps.treeview.utils.testutils.TestUtils.TestTreeNode;
+
+import static org.junit.Assert.*;
+import static ru.alexapps.treeview.utils.testutils.TestUtils.prepareTestData;
+
+public class TreeStateTest {
+    @Test
+    public void restore_should_return_saved_states_and_anchor() {
+        Random random = new Random(3);
+        List<TestCheckableTreeNode> nodes = prepareTestData(new int[]{4, 3, 2, 3}, TestCheckableTreeNode::new);
+        CheckableTree<TestCheckableTreeNode> tree = new CheckableTree<>(nodes);
+        nodes.forEach(node -> node.setExpanded(random.nextBoolean()));
+        tree.setNodesChecked(node -> random.nextInt(4) == 0, true);
+        tree.invalidateIndexes();
+        List<TestCheckableTreeNode> visibleNodes = tree.getVisibleNodes();
+        boolean[] checked = new boolean[nodes.size()];
+        for (int i = 0; i < nodes.size(); i++) {
+            checked[i] = nodes.get(i).isChecked();
+        }
+        TestCheckableTreeNode anchor = visibleNodes.get(visibleNodes.size() / 2);
+        TreeState state = TreeState.save(tree, anchor);
+
+        List<TestCheckableTreeNode> newNodes = prepareTestData(new int[]{4, 3, 2, 3}, TestCheckableTreeNode::new);
+        CheckableTree<TestCheckableTreeNode> newTree = new CheckableTree<>(newNodes);
+        assertEquals(anchor, state.restore(newTree));
+        assertEquals(visibleNodes, newTree.getVisibleNodes());
+        for (int i = 0; i < newNodes.size(); i++) {
+            assertEquals(checked[i], newNodes.get(i).isChecked());
+        }
+    }
+
+    @Test
+    public void restore_should_skip_tree_of_other_shape() {
+        Tree<TestTreeNode> tree = new Tree<>(prepareTestData(new int[]{3, 2, 1}));
+        tree.mNodes.forEach(node -> node.setExpanded(true));
+        TreeState state = TreeState.save(tree, null);
+
+        Tree<TestTreeNode> newTree = new Tree<>(prepareTestData(new int[]{2, 3, 1}));
+        assertNull(state.restore(newTree));
+        assertEquals(1, newTree.getVisibleCount());
+    }
+
+    @Test
+    public void restore_by_keys_should_apply_states_to_changed_tree() {
+        Function<TestNodeWithId, String> key = node -> String.valueOf(node.id);
+        Tree<TestNodeWithId> tree = new Tree<>(prepareTestData(new int[]{3, 2, 1}, (lft, rgt) -> new TestNodeWithId(lft, lft, rgt)));
+        TestNodeWithId expanded = tree.getNodeByLftRgt(7, 10);
+        tree.getRoot().setExpanded(true);
+        expanded.setExpanded(true);
+        TreeState state = TreeState.save(tree, expanded, key);
+
+        //Node is added before saved ones, so their indexes are shifted, other nodes become collapsed
+        Tree<TestNodeWithId> newTree = new Tree<>(prepareTestData(new int[]{3, 2, 1}, (lft, rgt) -> new TestNodeWithId(lft, lft, rgt)));
+        newTree.addNode(new TestNodeWithId(100, 0, 0), 0, 13, 0);
+        newTree.mNodes.forEach(node -> node.setExpanded(true));
+        TestNodeWithId anchor = state.restore(newTree, key);
+        assertNotNull(anchor);
+        assertEquals(7, anchor.id);
+        for (TestNodeWithId node : newTree.mNodes) {
+            assertEquals(node == newTree.getRoot() || node == anchor, node.isExpanded());
+        }
+        assertEquals(1 + 4 + 1, newTree.getVisibleCount());
+    }
+}
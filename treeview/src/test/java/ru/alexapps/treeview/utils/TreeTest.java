@@ -3,9 +3,15 @@ package ru.alexapps.treeview.utils;
 import org.junit.Test;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.Objects;
+import java.util.Map;
+import java.util.Random;
 
+import ru.alexapps.treeview.exceptions.InvalidTreeException;
 import ru.alexapps.treeview.exceptions.NodeNotFoundException;
 import ru.alexapps.treeview.exceptions.RemoveRootNodeException;
 
@@ -418,6 +424,28 @@ public class TreeTest {
         tree.moveNode(nodeToMove, nodeToMove, 0);
     }
     @Test(expected = IllegalArgumentException.class)
+    public void moveNode_move_root_should_throw_exception() {
+        Tree<TestTreeNode> tree = new Tree<>(prepareTestData(new int[]{2, 1}));
+        tree.moveNode(tree.getRoot(), tree.getNodeByLftRgt(1, 4), 0);
+    }
+    @Test
+    public void moveNode_move_inside_descendant_should_throw_exception_and_keep_tree() {
+        //Chain 0_7, 1_6, 2_5, 3_4
+        Tree<TestTreeNode> tree = new Tree<>(prepareTestData(new int[]{1, 1, 1}));
+        TestTreeNode nodeToMove = tree.getNodeByLftRgt(1, 6);
+        try {
+            tree.moveNode(nodeToMove, tree.getNodeByLftRgt(3, 4), 0);
+            fail("Node must not be moved inside its descendant");
+        } catch (IllegalArgumentException ignored) {
+        }
+        assertEquals(4, tree.size());
+        for (int depth = 0; depth < 4; depth++) {
+            assertEquals(depth, tree.mNodes.get(depth).getDepth());
+            assertEquals(depth, tree.mNodes.lft(depth));
+            assertEquals(7 - depth, tree.mNodes.rgt(depth));
+        }
+    }
+    @Test(expected = IllegalArgumentException.class)
     public void moveNode_move_to_negative_index_should_throw_exception() {
         List<TestNodeWithId> nodes = prepareTestData(new int[]{2}, (lft, rgt) -> new TestNodeWithId(lft, lft, rgt));
         nodes = Tree.sortByLft(nodes);
@@ -437,28 +465,557 @@ public class TreeTest {
     }
 
 
-}
+    @Test
+    public void getVisibleCount_should_skip_nested_collapsed_nodes() {
+        List<TestTreeNode> nodes = Tree.sortByLft(prepareTestData(new int[]{2, 2, 1}));
+        nodes.forEach(node -> node.setExpanded(true));
+        Tree<TestTreeNode> tree = new Tree<>(nodes);
+        assertEquals(6, tree.getVisibleCount());
+        //Collapse first child of root, its 2 children are hidden
+        tree.setExpanded(1, 6, false);
+        assertEquals(4, tree.getVisibleCount());
+        assertEquals(tree.getVisibleNodes().size(), tree.getVisibleCount());
+        //Collapse root, only root is visible
+        tree.setExpanded(0, 11, false);
+        assertEquals(1, tree.getVisibleCount());
+        //Expand root, first child stays collapsed
+        tree.setExpanded(0, 11, true);
+        assertEquals(4, tree.getVisibleCount());
+        assertEquals(7, tree.getVisibleNode(2).getLft());
+        assertEquals(8, tree.getVisibleNode(3).getLft());
+    }
+
+    @Test
+    public void getVisiblePosition_should_match_visible_nodes() {
+        List<TestTreeNode> nodes = prepareTestData(new int[]{3, 2, 0, 4, 1, 1});
+        nodes.forEach(node -> node.setExpanded(true));
+        Tree<TestTreeNode> tree = new Tree<>(nodes);
+        tree.setExpanded(1, 10, false);
+        tree.addNode(new TestTreeNode(0, 0), tree.getRoot());
+        List<TestTreeNode> visibleNodes = tree.getVisibleNodes();
+        assertEquals(visibleNodes.size(), tree.getVisibleCount());
+        for (int i = 0; i < visibleNodes.size(); i++) {
+            assertSame(visibleNodes.get(i), tree.getVisibleNode(i));
+            assertEquals(i, tree.getVisiblePosition(visibleNodes.get(i)));
+        }
+        //Hidden node has no position
+        assertEquals(-1, tree.getVisiblePosition(tree.getNodeByLftRgt(5, 6)));
+        assertEquals(-1, tree.getVisiblePosition(null));
+    }
 
-class TestNodeWithId extends TestTreeNode {
-    final int id;
 
-    public TestNodeWithId(int id, int lft, int rgt) {
-        super(lft, rgt);
-        this.id = id;
+    @Test
+    public void validate_should_report_first_offending_node() {
+        List<TestTreeNode> tree = Tree.sortByLft(prepareTestData(new int[]{2, 1}));
+        //Move rgt of second node out of its parent
+        tree.get(2).setRgt(8);
+        try {
+            Tree.validate(tree, true);
+            fail();
+        } catch (InvalidTreeException e) {
+            assertEquals(InvalidTreeException.Reason.OVERLAPPING, e.getReason());
+            assertSame(tree.get(2), e.getNode());
+        }
     }
 
-    @Override
-    public boolean equals(Object o) {
-        if (this == o) return true;
-        if (!(o instanceof TestNodeWithId)) return false;
-        if (!super.equals(o)) return false;
-        TestNodeWithId that = (TestNodeWithId) o;
-        return id == that.id;
+    @Test
+    public void validate_should_report_missed_node() {
+        List<TestTreeNode> tree = Tree.sortByLft(prepareTestData(new int[]{2, 1}));
+        TestTreeNode removed = tree.remove(2);
+        try {
+            Tree.validate(tree, true);
+            fail();
+        } catch (InvalidTreeException e) {
+            assertEquals(InvalidTreeException.Reason.INVALID_INDEXES, e.getReason());
+            assertEquals(removed.getRgt() + 1, e.getNode().getRgt());
+        }
     }
 
-    @Override
-    public int hashCode() {
-        return Objects.hash(super.hashCode(), id);
+    @Test
+    public void validate_should_reject_unsorted_nodes_declared_as_sorted() {
+        List<TestTreeNode> tree = Tree.sortByLft(prepareTestData(new int[]{2, 1}));
+        Collections.swap(tree, 1, 3);
+        try {
+            Tree.validate(tree, true);
+            fail();
+        } catch (InvalidTreeException e) {
+            assertEquals(InvalidTreeException.Reason.NOT_SORTED, e.getReason());
+        }
+        Tree.validate(tree, false);
+    }
+
+    @Test
+    public void isTreeValid_should_return_false_two_roots() {
+        List<TestTreeNode> tree = new ArrayList<>();
+        tree.add(new TestTreeNode(0, 1));
+        tree.add(new TestTreeNode(2, 3));
+        assertFalse(Tree.isTreeValid(tree));
+    }
+
+    @Test
+    public void constructor_sorted_nodes_should_create_valid_tree() {
+        List<TestTreeNode> nodes = Tree.sortByLft(prepareTestData(new int[]{5, 4, 7, 2, 4}));
+        Tree<TestTreeNode> tree = new Tree<>(nodes, true);
+        assertEquals(nodes.size(), tree.size());
+        assertEquals(nodes.get(0), tree.getRoot());
     }
-}
 
+
+    @Test
+    public void getNodeByLftRgt_should_find_nodes_after_renumbering() {
+        List<TestTreeNode> nodes = prepareTestData(new int[]{2, 1});
+        Tree<TestTreeNode> tree = new Tree<>(nodes);
+        TestTreeNode lastChild = tree.getNodeByLftRgt(5, 6);
+        tree.addNode(new TestTreeNode(0, 0), 0, 7, 0);
+        assertNull(tree.getNodeByLftRgt(5, 6));
+        assertSame(lastChild, tree.getNodeByLftRgt(7, 8));
+        //lft exists, but rgt is wrong
+        assertNull(tree.getNodeByLftRgt(7, 9));
+    }
+
+
+    @Test
+    public void getDepth_should_be_computed_on_creation() {
+        List<TestTreeNode> nodes = prepareTestData(new int[]{2, 1, 0, 1});
+        Tree<TestTreeNode> tree = new Tree<>(nodes);
+        for (TestTreeNode node : nodes) {
+            assertEquals(tree.getAncestors(node.getLft(), node.getRgt()).size(), tree.getDepth(node.getLft(), node.getRgt()));
+        }
+    }
+
+    @Test
+    public void getDepth_should_be_updated_after_add_and_move() {
+        List<TestNodeWithId> nodes = prepareTestData(new int[]{2, 1, 1}, (lft, rgt) -> new TestNodeWithId(lft, lft, rgt));
+        Tree<TestNodeWithId> tree = new Tree<>(nodes);
+        TestNodeWithId added = tree.addNode(new TestNodeWithId(100, 0, 0), 2, 3, 0).inserted.get(0);
+        assertEquals(3, added.getDepth());
+        //Move second child of root with its child inside first child of root
+        TestNodeWithId nodeToMove = tree.getNodeByLftRgt(7, 10);
+        tree.moveNode(nodeToMove, tree.getNodeByLftRgt(1, 6), 1);
+        for (TestNodeWithId node : tree.mNodes) {
+            assertEquals(tree.getAncestors(node.getLft(), node.getRgt()).size(), node.getDepth());
+        }
+        assertEquals(2, nodeToMove.getDepth());
+    }
+
+
+    @Test
+    public void getDescendantsView_should_return_contiguous_range() {
+        List<TestTreeNode> nodes = prepareTestData(new int[]{2, 1, 0, 1});
+        Tree<TestTreeNode> tree = new Tree<>(nodes);
+        List<TestTreeNode> descendants = tree.getDescendantsView(1, 6);
+        assertEquals(2, descendants.size());
+        assertEquals(new TestTreeNode(2, 5), descendants.get(0));
+        assertEquals(new TestTreeNode(3, 4), descendants.get(1));
+        assertTrue(tree.getDescendantsView(3, 4).isEmpty());
+        assertEquals(tree.size() - 1, tree.getDescendantsView(0, 9).size());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void getDescendantsView_should_be_read_only() {
+        List<TestTreeNode> nodes = prepareTestData(new int[]{2, 1});
+        Tree<TestTreeNode> tree = new Tree<>(nodes);
+        tree.getDescendantsView(0, 7).clear();
+    }
+
+
+    @Test
+    public void addNode_and_moveNode_should_keep_nodes_sorted() {
+        List<TestNodeWithId> nodes = prepareTestData(new int[]{3, 2, 1, 2}, (lft, rgt) -> new TestNodeWithId(lft, lft, rgt));
+        Tree<TestNodeWithId> tree = new Tree<>(nodes);
+        Random random = new Random(42);
+        for (int i = 0; i < 200; i++) {
+            TestNodeWithId parent = tree.mNodes.get(random.nextInt(tree.size()));
+            int childrenSize = tree.getChildren(parent.getLft(), parent.getRgt()).size();
+            if (i % 2 == 0) {
+                tree.addNode(new TestNodeWithId(1000 + i, 0, 0), parent.getLft(), parent.getRgt(), random.nextInt(childrenSize + 1));
+            } else {
+                TestNodeWithId node = tree.mNodes.get(1 + random.nextInt(tree.size() - 1));
+                //Node can't be moved inside its own subtree
+                if (parent.getLft() >= node.getLft() && parent.getRgt() <= node.getRgt()) continue;
+                tree.moveNode(node, parent, random.nextInt(childrenSize + 1));
+            }
+            Tree.validate(tree.mNodes, true);
+        }
+        for (TestNodeWithId node : tree.mNodes) {
+            assertEquals(tree.getAncestors(node.getLft(), node.getRgt()).size(), node.getDepth());
+        }
+    }
+
+
+    @Test
+    public void setSpacing_should_spread_indexes() {
+        List<TestTreeNode> nodes = prepareTestData(new int[]{2, 1});
+        Tree<TestTreeNode> tree = new Tree<>(nodes);
+        Tree.TreeUpdate<TestTreeNode> update = tree.setSpacing(10);
+        assertEquals(4, update.updated.size());
+        assertArrayEquals(
+                new TestTreeNode[]{
+                        new TestTreeNode(0, 70),
+                        new TestTreeNode(10, 40),
+                        new TestTreeNode(20, 30),
+                        new TestTreeNode(50, 60)
+                },
+                tree.mNodes.toArray());
+        //Back to dense numbering
+        tree.setSpacing(Tree.DENSE_SPACING);
+        Tree.validate(tree.mNodes, true);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void setSpacing_should_throw_exception_too_small_gap() {
+        new Tree<>(new TestTreeNode(0, 1)).setSpacing(2);
+    }
+
+    @Test
+    public void addNode_gapped_should_update_only_respread_nodes() {
+        List<TestTreeNode> nodes = prepareTestData(new int[]{3, 2, 1, 2});
+        Tree<TestTreeNode> tree = new Tree<>(nodes);
+        tree.setSpacing(16);
+        //Free indexes between neighbours are used, nothing is updated
+        Tree.TreeUpdate<TestTreeNode> update = tree.addNode(new TestTreeNode(0, 0), 0, tree.getRoot().getRgt(), 0);
+        assertEquals(0, update.updated.size());
+        assertEquals(new TestTreeNode(6, 11), update.inserted.get(0));
+        int updatedCount = 0;
+        for (int i = 0; i < 100; i++) {
+            TestTreeNode root = tree.getRoot();
+            updatedCount += tree.addNode(new TestTreeNode(0, 0), root.getLft(), root.getRgt(), 0).updated.size();
+            new Tree<>(tree.mNodes, true, tree.getSpacing());
+        }
+        //Dense numbering would update every node on every insert
+        assertTrue(updatedCount < 100 * tree.size() / 4);
+        assertEquals(101 + nodes.size(), tree.size());
+    }
+
+    @Test
+    public void deleteNode_gapped_should_not_update_nodes() {
+        List<TestTreeNode> nodes = prepareTestData(new int[]{2, 1});
+        Tree<TestTreeNode> tree = new Tree<>(nodes);
+        tree.setSpacing(4);
+        Tree.TreeUpdate<TestTreeNode> update = tree.deleteNode(4, 16);
+        assertEquals(2, update.deleted.size());
+        assertEquals(0, update.updated.size());
+        new Tree<>(tree.mNodes, true, tree.getSpacing());
+    }
+
+    @Test
+    public void moveNode_gapped_should_update_only_moved_nodes() {
+        List<TestNodeWithId> nodes = prepareTestData(new int[]{2, 1}, (lft, rgt) -> new TestNodeWithId(lft, lft, rgt));
+        Tree<TestNodeWithId> tree = new Tree<>(nodes);
+        tree.setSpacing(100);
+        TestNodeWithId nodeWithChild = tree.getNodeByLftRgt(100, 400);
+        Tree.TreeUpdate<TestNodeWithId> update = tree.moveNode(nodeWithChild, tree.getRoot(), 2);
+        assertEquals(2, update.updated.size());
+        new Tree<>(tree.mNodes, true, tree.getSpacing());
+        assertEquals(2, tree.getChildren(0, 700).indexOf(nodeWithChild) + 1);
+    }
+
+    @Test
+    public void gapped_random_operations_should_keep_tree_valid() {
+        List<TestNodeWithId> nodes = prepareTestData(new int[]{3, 2, 1, 2}, (lft, rgt) -> new TestNodeWithId(lft, lft, rgt));
+        Tree<TestNodeWithId> tree = new Tree<>(nodes);
+        tree.setSpacing(Tree.MIN_GAP_SPACING);
+        Random random = new Random(7);
+        for (int i = 0; i < 300; i++) {
+            TestNodeWithId parent = tree.mNodes.get(random.nextInt(tree.size()));
+            int childrenSize = tree.getChildren(parent.getLft(), parent.getRgt()).size();
+            int operation = random.nextInt(3);
+            if (operation == 0 || tree.size() < 3) {
+                tree.addNode(new TestNodeWithId(1000 + i, 0, 0), parent.getLft(), parent.getRgt(), random.nextInt(childrenSize + 1));
+            } else if (operation == 1) {
+                TestNodeWithId node = tree.mNodes.get(1 + random.nextInt(tree.size() - 1));
+                if (parent.getLft() >= node.getLft() && parent.getRgt() <= node.getRgt()) continue;
+                tree.moveNode(node, parent, random.nextInt(childrenSize + 1));
+            } else if (random.nextInt(4) == 0) {
+                TestNodeWithId node = tree.mNodes.get(1 + random.nextInt(tree.size() - 1));
+                tree.deleteNode(node.getLft(), node.getRgt());
+            }
+            new Tree<>(tree.mNodes, true, tree.getSpacing());
+        }
+        for (TestNodeWithId node : tree.mNodes) {
+            assertEquals(tree.getAncestors(node.getLft(), node.getRgt()).size(), node.getDepth());
+        }
+    }
+
+
+    @Test
+    public void columns_storage_should_behave_like_objects_storage() {
+        for (int spacing : new int[]{Tree.DENSE_SPACING, Tree.MIN_GAP_SPACING}) {
+            Tree<TestNodeWithId> objects = new Tree<>(prepareTestData(new int[]{3, 2, 1, 2}, (lft, rgt) -> new TestNodeWithId(lft, lft, rgt)));
+            Tree<TestNodeWithId> columns = new Tree<>(prepareTestData(new int[]{3, 2, 1, 2}, (lft, rgt) -> new TestNodeWithId(lft, lft, rgt)),
+                    false, Tree.DENSE_SPACING, Tree.Storage.COLUMNS);
+            objects.setSpacing(spacing);
+            columns.setSpacing(spacing);
+            Random random = new Random(11);
+            for (int i = 0; i < 300; i++) {
+                int parentSlot = random.nextInt(objects.size());
+                int childrenSize = objects.getChildren(objects.mNodes.lft(parentSlot), objects.mNodes.rgt(parentSlot)).size();
+                int index = random.nextInt(childrenSize + 1);
+                int nodeSlot = 1 + random.nextInt(Math.max(1, objects.size() - 1));
+                int operation = random.nextInt(4);
+                boolean delete = random.nextInt(4) == 0;
+                for (Tree<TestNodeWithId> tree : Arrays.asList(objects, columns)) {
+                    TestNodeWithId parent = tree.mNodes.get(parentSlot);
+                    if (operation == 0 || tree.size() < 3) {
+                        tree.addNode(new TestNodeWithId(1000 + i, 0, 0), parent.getLft(), parent.getRgt(), index);
+                    } else if (operation == 1) {
+                        TestNodeWithId node = tree.mNodes.get(nodeSlot);
+                        if (parent.getLft() >= node.getLft() && parent.getRgt() <= node.getRgt()) continue;
+                        tree.moveNode(node, parent, index);
+                    } else if (operation == 2) {
+                        tree.setExpanded(parent.getLft(), parent.getRgt(), !parent.isExpanded());
+                    } else if (delete) {
+                        TestNodeWithId node = tree.mNodes.get(nodeSlot);
+                        tree.deleteNode(node.getLft(), node.getRgt());
+                    }
+                }
+                assertArrayEquals(objects.mNodes.toArray(), columns.mNodes.toArray());
+                assertEquals(objects.getVisibleNodes(), columns.getVisibleNodes());
+            }
+            for (int slot = 0; slot < columns.size(); slot++) {
+                TestNodeWithId node = columns.mNodes.get(slot);
+                assertEquals(node.getLft(), columns.mNodes.lft(slot));
+                assertEquals(node.getRgt(), columns.mNodes.rgt(slot));
+                assertEquals(node.getDepth(), columns.mNodes.depth(slot));
+                assertEquals(node.isExpanded(), columns.mNodes.isExpanded(slot));
+            }
+        }
+    }
+
+    @Test
+    public void columns_storage_should_apply_transaction() {
+        List<TestTreeNode> nodes = prepareTestData(new int[]{2, 1});
+        Tree<TestTreeNode> tree = new Tree<>(nodes, false, Tree.DENSE_SPACING, Tree.Storage.COLUMNS);
+        TestTreeNode root = tree.getRoot();
+        TestTreeNode added = new TestTreeNode(0, 0);
+        tree.beginTransaction()
+                .addNode(added, root, 2)
+                .deleteNode(tree.getNodeByLftRgt(1, 4))
+                .commit();
+        assertArrayEquals(
+                new TestTreeNode[]{
+                        new TestTreeNode(0, 5),
+                        new TestTreeNode(1, 2),
+                        new TestTreeNode(3, 4)
+                },
+                tree.mNodes.toArray());
+        assertEquals(3, tree.mNodes.lft(2));
+        assertEquals(1, tree.getDepth(3, 4));
+    }
+
+
+    @Test
+    public void visibleChanges_should_transform_visible_rows() {
+        List<TestNodeWithId> nodes = prepareTestData(new int[]{3, 2, 1, 2}, (lft, rgt) -> new TestNodeWithId(lft, lft, rgt));
+        nodes.forEach(node -> node.setExpanded(true));
+        Tree<TestNodeWithId> tree = new Tree<>(nodes);
+        Random random = new Random(5);
+        for (int i = 0; i < 300; i++) {
+            if (i == 150) tree.setSpacing(Tree.MIN_GAP_SPACING);
+            TestNodeWithId parent = tree.mNodes.get(random.nextInt(tree.size()));
+            int childrenSize = tree.getChildren(parent.getLft(), parent.getRgt()).size();
+            List<Object> rows = new ArrayList<>(tree.getVisibleNodes());
+            Tree.TreeUpdate<TestNodeWithId> update;
+            int operation = random.nextInt(4);
+            if (operation == 0 || tree.size() < 3) {
+                update = tree.addNode(new TestNodeWithId(1000 + i, 0, 0), parent.getLft(), parent.getRgt(), random.nextInt(childrenSize + 1));
+            } else if (operation == 1) {
+                TestNodeWithId node = tree.mNodes.get(1 + random.nextInt(tree.size() - 1));
+                if (parent.getLft() >= node.getLft() && parent.getRgt() <= node.getRgt()) continue;
+                update = tree.moveNode(node, parent, random.nextInt(childrenSize + 1));
+            } else if (operation == 2) {
+                //Collapsed nodes make some changes invisible
+                update = tree.setExpanded(parent.getLft(), parent.getRgt(), !parent.isExpanded());
+            } else {
+                TestNodeWithId node = tree.mNodes.get(1 + random.nextInt(tree.size() - 1));
+                update = tree.deleteNode(node.getLft(), node.getRgt());
+            }
+            assertNotNull(update.visibleChanges);
+            for (VisibleChange change : update.visibleChanges) {
+                switch (change.type) {
+                    case INSERTED:
+                        rows.addAll(change.position, Collections.nCopies(change.count, null));
+                        break;
+                    case REMOVED:
+                        rows.subList(change.position, change.position + change.count).clear();
+                        break;
+                    case MOVED:
+                        rows.add(change.toPosition, rows.remove(change.position));
+                        break;
+                    case CHANGED:
+                        assertTrue(change.position + change.count <= rows.size());
+                        break;
+                }
+            }
+            List<TestNodeWithId> visibleNodes = tree.getVisibleNodes();
+            assertEquals(visibleNodes.size(), rows.size());
+            for (int position = 0; position < rows.size(); position++) {
+                //Inserted rows are bound from tree, other rows must keep their nodes
+                if (rows.get(position) != null) {
+                    assertSame(visibleNodes.get(position), rows.get(position));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void addNode_should_return_inserted_row_and_changed_parent_row() {
+        List<TestTreeNode> nodes = prepareTestData(new int[]{2, 1});
+        nodes.forEach(node -> node.setExpanded(true));
+        Tree<TestTreeNode> tree = new Tree<>(nodes);
+        Tree.TreeUpdate<TestTreeNode> update = tree.addNode(new TestTreeNode(0, 0), 5, 6, 0);
+        assertEquals(Arrays.asList(VisibleChange.inserted(4, 1), VisibleChange.changed(3, 1)), update.visibleChanges);
+        //Children of collapsed node are not visible
+        tree.setExpanded(0, 9, false);
+        update = tree.addNode(new TestTreeNode(0, 0), 0, 9, 0);
+        assertEquals(Collections.singletonList(VisibleChange.changed(0, 1)), update.visibleChanges);
+    }
+
+
+    @Test
+    public void setExpanded_should_return_changed_row_and_range_of_descendant_rows() {
+        List<TestTreeNode> nodes = prepareTestData(new int[]{3, 2, 1, 2});
+        nodes.forEach(node -> node.setExpanded(true));
+        Tree<TestTreeNode> tree = new Tree<>(nodes);
+        assertEquals(Arrays.asList(VisibleChange.changed(6, 1), VisibleChange.removed(7, 2)), tree.setExpanded(11, 16, false).visibleChanges);
+        //Children of collapsed child are not counted
+        assertEquals(Arrays.asList(VisibleChange.changed(0, 1), VisibleChange.removed(1, 6)), tree.setExpanded(0, 17, false).visibleChanges);
+        //Hidden node changes no rows
+        assertEquals(Collections.emptyList(), tree.setExpanded(11, 16, true).visibleChanges);
+        assertEquals(Arrays.asList(VisibleChange.changed(0, 1), VisibleChange.inserted(1, 8)), tree.setExpanded(0, 17, true).visibleChanges);
+        //Nothing changed
+        assertEquals(Collections.emptyList(), tree.setExpanded(0, 17, true).visibleChanges);
+        assertEquals(9, tree.getVisibleCount());
+    }
+
+
+    @Test
+    public void getNodeByKey_should_find_nodes_after_changes() {
+        Tree<TestNodeWithId> tree = new Tree<>(prepareTestData(new int[]{3, 2, 1, 2}, (lft, rgt) -> new TestNodeWithId(lft, lft, rgt)));
+        tree.setKeyExtractor(node -> node.id);
+        TestNodeWithId added = new TestNodeWithId(100, 0, 0);
+        tree.addNode(added, tree.getRoot().getLft(), tree.getRoot().getRgt(), 1);
+        TestNodeWithId deleted = tree.getNodeByKey(11);
+        tree.deleteNode(deleted.getLft(), deleted.getRgt());
+        tree.moveNode(tree.getNodeByKey(7), tree.getNodeByKey(1), 0);
+        tree.beginTransaction()
+                .addNode(new TestNodeWithId(200, 0, 0), added)
+                .deleteNode(tree.getNodeByKey(2))
+                .commit();
+        for (TestNodeWithId node : tree.mNodes) {
+            assertSame(node, tree.getNodeByKey(node.id));
+        }
+        assertSame(added, tree.getNodeByKey(100));
+        assertNotNull(tree.getNodeByKey(200));
+        assertNull(tree.getNodeByKey(11));
+        assertNull(tree.getNodeByKey(2));
+        //Descendant of deleted node
+        assertNull(tree.getNodeByKey(12));
+    }
+    @Test
+    public void addNode_should_throw_exception_on_duplicate_key() {
+        Tree<TestNodeWithId> tree = new Tree<>(prepareTestData(new int[]{2, 1}, (lft, rgt) -> new TestNodeWithId(lft, lft, rgt)));
+        tree.setKeyExtractor(node -> node.id);
+        try {
+            tree.addNode(new TestNodeWithId(2, 0, 0), tree.getRoot());
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals(4, tree.size());
+        }
+        //Key of deleted node can be reused in the same transaction
+        TestNodeWithId replacement = new TestNodeWithId(5, 0, 0);
+        tree.beginTransaction().deleteNode(tree.getNodeByKey(5)).addNode(replacement, tree.getRoot()).commit();
+        assertSame(replacement, tree.getNodeByKey(5));
+    }
+
+
+    @Test
+    public void sortChildren_should_sort_siblings_and_keep_parents() {
+        Random random = new Random(5);
+        for (Tree.Storage storage : Tree.Storage.values()) {
+            for (int spacing : new int[]{Tree.DENSE_SPACING, Tree.MIN_GAP_SPACING + 2}) {
+                List<TestNodeWithId> nodes = prepareTestData(new int[]{4, 3, 2, 3, 1, 2, 3}, (lft, rgt) -> new TestNodeWithId(random.nextInt(1000), lft, rgt));
+                nodes.forEach(node -> node.setExpanded(random.nextInt(4) != 0));
+                Tree<TestNodeWithId> tree = new Tree<>(nodes, false, Tree.DENSE_SPACING, storage);
+                tree.setSpacing(spacing);
+                Map<TestNodeWithId, TestNodeWithId> parents = new IdentityHashMap<>();
+                Map<TestNodeWithId, Integer> depths = new IdentityHashMap<>();
+                for (TestNodeWithId node : tree.mNodes) {
+                    parents.put(node, tree.getParent(node.getLft(), node.getRgt()));
+                    depths.put(node, node.getDepth());
+                }
+                List<TestNodeWithId> oldRows = tree.getVisibleNodes();
+                TestNodeWithId root = tree.getRoot();
+                Tree.TreeUpdate<TestNodeWithId> update = tree.sortChildren(Comparator.comparingInt(node -> node.id));
+
+                //Constructor validates nested set with the same spacing
+                new Tree<>(new ArrayList<>(tree.mNodes), true, spacing);
+                assertEquals(0, root.getLft());
+                for (TestNodeWithId node : tree.mNodes) {
+                    assertSame(parents.get(node), tree.getParent(node.getLft(), node.getRgt()));
+                    assertEquals((int) depths.get(node), node.getDepth());
+                    assertEquals(node.getDepth(), tree.getDepth(node.getLft(), node.getRgt()));
+                    List<TestNodeWithId> children = tree.getChildren(node.getLft(), node.getRgt());
+                    for (int i = 1; i < children.size(); i++) {
+                        assertTrue(children.get(i - 1).id <= children.get(i).id);
+                    }
+                }
+                //Moves of visible rows transform old rows into new rows
+                List<TestNodeWithId> rows = new ArrayList<>(oldRows);
+                for (VisibleChange change : update.visibleChanges) {
+                    assertEquals(VisibleChange.Type.MOVED, change.type);
+                    rows.add(change.toPosition, rows.remove(change.position));
+                }
+                assertEquals(tree.getVisibleNodes(), rows);
+            }
+        }
+    }
+    @Test
+    public void sortChildren_should_change_only_subtree() {
+        Tree<TestNodeWithId> tree = new Tree<>(prepareTestData(new int[]{3, 2, 1, 2}, (lft, rgt) -> new TestNodeWithId(-lft, lft, rgt)));
+        Tree.TreeUpdate<TestNodeWithId> update = tree.sortChildren(11, 16, Comparator.comparingInt(node -> node.id));
+        //Children 12_13 and 14_15 swap indexes
+        assertEquals(2, update.updated.size());
+        assertEquals(-14, tree.getNodeByLftRgt(12, 13).id);
+        assertEquals(-12, tree.getNodeByLftRgt(14, 15).id);
+        assertEquals(-1, tree.getNodeByLftRgt(1, 6).id);
+    }
+
+    @Test
+    public void structural_changes_should_update_built_indexes_in_place() {
+        for (int spacing : new int[]{Tree.DENSE_SPACING, Tree.MIN_GAP_SPACING}) {
+            Tree<TestNodeWithId> tree = new Tree<>(prepareTestData(new int[]{3, 2, 1, 2}, (lft, rgt) -> new TestNodeWithId(lft, lft, rgt)));
+            tree.setSpacing(spacing);
+            Random random = new Random(3);
+            for (int i = 0; i < 300; i++) {
+                tree.prepareIndexes();
+                TestNodeWithId parent = tree.mNodes.get(random.nextInt(tree.size()));
+                int childrenSize = tree.getChildren(parent.getLft(), parent.getRgt()).size();
+                TestNodeWithId node = tree.mNodes.get(random.nextInt(tree.size()));
+                int operation = random.nextInt(5);
+                if (operation == 0 || tree.size() < 3) {
+                    tree.addNode(new TestNodeWithId(1000 + i, 0, 0), parent.getLft(), parent.getRgt(), random.nextInt(childrenSize + 1));
+                } else if (operation == 1) {
+                    //Root can't be moved and node can't be moved inside its own subtree
+                    if (parent.getLft() >= node.getLft() && parent.getRgt() <= node.getRgt()) continue;
+                    tree.moveNode(node, parent, random.nextInt(childrenSize + 1));
+                } else if (operation == 2) {
+                    if (node == tree.getRoot()) continue;
+                    tree.deleteNode(node.getLft(), node.getRgt());
+                } else if (operation == 3) {
+                    tree.setExpanded(parent.getLft(), parent.getRgt(), !parent.isExpanded());
+                } else {
+                    tree.sortChildren(parent.getLft(), parent.getRgt(), (first, second) -> second.id - first.id);
+                }
+                //Tree over the same nodes builds its indexes from scratch
+                Tree<TestNodeWithId> rebuilt = new Tree<>(tree.mNodes, spacing);
+                assertEquals(rebuilt.getVisibleNodes(), tree.getVisibleNodes());
+                for (int slot = 0; slot < tree.size(); slot++) {
+                    assertEquals(rebuilt.parentSlot(slot), tree.parentSlot(slot));
+                }
+            }
+        }
+    }
+
+
+}
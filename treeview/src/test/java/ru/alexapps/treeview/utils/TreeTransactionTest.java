@@ -0,0 +1,131 @@
+package ru.alexapps.treeview.utils;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import ru.alexapps.treeview.exceptions.NodeNotFoundException;
+import ru.alexapps.treeview.exceptions.RemoveRootNodeException;
+
+import static org.junit.Assert.*;
+import static ru.alexapps.treeview.utils.testutils.TestUtils.prepareTestData;
+
+public class TreeTransactionTest {
+
+    @Test
+    public void commit_should_give_same_result_as_single_operations() {
+        Tree<TestNodeWithId> tree = new Tree<>(prepareTestData(new int[]{3, 2, 1, 2}, (lft, rgt) -> new TestNodeWithId(lft, lft, rgt)));
+        Tree<TestNodeWithId> expectedTree = new Tree<>(prepareTestData(new int[]{3, 2, 1, 2}, (lft, rgt) -> new TestNodeWithId(lft, lft, rgt)));
+
+        expectedTree.addNode(new TestNodeWithId(100, 0, 0), expectedTree.getRoot().getLft(), expectedTree.getRoot().getRgt(), 1);
+        expectedTree.deleteNode(2, 3);
+        expectedTree.moveNode(expectedTree.getNodeByLftRgt(11, 16), expectedTree.getNodeByLftRgt(1, 4), 1);
+        expectedTree.moveNode(expectedTree.getNodeByLftRgt(1, 10), expectedTree.getRoot(), 3);
+
+        TreeTransaction<TestNodeWithId> transaction = tree.beginTransaction();
+        transaction.addNode(new TestNodeWithId(100, 0, 0), tree.getRoot(), 1)
+                .deleteNode(tree.getNodeByLftRgt(2, 3))
+                .moveNode(tree.getNodeByLftRgt(11, 16), tree.getNodeByLftRgt(1, 6), 1)
+                .moveNode(tree.getNodeByLftRgt(1, 6), tree.getRoot(), 3);
+        Tree.TreeUpdate<TestNodeWithId> update = transaction.commit();
+
+        assertArrayEquals(expectedTree.mNodes.toArray(), tree.mNodes.toArray());
+        for (TestNodeWithId node : tree.mNodes) {
+            assertEquals(expectedTree.getDepth(node.getLft(), node.getRgt()), node.getDepth());
+        }
+        assertEquals(1, update.inserted.size());
+        assertEquals(1, update.deleted.size());
+        assertEquals(new TestNodeWithId(2, 2, 3), update.deleted.get(0));
+        //All old nodes except root have new indexes
+        assertEquals(tree.size() - 2, update.updated.size());
+    }
+
+    @Test
+    public void commit_should_add_children_to_inserted_nodes() {
+        Tree<TestTreeNodeAlias> tree = new Tree<>(new TestTreeNodeAlias(0, 1));
+        TestTreeNodeAlias child = new TestTreeNodeAlias(0, 0);
+        TestTreeNodeAlias grandChild = new TestTreeNodeAlias(0, 0);
+        Tree.TreeUpdate<TestTreeNodeAlias> update = tree.beginTransaction()
+                .addNode(child, tree.getRoot())
+                .addNode(grandChild, child)
+                .commit();
+        assertEquals(2, update.inserted.size());
+        assertEquals(1, update.updated.size());
+        assertEquals(new TestTreeNodeAlias(1, 4), child);
+        assertEquals(new TestTreeNodeAlias(2, 3), grandChild);
+        assertEquals(2, grandChild.getDepth());
+    }
+
+    @Test
+    public void commit_should_not_report_nodes_inserted_and_deleted() {
+        List<TestTreeNodeAlias> nodes = prepareTestData(new int[]{2}, TestTreeNodeAlias::new);
+        Tree<TestTreeNodeAlias> tree = new Tree<>(nodes);
+        TestTreeNodeAlias child = new TestTreeNodeAlias(0, 0);
+        Tree.TreeUpdate<TestTreeNodeAlias> update = tree.beginTransaction()
+                .addNode(child, tree.getRoot())
+                .deleteNode(child)
+                .commit();
+        assertEquals(0, update.inserted.size());
+        assertEquals(0, update.deleted.size());
+        assertEquals(0, update.updated.size());
+    }
+
+    @Test
+    public void commit_should_not_change_tree_on_invalid_operation() {
+        List<TestNodeWithId> nodes = prepareTestData(new int[]{2, 1}, (lft, rgt) -> new TestNodeWithId(lft, lft, rgt));
+        Tree<TestNodeWithId> tree = new Tree<>(nodes);
+        Object[] before = tree.mNodes.toArray();
+        TestNodeWithId parent = tree.getNodeByLftRgt(1, 4);
+        TestNodeWithId child = tree.getNodeByLftRgt(2, 3);
+        try {
+            tree.beginTransaction()
+                    .addNode(new TestNodeWithId(100, 0, 0), tree.getRoot())
+                    .deleteNode(parent)
+                    //Child was removed with its parent
+                    .moveNode(child, tree.getRoot(), 0)
+                    .commit();
+            fail();
+        } catch (NodeNotFoundException e) {
+            assertArrayEquals(before, tree.mNodes.toArray());
+        }
+    }
+
+    @Test(expected = RemoveRootNodeException.class)
+    public void commit_should_throw_exception_delete_root() {
+        Tree<TestTreeNodeAlias> tree = new Tree<>(new TestTreeNodeAlias(0, 1));
+        tree.beginTransaction().deleteNode(tree.getRoot()).commit();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void commit_should_throw_exception_move_inside_descendant() {
+        List<TestTreeNodeAlias> nodes = prepareTestData(new int[]{2, 1}, TestTreeNodeAlias::new);
+        Tree<TestTreeNodeAlias> tree = new Tree<>(nodes);
+        tree.beginTransaction().moveNode(tree.getNodeByLftRgt(1, 4), tree.getNodeByLftRgt(2, 3), 0).commit();
+    }
+    @Test
+    public void commit_should_shrink_gaps_instead_of_overflowing_indexes() {
+        Tree<TestTreeNodeAlias> tree = new Tree<>(new TestTreeNodeAlias(0, 1));
+        tree.setSpacing(1 << 20);
+        TreeTransaction<TestTreeNodeAlias> transaction = tree.beginTransaction();
+        for (int i = 0; i < 2999; i++) {
+            transaction.addNode(new TestTreeNodeAlias(0, 0), tree.getRoot(), i);
+        }
+        transaction.commit();
+        List<TestTreeNodeAlias> descendants = tree.getDescendants(tree.getRoot());
+        assertEquals(2999, descendants.size());
+        assertEquals(2999, tree.getChildren(tree.getRoot().getLft(), tree.getRoot().getRgt()).size());
+        int lastIndex = tree.getRoot().getLft();
+        for (TestTreeNodeAlias node : descendants) {
+            assertTrue(node.getLft() > lastIndex);
+            assertTrue(node.getRgt() > node.getLft());
+            lastIndex = node.getRgt();
+        }
+        assertTrue(tree.getRoot().getRgt() > lastIndex);
+    }
+
+    static class TestTreeNodeAlias extends ru.alexapps.treeview.utils.testutils.TestUtils.TestTreeNode {
+        TestTreeNodeAlias(int lft, int rgt) {
+            super(lft, rgt);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package ru.alexapps.treeview.utils.testutils;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import ru.alexapps.treeview.utils.Tree;
+import ru.alexapps.treeview.utils.testutils.TestUtils.Shape;
+import ru.alexapps.treeview.utils.testutils.TestUtils.TestTreeNode;
+
+import static org.junit.Assert.*;
+import static ru.alexapps.treeview.utils.testutils.TestUtils.generateNodes;
+import static ru.alexapps.treeview.utils.testutils.TestUtils.generateTree;
+
+public class TestUtilsTest {
+    private static final List<Shape> SHAPES = Arrays.asList(Shape.deepChain(), Shape.kAry(3), Shape.kAry(Integer.MAX_VALUE),
+            Shape.randomFanOut(5), Shape.random());
+
+    @Test
+    public void generateNodes_should_return_valid_nested_set_of_every_shape() {
+        for (Shape shape : SHAPES) {
+            for (int size : new int[]{1, 2, 7, 1000}) {
+                List<TestTreeNode> nodes = generateNodes(shape, size, 1, TestTreeNode::new);
+                assertEquals(size, nodes.size());
+                Tree.validate(nodes, true);
+                //The same seed gives the same tree
+                assertEquals(nodes, generateNodes(shape, size, 1, TestTreeNode::new));
+            }
+        }
+    }
+
+    @Test
+    public void generateNodes_should_follow_shape() {
+        Tree<TestTreeNode> chain = new Tree<>(generateNodes(Shape.deepChain(), 100, 0, TestTreeNode::new), true);
+        assertEquals(98, chain.getAncestors(98, 101).size());
+
+        //1 + 3 + 9 + 27 nodes are complete ternary tree of depth 3
+        Tree<TestTreeNode> complete = new Tree<>(generateNodes(Shape.kAry(3), 40, 0, TestTreeNode::new), true);
+        for (TestTreeNode node : complete.getDescendants(complete.getRoot())) {
+            boolean leaf = node.getRgt() == node.getLft() + 1;
+            assertEquals(leaf, node.getDepth() == 3);
+            assertEquals(leaf ? 0 : 3, complete.getChildren(node.getLft(), node.getRgt()).size());
+        }
+
+        Tree<TestTreeNode> wide = new Tree<>(generateNodes(Shape.kAry(Integer.MAX_VALUE), 50, 0, TestTreeNode::new), true);
+        assertEquals(49, wide.getChildren(0, 99).size());
+    }
+
+    @Test
+    public void generateTree_should_build_the_same_nodes_in_every_storage() {
+        List<TestTreeNode> nodes = generateNodes(Shape.randomFanOut(10), 10000, 7, TestTreeNode::new);
+        for (Tree.Storage storage : Tree.Storage.values()) {
+            Tree<TestTreeNode> tree = generateTree(Shape.randomFanOut(10), 10000, 7, TestTreeNode::new, storage);
+            assertEquals(nodes.size(), tree.size());
+            assertEquals(nodes.get(0), tree.getRoot());
+            assertEquals(nodes.subList(1, nodes.size()), tree.getDescendants(tree.getRoot()));
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package ru.alexapps.treeview.view;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Predicate;
+
+import ru.alexapps.treeview.exceptions.InvalidTreeException;
+import ru.alexapps.treeview.utils.FilteredTree;
+import ru.alexapps.treeview.utils.Tree;
+import ru.alexapps.treeview.utils.TreeDiff;
+import ru.alexapps.treeview.utils.VisibleChange;
+import ru.alexapps.treeview.utils.testutils.TestUtils.TestTreeNode;
+
+import static org.junit.Assert.*;
+import static ru.alexapps.treeview.utils.testutils.TestUtils.prepareTestData;
+
+public class AsyncTreeDifferTest {
+
+    @Test
+    public void diff_should_transform_filtered_rows_into_filtered_rows_of_new_tree() {
+        //Keys are lft in old tree, new tree loses node 8_9 and gets new node with key 100
+        Predicate<NodeWithKey> filter = node -> node.key % 2 == 1 || node.key == 100;
+        Tree<NodeWithKey> oldTree = createTree();
+        FilteredTree<NodeWithKey> oldFilteredTree = new FilteredTree<>(oldTree);
+        oldFilteredTree.setFilter(filter);
+        List<NodeWithKey> oldRows = oldFilteredTree.getNodes();
+
+        Tree<NodeWithKey> newTree = createTree();
+        newTree.deleteNode(8, 9);
+        newTree.addNode(new NodeWithKey(100, 0, 0), newTree.getRoot());
+        AsyncTreeDiffer.Result<NodeWithKey> result = AsyncTreeDiffer.diff(oldRows, newTree, filter, node -> node.key, TreeDiff::sameContent);
+
+        assertNotNull(result.filteredTree);
+        List<NodeWithKey> newRows = result.filteredTree.getNodes();
+        //Collapsed tree has only root visible, so visible rows would give wrong positions
+        assertEquals(1, newTree.getVisibleCount());
+        assertEquals(keys(newRows), keys(applyChanges(oldRows, result.changes, newRows)));
+    }
+
+    @Test
+    public void diff_without_filter_should_compare_visible_rows() {
+        Tree<NodeWithKey> oldTree = createTree();
+        oldTree.setExpanded(0, 17, true);
+        Tree<NodeWithKey> newTree = createTree();
+        newTree.setExpanded(0, 17, true);
+        newTree.deleteNode(1, 6);
+        AsyncTreeDiffer.Result<NodeWithKey> result = AsyncTreeDiffer.diff(oldTree.getVisibleNodes(), newTree, null, node -> node.key, TreeDiff::sameContent);
+        assertNull(result.filteredTree);
+        assertEquals(keys(newTree.getVisibleNodes()), keys(applyChanges(oldTree.getVisibleNodes(), result.changes, newTree.getVisibleNodes())));
+    }
+
+    @Test
+    public void diff_should_return_exception_of_invalid_nodes() {
+        Tree<NodeWithKey> oldTree = createTree();
+        //Second node is not inside of root
+        List<NodeWithKey> nodes = Arrays.asList(new NodeWithKey(0, 0, 1), new NodeWithKey(1, 2, 3));
+        AsyncTreeDiffer.Result<NodeWithKey> result = AsyncTreeDiffer.diff(() -> new Tree<>(nodes), oldTree.getVisibleNodes(), null,
+                node -> node.key, TreeDiff::sameContent);
+
+        assertTrue(result.error instanceof InvalidTreeException);
+        assertNull(result.newTree);
+    }
+
+    private static Tree<NodeWithKey> createTree() {
+        return new Tree<>(prepareTestData(new int[]{3, 2, 1, 2}, (lft, rgt) -> new NodeWithKey(lft, lft, rgt)));
+    }
+
+    private static List<NodeWithKey> applyChanges(List<NodeWithKey> oldRows, List<VisibleChange> changes, List<NodeWithKey> newRows) {
+        List<NodeWithKey> rows = new ArrayList<>(oldRows);
+        for (VisibleChange change : changes) {
+            switch (change.type) {
+                case INSERTED:
+                    for (int i = 0; i < change.count; i++) {
+                        rows.add(change.position + i, null);
+                    }
+                    break;
+                case REMOVED:
+                    rows.subList(change.position, change.position + change.count).clear();
+                    break;
+                case MOVED:
+                    rows.add(change.toPosition, rows.remove(change.position));
+                    break;
+                default:
+                    break;
+            }
+        }
+        //Inserted rows are bound from new rows
+        for (int i = 0; i < rows.size(); i++) {
+            if (rows.get(i) == null) rows.set(i, newRows.get(i));
+        }
+        return rows;
+    }
+
+    private static List<Integer> keys(List<NodeWithKey> nodes) {
+        List<Integer> keys = new ArrayList<>();
+        for (NodeWithKey node : nodes) {
+            keys.add(node.key);
+        }
+        return keys;
+    }
+
+    static class NodeWithKey extends TestTreeNode {
+        final int key;
+
+        NodeWithKey(int key, int lft, int rgt) {
+            super(lft, rgt);
+            this.key = key;
+        }
+    }
+}